@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.benchmark;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+
+import com.example.castsample.CastSampleActivity;
+import com.example.castsample.metrics.StartupTrace;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts CastSampleActivity several times and reports the median time from onCreate to its first
+ * frame, to the first frame showing the Cast button, and to the end of the deferred steps, as
+ * recorded by its StartupTrace. The process is already running, so this leaves out process
+ * creation; "adb shell am start -W" measures a cold start including it.
+ */
+public class ActivityStartupBenchmark implements Benchmark {
+
+    private static final int RUNS = 5;
+    private static final long TIMEOUT_MS = 10000;
+    /** Lets the finished activity go away before the next start. */
+    private static final long SETTLE_MS = 1000;
+
+    @Override
+    public String getName() {
+        return "activity-startup";
+    }
+
+    @Override
+    public String run(Context context) throws Exception {
+        long[] firstDraw = new long[RUNS];
+        long[] castButton = new long[RUNS];
+        long[] completed = new long[RUNS];
+        final StartupTrace[] traces = new StartupTrace[1];
+        try {
+            for (int run = 0; run < RUNS; run++) {
+                final CountDownLatch traced = new CountDownLatch(1);
+                StartupTrace.setListener(new StartupTrace.Listener() {
+                    @Override
+                    public void onStartupTraced(Activity activity, StartupTrace trace) {
+                        traces[0] = trace;
+                        activity.finish();
+                        traced.countDown();
+                    }
+                });
+                context.startActivity(new Intent(context, CastSampleActivity.class)
+                        .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK));
+                if (!traced.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    throw new IllegalStateException("No startup trace after " + TIMEOUT_MS + " ms");
+                }
+                firstDraw[run] = traces[0].getFirstDrawNanos();
+                castButton[run] = traces[0].getCastButtonNanos();
+                completed[run] = traces[0].getCompletedNanos();
+                Thread.sleep(SETTLE_MS);
+            }
+        } finally {
+            StartupTrace.setListener(null);
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append("median of ").append(RUNS).append(" starts\n")
+                .append("first draw ").append(millis(median(firstDraw))).append('\n');
+        if (median(castButton) >= 0) {
+            report.append("Cast button visible ").append(millis(median(castButton))).append('\n');
+        } else {
+            report.append("Cast button not shown; no Cast device has been seen recently\n");
+        }
+        report.append("deferred init done ").append(millis(median(completed))).append('\n')
+                .append("last run:\n").append(traces[0].getSummary()).append('\n');
+        return report.toString();
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f ms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.benchmark;
+
+import android.content.Context;
+
+/**
+ * A repeatable on-device measurement run by BenchmarkActivity.
+ */
+public interface Benchmark {
+
+    /**
+     * Returns the name used to select this benchmark from the command line.
+     */
+    String getName();
+
+    /**
+     * Runs the benchmark on a background thread and returns a human-readable report.
+     */
+    String run(Context context) throws Exception;
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.benchmark;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.TextView;
+
+import com.example.castsample.R;
+
+/**
+ * A debug-only activity which runs the registered benchmarks off the main thread, shows their
+ * reports and writes them to the log. Pass "-e benchmark &lt;name&gt;" to run a single one.
+ */
+public class BenchmarkActivity extends Activity {
+
+    private static final String TAG = BenchmarkActivity.class.getSimpleName();
+
+    public static final String EXTRA_BENCHMARK = "benchmark";
+
+    private static final Benchmark[] BENCHMARKS = {
+            new ActivityStartupBenchmark(),
+            new CatalogStartupBenchmark(),
+            new TitleSearchBenchmark(),
+            new FanOutBenchmark(),
+            new SimulatedLoadBenchmark(),
+            new SoakBenchmark(),
+            new StatusFlightBenchmark(),
+            new MediaServerBenchmark(),
+            new MediaProbeBenchmark(),
+            new TraceLogBenchmark(),
+    };
+
+    private TextView mReportText;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_benchmark);
+        mReportText = (TextView) findViewById(R.id.benchmark_report);
+
+        final String selected = getIntent().getStringExtra(EXTRA_BENCHMARK);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final StringBuilder report = new StringBuilder();
+                for (Benchmark benchmark : BENCHMARKS) {
+                    if (selected != null && !selected.equals(benchmark.getName())) {
+                        continue;
+                    }
+                    String result;
+                    try {
+                        result = benchmark.run(getApplicationContext());
+                    } catch (Exception e) {
+                        Log.e(TAG, "Benchmark " + benchmark.getName() + " failed", e);
+                        result = "failed: " + e;
+                    }
+                    Log.i(TAG, benchmark.getName() + "\n" + result);
+                    report.append("== ").append(benchmark.getName()).append(" ==\n")
+                            .append(result).append('\n');
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mReportText.setText(report);
+                    }
+                });
+            }
+        }, TAG).start();
+    }
+}
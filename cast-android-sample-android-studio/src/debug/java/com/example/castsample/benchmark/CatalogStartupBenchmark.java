@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.benchmark;
+
+import android.content.Context;
+
+import com.example.castsample.CastMedia;
+import com.example.castsample.catalog.CatalogCache;
+import com.example.castsample.catalog.CatalogParser;
+import com.example.castsample.catalog.CatalogSource;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Compares a cold catalog start, which parses the whole source and writes the cache, with a warm
+ * start, which maps the cache, decodes the first page and revalidates the source. Both follow the
+ * same steps MediaCatalog takes on its loader thread.
+ */
+public class CatalogStartupBenchmark implements Benchmark {
+
+    private static final int ENTRIES = 20000;
+    private static final int FIRST_PAGE = 20;
+    private static final int RUNS = 5;
+
+    @Override
+    public String getName() {
+        return "catalog-startup";
+    }
+
+    @Override
+    public String run(Context context) throws Exception {
+        File dir = new File(context.getCacheDir(), "benchmark");
+        dir.mkdirs();
+        File catalogFile = new File(dir, "catalog.json");
+        writeCatalog(catalogFile, ENTRIES);
+        CatalogSource source = CatalogSource.fromFile(catalogFile);
+        CatalogCache cache = new CatalogCache(new File(dir, "catalog.bin"));
+
+        long[] coldFirstPage = new long[RUNS];
+        long[] coldTotal = new long[RUNS];
+        long[] warmFirstPage = new long[RUNS];
+        long[] warmTotal = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            cache.delete();
+            long[] cold = coldStart(source, cache);
+            coldFirstPage[run] = cold[0];
+            coldTotal[run] = cold[1];
+            long[] warm = warmStart(source, cache);
+            warmFirstPage[run] = warm[0];
+            warmTotal[run] = warm[1];
+        }
+        cache.delete();
+        catalogFile.delete();
+
+        return ENTRIES + " entries, median of " + RUNS + " runs\n"
+                + "cold: first page " + millis(median(coldFirstPage))
+                + ", complete " + millis(median(coldTotal)) + "\n"
+                + "warm: first page " + millis(median(warmFirstPage))
+                + ", revalidated " + millis(median(warmTotal)) + "\n";
+    }
+
+    /**
+     * Returns the nanoseconds until the first page was parsed and until the cache was written.
+     */
+    private long[] coldStart(CatalogSource source, CatalogCache cache) throws IOException {
+        final long start = System.nanoTime();
+        final long[] firstPage = new long[1];
+        CatalogSource.Result result = source.open(null, null);
+        final CatalogCache.Writer writer = cache.newWriter(source.getKey(), result.getEtag(),
+                result.getLastModified());
+        new CatalogParser().parse(result.getStream(), new CatalogParser.Handler() {
+            private int mCount;
+
+            @Override
+            public boolean onMedia(CastMedia media) {
+                try {
+                    writer.add(media);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                if (++mCount == FIRST_PAGE) {
+                    firstPage[0] = System.nanoTime() - start;
+                }
+                return true;
+            }
+        });
+        writer.commit();
+        return new long[] { firstPage[0], System.nanoTime() - start };
+    }
+
+    /**
+     * Returns the nanoseconds until the first page was decoded from the cache and until the
+     * source had been revalidated.
+     */
+    private long[] warmStart(CatalogSource source, CatalogCache cache) throws IOException {
+        long start = System.nanoTime();
+        CatalogCache.Reader reader = cache.open(source.getKey());
+        if (reader == null) {
+            throw new IllegalStateException("Cache missing after cold start");
+        }
+        for (int i = 0; i < FIRST_PAGE; i++) {
+            reader.get(i);
+        }
+        long firstPage = System.nanoTime() - start;
+        CatalogSource.Result result = source.open(reader.getEtag(), reader.getLastModified());
+        if (!result.isNotModified()) {
+            throw new IllegalStateException("Unchanged catalog failed to revalidate");
+        }
+        return new long[] { firstPage, System.nanoTime() - start };
+    }
+
+    private static void writeCatalog(File file, int entries) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8"));
+        try {
+            out.write("[\n");
+            for (int i = 0; i < entries; i++) {
+                out.write(i == 0 ? "" : ",\n");
+                out.write("{\"title\": \"Benchmark Media " + i + "\", \"url\": "
+                        + "\"http://example.com/media/" + i + ".mp4\"}");
+            }
+            out.write("\n]\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.benchmark;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.example.castsample.session.DeviceSession;
+import com.example.castsample.session.MultiSessionManager;
+import com.example.castsample.simulation.SimulatedReceiver;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a MultiSessionManager against simulated receivers, one of which accepts commands very
+ * slowly, and reports the command latency of the fast and the slow devices separately. The fast
+ * devices should not be held up by the slow one.
+ */
+public class FanOutBenchmark implements Benchmark {
+
+    private static final int DEVICES = 20;
+    private static final int ROUNDS = 100;
+    private static final long LATENCY_MS = 20;
+    private static final long SLOW_SEND_DELAY_MS = 200;
+    private static final String SLOW_DEVICE = "receiver-0";
+
+    @Override
+    public String getName() {
+        return "multi-device-fanout";
+    }
+
+    @Override
+    public String run(Context context) throws Exception {
+        final MultiSessionManager manager = new MultiSessionManager();
+        final long[] fastLatencies = new long[ROUNDS * (DEVICES - 1)];
+        final long[] slowLatencies = new long[ROUNDS];
+        final int[] counts = new int[3];
+        final CountDownLatch done = new CountDownLatch(ROUNDS);
+        final MultiSessionManager.FanOutCallback callback =
+                new MultiSessionManager.FanOutCallback() {
+            @Override
+            public void onDeviceCompleted(DeviceSession device, boolean success,
+                    long latencyMs) {
+                if (SLOW_DEVICE.equals(device.getName())) {
+                    slowLatencies[counts[1]++] = latencyMs;
+                } else {
+                    fastLatencies[counts[0]++] = latencyMs;
+                }
+            }
+
+            @Override
+            public void onFanOutCompleted(int succeeded, int failed) {
+                counts[2] += failed;
+                done.countDown();
+            }
+        };
+
+        final Handler handler = new Handler(Looper.getMainLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < DEVICES; i++) {
+                    String name = "receiver-" + i;
+                    SimulatedReceiver receiver = new SimulatedReceiver(name, LATENCY_MS,
+                            name.equals(SLOW_DEVICE) ? SLOW_SEND_DELAY_MS : 0);
+                    manager.connect(name, receiver.createStream());
+                }
+            }
+        });
+
+        long cpuStart = Process.getElapsedCpuTime();
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            final int command = round;
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    switch (command % 3) {
+                        case 0:
+                            manager.setVolume(0.5, callback);
+                            break;
+                        case 1:
+                            manager.playFrom(command, callback);
+                            break;
+                        default:
+                            manager.requestStatus(callback);
+                            break;
+                    }
+                }
+            }, round * 50L);
+        }
+        boolean finished = done.await(ROUNDS * SLOW_SEND_DELAY_MS + 10000, TimeUnit.MILLISECONDS);
+        long wallMs = (System.nanoTime() - start) / 1000000;
+        long cpuMs = Process.getElapsedCpuTime() - cpuStart;
+
+        final CountDownLatch released = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                manager.disconnectAll();
+                released.countDown();
+            }
+        });
+        released.await();
+
+        StringBuilder report = new StringBuilder();
+        report.append(DEVICES).append(" devices, ").append(ROUNDS).append(" rounds")
+                .append(finished ? "" : " (TIMED OUT)").append(", ").append(counts[2])
+                .append(" failed\n");
+        appendPercentiles(report, "fast devices", fastLatencies, counts[0]);
+        appendPercentiles(report, "slow device", slowLatencies, counts[1]);
+        report.append("process CPU ").append(cpuMs).append(" ms over ").append(wallMs)
+                .append(" ms wall\n");
+        return report.toString();
+    }
+
+    private static void appendPercentiles(StringBuilder report, String label, long[] latencies,
+            int count) {
+        if (count == 0) {
+            report.append(label).append(": no results\n");
+            return;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        report.append(label).append(": p50 ").append(sorted[count / 2]).append(" ms, p99 ")
+                .append(sorted[Math.min(count - 1, count * 99 / 100)]).append(" ms, max ")
+                .append(sorted[count - 1]).append(" ms\n");
+    }
+}
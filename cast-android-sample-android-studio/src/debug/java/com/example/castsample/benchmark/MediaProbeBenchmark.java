@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.benchmark;
+
+import android.content.Context;
+
+import com.example.castsample.probe.MediaInfo;
+import com.example.castsample.probe.MediaProbe;
+import com.example.castsample.probe.RangeReader;
+import com.example.castsample.server.MediaServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+
+/**
+ * Writes a synthetic MP4 with its "moov" box behind a 1 GB "mdat" and a variable bitrate MP3 with
+ * an ID3 tag and a Xing header, serves both through MediaServer on the loopback interface, and
+ * probes them with MediaProbe. Reports whether the expected values were found, and how many
+ * requests, bytes and milliseconds each probe took.
+ */
+public class MediaProbeBenchmark implements Benchmark {
+
+    private static final int ROUNDS = 20;
+    private static final long MDAT_BYTES = 1024L * 1024 * 1024;
+    private static final int MP3_FRAMES = 10000;
+    private static final int MP3_BYTES = 4000000;
+    private static final int ID3_BYTES = 1000;
+
+    @Override
+    public String getName() {
+        return "media-probe";
+    }
+
+    @Override
+    public String run(Context context) throws Exception {
+        File mp4 = new File(context.getCacheDir(), "probe-benchmark.mp4");
+        File mp3 = new File(context.getCacheDir(), "probe-benchmark.mp3");
+        MediaServer server = MediaServer.getInstance();
+        server.start(0);
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        String mp4Url = null;
+        String mp3Url = null;
+        try {
+            writeMp4(mp4);
+            writeMp3(mp3);
+            mp4Url = server.publish(mp4, loopback);
+            mp3Url = server.publish(mp3, loopback);
+
+            StringBuilder report = new StringBuilder();
+            MediaInfo mp4Info = measure(report, "mp4, moov at end", mp4Url);
+            report.append(check(mp4Info != null && Math.abs(mp4Info.getDuration() - 596) < 0.01
+                    && mp4Info.getWidth() == 1280 && mp4Info.getHeight() == 720
+                    && "avc1.64001F".equals(mp4Info.getVideoCodec())
+                    && "mp4a.40.2".equals(mp4Info.getAudioCodec()), mp4Info));
+            MediaInfo mp3Info = measure(report, "mp3, ID3 + Xing", mp3Url);
+            double mp3Duration = MP3_FRAMES * 1152 / 44100.0;
+            report.append(check(mp3Info != null
+                    && Math.abs(mp3Info.getDuration() - mp3Duration) < 0.01
+                    && "mp3".equals(mp3Info.getAudioCodec()), mp3Info));
+            return report.toString();
+        } finally {
+            if (mp4Url != null) {
+                server.unpublish(mp4Url);
+            }
+            if (mp3Url != null) {
+                server.unpublish(mp3Url);
+            }
+            server.stop();
+            mp4.delete();
+            mp3.delete();
+        }
+    }
+
+    private static MediaInfo measure(StringBuilder report, String label, String url)
+            throws IOException {
+        MediaInfo info = null;
+        RangeReader reader = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            reader = new RangeReader(url);
+            info = MediaProbe.probe(reader);
+        }
+        long nanos = (System.nanoTime() - start) / ROUNDS;
+        report.append(label).append(": ").append(reader.getRequestCount()).append(" requests, ")
+                .append(reader.getBytesRead()).append(" of ").append(reader.getLength())
+                .append(" bytes, ").append(String.format("%.2f ms", nanos / 1e6))
+                .append(" per probe\n");
+        return info;
+    }
+
+    private static String check(boolean ok, MediaInfo info) {
+        String found = info == null ? "nothing" : info.toJson().toString();
+        return (ok ? "  OK " : "  MISMATCH ") + found + "\n";
+    }
+
+    private static void writeMp4(File file) throws IOException {
+        byte[] ftyp = box("ftyp", bytes("isom"), int32(0x200), bytes("isom"), bytes("avc1"));
+        byte[] mvhd = box("mvhd", int32(0), int32(0), int32(0), int32(1000), int32(596000),
+                int32(0x10000), new byte[2 + 10 + 36 + 24], int32(3));
+        byte[] video = box("trak",
+                tkhd(1280, 720),
+                box("mdia",
+                        hdlr("vide"),
+                        box("minf", box("stbl", box("stsd", int32(0), int32(1),
+                                box("avc1", new byte[24], int16(1280), int16(720),
+                                        new byte[78 - 28],
+                                        box("avcC", new byte[] { 1, 0x64, 0x00, 0x1F,
+                                                (byte) 0xFF, (byte) 0xE0, 0 })))))));
+        byte[] esds = box("esds", int32(0),
+                new byte[] { 0x03, 25, 0, 1, 0 },
+                new byte[] { 0x04, 17, 0x40, 0x15, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 },
+                new byte[] { 0x05, 2, 0x12, 0x10 },
+                new byte[] { 0x06, 1, 2 });
+        byte[] audio = box("trak",
+                tkhd(0, 0),
+                box("mdia",
+                        hdlr("soun"),
+                        box("minf", box("stbl", box("stsd", int32(0), int32(1),
+                                box("mp4a", new byte[28], esds))))));
+        byte[] moov = box("moov", mvhd, video, audio);
+
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            output.setLength(0);
+            output.write(ftyp);
+            // A 64-bit sized "mdat" whose contents are left sparse.
+            output.write(concat(int32(1), bytes("mdat"), int64(16 + MDAT_BYTES)));
+            output.seek(output.getFilePointer() + MDAT_BYTES);
+            output.write(moov);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static void writeMp3(File file) throws IOException {
+        byte[] id3 = concat(bytes("ID3"), new byte[] { 3, 0, 0,
+                0, 0, (byte) (ID3_BYTES >> 7), (byte) (ID3_BYTES & 0x7F) }, new byte[ID3_BYTES]);
+        // MPEG-1 layer III, 128 kbps, 44.1 kHz, stereo; the Xing header follows 32 bytes of side
+        // information.
+        byte[] frame = concat(new byte[] { (byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x00 },
+                new byte[32], bytes("Xing"), int32(3), int32(MP3_FRAMES), int32(MP3_BYTES));
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            output.setLength(0);
+            output.write(id3);
+            output.write(frame);
+            output.setLength(id3.length + MP3_BYTES);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static byte[] tkhd(int width, int height) throws IOException {
+        return box("tkhd", int32(0), new byte[20 + 8 + 8 + 36], int32(width << 16),
+                int32(height << 16));
+    }
+
+    private static byte[] hdlr(String handler) throws IOException {
+        return box("hdlr", int32(0), int32(0), bytes(handler), new byte[12], new byte[1]);
+    }
+
+    private static byte[] box(String type, byte[]... contents) throws IOException {
+        byte[] body = concat(contents);
+        return concat(int32(8 + body.length), bytes(type), body);
+    }
+
+    private static byte[] concat(byte[]... parts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(String ascii) {
+        return ascii.getBytes(java.nio.charset.Charset.forName("US-ASCII"));
+    }
+
+    private static byte[] int16(int value) {
+        return new byte[] { (byte) (value >> 8), (byte) value };
+    }
+
+    private static byte[] int32(int value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new DataOutputStream(out).writeInt(value);
+        return out.toByteArray();
+    }
+
+    private static byte[] int64(long value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new DataOutputStream(out).writeLong(value);
+        return out.toByteArray();
+    }
+}
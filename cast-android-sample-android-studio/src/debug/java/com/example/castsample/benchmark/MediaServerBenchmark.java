@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.benchmark;
+
+import android.content.Context;
+
+import com.example.castsample.server.MediaServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Serves a large sparse file through MediaServer to a client on the loopback interface and
+ * reports the throughput of a full download and of a series of seeks, along with how much the
+ * heap grew meanwhile. The client discards what it reads into a direct buffer, so the measurement
+ * is dominated by the server.
+ */
+public class MediaServerBenchmark implements Benchmark {
+
+    private static final long FILE_BYTES = 2L * 1024 * 1024 * 1024;
+    private static final int SEEKS = 50;
+    private static final long SEEK_BYTES = 4 * 1024 * 1024;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    @Override
+    public String getName() {
+        return "media-server";
+    }
+
+    @Override
+    public String run(Context context) throws Exception {
+        File file = new File(context.getCacheDir(), "media-server-benchmark.mp4");
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            // Sparse, so creating it costs nothing; reads return zeros from the page cache.
+            output.setLength(FILE_BYTES);
+        } finally {
+            output.close();
+        }
+
+        MediaServer server = MediaServer.getInstance();
+        server.start(0);
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        String url = server.publish(file, loopback);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+        try {
+            StringBuilder report = new StringBuilder();
+            long heapBefore = usedHeap();
+            SocketChannel channel = connect(url);
+            try {
+                long start = System.nanoTime();
+                long read = fetch(channel, url, null, buffer);
+                report.append("full GET: ").append(rate(read, System.nanoTime() - start))
+                        .append('\n');
+
+                Random random = new Random(42);
+                long seekRead = 0;
+                start = System.nanoTime();
+                for (int i = 0; i < SEEKS; i++) {
+                    long from = (long) (random.nextDouble() * (FILE_BYTES - SEEK_BYTES));
+                    seekRead += fetch(channel, url,
+                            "bytes=" + from + "-" + (from + SEEK_BYTES - 1), buffer);
+                }
+                report.append(SEEKS).append(" range GETs on one connection: ")
+                        .append(rate(seekRead, System.nanoTime() - start)).append('\n');
+            } finally {
+                channel.close();
+            }
+            report.append("heap growth ").append((usedHeap() - heapBefore) / 1024)
+                    .append(" KB\n");
+            return report.toString();
+        } finally {
+            server.unpublish(url);
+            server.stop();
+            file.delete();
+        }
+    }
+
+    private static SocketChannel connect(String url) throws IOException {
+        URL parsed = new URL(url);
+        return SocketChannel.open(new InetSocketAddress(parsed.getHost(), parsed.getPort()));
+    }
+
+    /**
+     * Sends one GET request over the connection and reads the response body, returning its
+     * length.
+     */
+    private static long fetch(SocketChannel channel, String url, String range, ByteBuffer buffer)
+            throws IOException {
+        String request = "GET " + new URL(url).getPath() + " HTTP/1.1\r\nHost: localhost\r\n"
+                + (range != null ? "Range: " + range + "\r\n" : "") + "\r\n";
+        ByteBuffer out = ByteBuffer.wrap(request.getBytes(ASCII));
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+
+        // Read the head byte by byte into a small heap buffer, then the body in bulk.
+        StringBuilder head = new StringBuilder();
+        ByteBuffer one = ByteBuffer.allocate(1);
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            one.clear();
+            if (channel.read(one) < 0) {
+                throw new IOException("Connection closed in response head");
+            }
+            head.append((char) one.get(0));
+        }
+        String headText = head.toString();
+        if (!headText.startsWith("HTTP/1.1 20")) {
+            throw new IOException("Unexpected response: " + headText);
+        }
+        int lengthStart = headText.indexOf("Content-Length: ") + "Content-Length: ".length();
+        long remaining = Long.parseLong(
+                headText.substring(lengthStart, headText.indexOf('\r', lengthStart)));
+        long total = remaining;
+        while (remaining > 0) {
+            buffer.clear();
+            if (remaining < buffer.capacity()) {
+                buffer.limit((int) remaining);
+            }
+            int read = channel.read(buffer);
+            if (read < 0) {
+                throw new IOException("Connection closed in response body");
+            }
+            remaining -= read;
+        }
+        return total;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String rate(long bytes, long nanos) {
+        return String.format("%d MB in %.2f s, %.1f MB/s", bytes / (1024 * 1024), nanos / 1e9,
+                bytes / (1024.0 * 1024.0) / (nanos / 1e9));
+    }
+}
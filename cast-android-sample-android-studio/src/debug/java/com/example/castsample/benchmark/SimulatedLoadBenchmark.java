@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.benchmark;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.castsample.metrics.LatencyHistogram;
+import com.example.castsample.session.DeviceSession;
+import com.example.castsample.session.MultiSessionManager;
+import com.example.castsample.simulation.SimulatedReceiver;
+import com.example.castsample.simulation.SimulatedTransport;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects a MultiSessionManager to simulated receivers over a network with jitter and packet
+ * loss, then sends rounds of commands to all of them back to back, and reports the command
+ * throughput and the latency distribution of each command. The receivers are seeded, so every run
+ * sees the same network.
+ */
+public class SimulatedLoadBenchmark implements Benchmark {
+
+    private static final int DEVICES = 8;
+    private static final int ROUNDS = 300;
+    private static final long LATENCY_MS = 15;
+    private static final long JITTER_MS = 20;
+    private static final double LOSS_RATE = 0.01;
+    private static final long LAUNCH_MS = 100;
+    private static final long TIMEOUT_MS = 120000;
+    private static final String[] COMMANDS = {"setVolume", "playFrom", "requestStatus"};
+
+    @Override
+    public String getName() {
+        return "simulated-load";
+    }
+
+    @Override
+    public String run(Context context) throws Exception {
+        final MultiSessionManager manager = new MultiSessionManager();
+        final LatencyHistogram[] histograms = new LatencyHistogram[COMMANDS.length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        final CountDownLatch connected = new CountDownLatch(DEVICES);
+        final CountDownLatch done = new CountDownLatch(1);
+        final int[] failures = new int[1];
+        final Handler handler = new Handler(Looper.getMainLooper());
+
+        manager.setListener(new MultiSessionManager.Listener() {
+            @Override
+            public void onDeviceConnectionChanged(DeviceSession device) {
+                if (device.isConnected()) {
+                    connected.countDown();
+                }
+            }
+
+            @Override
+            public void onDeviceStatusChanged(DeviceSession device) {
+            }
+        });
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < DEVICES; i++) {
+                    SimulatedReceiver receiver = new SimulatedReceiver("simulated-" + i,
+                            LATENCY_MS, JITTER_MS, LOSS_RATE, 0, i);
+                    manager.connect(new SimulatedTransport(receiver, LAUNCH_MS));
+                }
+            }
+        });
+        if (!connected.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("Simulated devices did not connect");
+        }
+
+        // Each round starts when every device has answered the previous one.
+        final long start = System.nanoTime();
+        final long[] end = new long[1];
+        handler.post(new Runnable() {
+            private int mRound;
+
+            @Override
+            public void run() {
+                if (mRound == ROUNDS) {
+                    end[0] = System.nanoTime();
+                    done.countDown();
+                    return;
+                }
+                final int command = mRound++ % COMMANDS.length;
+                final Runnable next = this;
+                MultiSessionManager.FanOutCallback callback =
+                        new MultiSessionManager.FanOutCallback() {
+                    @Override
+                    public void onDeviceCompleted(DeviceSession device, boolean success,
+                            long latencyMs) {
+                        if (success) {
+                            histograms[command].record(latencyMs * 1000);
+                        } else {
+                            histograms[command].recordError();
+                        }
+                    }
+
+                    @Override
+                    public void onFanOutCompleted(int succeeded, int failed) {
+                        failures[0] += failed;
+                        next.run();
+                    }
+                };
+                switch (command) {
+                    case 0:
+                        manager.setVolume(0.5, callback);
+                        break;
+                    case 1:
+                        manager.playFrom(mRound, callback);
+                        break;
+                    default:
+                        manager.requestStatus(callback);
+                        break;
+                }
+            }
+        });
+        boolean finished = done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        final CountDownLatch released = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                manager.disconnectAll();
+                released.countDown();
+            }
+        });
+        released.await();
+        if (!finished) {
+            throw new IllegalStateException("Timed out after " + TIMEOUT_MS + " ms");
+        }
+
+        double seconds = (end[0] - start) / 1e9;
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%d devices, %d ms + up to %d ms jitter, %.0f%% loss\n",
+                DEVICES, LATENCY_MS, JITTER_MS, LOSS_RATE * 100));
+        report.append(String.format("%d commands in %.2f s, %.0f commands/s, %d failed\n",
+                ROUNDS * DEVICES, seconds, ROUNDS * DEVICES / seconds, failures[0]));
+        for (int i = 0; i < COMMANDS.length; i++) {
+            LatencyHistogram histogram = histograms[i];
+            report.append(String.format("%s: p50 %.1f ms, p99 %.1f ms, max %.1f ms\n",
+                    COMMANDS[i], histogram.getPercentileMicros(0.5) / 1000.0,
+                    histogram.getPercentileMicros(0.99) / 1000.0,
+                    histogram.getMaxMicros() / 1000.0));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.benchmark;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.castsample.metrics.LatencyHistogram;
+import com.example.castsample.session.DeviceSession;
+import com.example.castsample.session.MultiSessionManager;
+import com.example.castsample.simulation.SimulatedReceiver;
+import com.example.castsample.simulation.SimulatedTransport;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Churns sessions with simulated receivers for a long time and fails if resources leak or
+ * performance degrades. Every cycle connects to all receivers the way selecting a route does,
+ * loads media, sends a burst of commands without waiting for replies and disconnects again,
+ * stopping the receiver application as unselecting the route does. After each window of cycles
+ * it samples command throughput, tail latency, the number of live threads, the heap in use after
+ * a garbage collection, and sessions that are still reachable or still connected to a receiver
+ * after they were disconnected. The run fails if the last window is clearly worse than the first
+ * steady one.
+ */
+public class SoakBenchmark implements Benchmark {
+
+    private static final int DEVICES = 4;
+    private static final int WINDOWS = 10;
+    private static final int CYCLES_PER_WINDOW = 200;
+    private static final int BURST = 20;
+    private static final long LATENCY_MS = 5;
+    private static final long JITTER_MS = 5;
+    private static final double LOSS_RATE = 0.001;
+    private static final long LAUNCH_MS = 2;
+    /** Keeps end-of-media timers of the receivers short-lived. */
+    private static final double MEDIA_DURATION = 2;
+    private static final long WINDOW_TIMEOUT_MS = 300000;
+
+    /** The first window warms up the JIT and the caches; the second is the baseline. */
+    private static final int BASELINE_WINDOW = 1;
+    private static final int MAX_THREAD_GROWTH = 2;
+    private static final long MAX_HEAP_GROWTH_BYTES = 4 * 1024 * 1024;
+    private static final double MAX_LATENCY_RATIO = 2.0;
+    private static final double MIN_THROUGHPUT_RATIO = 0.5;
+
+    /**
+     * The measurements taken after one window of cycles.
+     */
+    private static class Sample {
+        double commandsPerSecond;
+        double p99Ms;
+        int threads;
+        long heapBytes;
+        int leakedSessions;
+
+        @Override
+        public String toString() {
+            return String.format("%8.0f %8.1f %7d %9d %6d", commandsPerSecond, p99Ms, threads,
+                    heapBytes / 1024, leakedSessions);
+        }
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final MultiSessionManager mManager = new MultiSessionManager();
+    private final LatencyHistogram mLatency = new LatencyHistogram();
+    private final List<SimulatedReceiver> mReceivers = new ArrayList<SimulatedReceiver>();
+    private final List<WeakReference<DeviceSession>> mReleasedSessions =
+            new ArrayList<WeakReference<DeviceSession>>();
+    private CountDownLatch mWindowDone;
+    private int mCyclesLeft;
+    private int mConnected;
+    private int mBurstsLeft;
+    private long mCommands;
+    private int mFailures;
+    private int mSuperseded;
+
+    @Override
+    public String getName() {
+        return "soak";
+    }
+
+    @Override
+    public String run(Context context) throws Exception {
+        for (int i = 0; i < DEVICES; i++) {
+            SimulatedReceiver receiver = new SimulatedReceiver("soak-" + i, LATENCY_MS,
+                    JITTER_MS, LOSS_RATE, 0, i);
+            receiver.setMediaDuration(MEDIA_DURATION);
+            mReceivers.add(receiver);
+        }
+        mManager.setListener(new MultiSessionManager.Listener() {
+            @Override
+            public void onDeviceConnectionChanged(DeviceSession device) {
+                if (device.isConnected() && ++mConnected == DEVICES) {
+                    load();
+                }
+            }
+
+            @Override
+            public void onDeviceStatusChanged(DeviceSession device) {
+            }
+        });
+
+        List<Sample> samples = new ArrayList<Sample>();
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%d devices, %d cycles of %d commands per window\n",
+                DEVICES, CYCLES_PER_WINDOW, BURST));
+        report.append("window  cmds/s   p99 ms threads   heap KB leaked\n");
+        for (int window = 0; window < WINDOWS; window++) {
+            Sample sample = runWindow();
+            samples.add(sample);
+            report.append(String.format("%6d ", window)).append(sample).append('\n');
+        }
+        report.append(mFailures).append(" commands failed, ").append(mSuperseded)
+                .append(" superseded by a newer command\n");
+
+        List<String> regressions = findRegressions(samples.get(BASELINE_WINDOW),
+                samples.get(samples.size() - 1));
+        if (!regressions.isEmpty()) {
+            report.append("REGRESSED:");
+            for (String regression : regressions) {
+                report.append("\n  ").append(regression);
+            }
+            throw new IllegalStateException(report.toString());
+        }
+        return report.toString();
+    }
+
+    private Sample runWindow() throws InterruptedException {
+        mLatency.reset();
+        mCommands = 0;
+        mWindowDone = new CountDownLatch(1);
+        mCyclesLeft = CYCLES_PER_WINDOW;
+        long start = System.nanoTime();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                connect();
+            }
+        });
+        if (!mWindowDone.await(WINDOW_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("Window timed out after " + WINDOW_TIMEOUT_MS
+                    + " ms; a command or connection never completed");
+        }
+        long elapsedNanos = System.nanoTime() - start;
+
+        Sample sample = new Sample();
+        sample.commandsPerSecond = mCommands / (elapsedNanos / 1e9);
+        sample.p99Ms = mLatency.getPercentileMicros(0.99) / 1000.0;
+        sample.heapBytes = usedHeapAfterGc();
+        // Counted after the pause for garbage collection, which lets released command threads end.
+        sample.threads = Thread.activeCount();
+        sample.leakedSessions = countLeakedSessions();
+        return sample;
+    }
+
+    private void connect() {
+        mConnected = 0;
+        for (SimulatedReceiver receiver : mReceivers) {
+            mManager.connect(new SimulatedTransport(receiver, LAUNCH_MS));
+        }
+    }
+
+    private void load() {
+        mManager.loadMedia("http://127.0.0.1/soak.mp4", null, true,
+                new CountingCallback() {
+            @Override
+            public void onFanOutCompleted(int succeeded, int failed) {
+                super.onFanOutCompleted(succeeded, failed);
+                burst();
+            }
+        });
+    }
+
+    /**
+     * Sends a burst of commands at once; they queue up on each device's command thread.
+     */
+    private void burst() {
+        mBurstsLeft = BURST;
+        CountingCallback callback = new CountingCallback() {
+            @Override
+            public void onFanOutCompleted(int succeeded, int failed) {
+                super.onFanOutCompleted(succeeded, failed);
+                if (--mBurstsLeft == 0) {
+                    disconnect();
+                }
+            }
+        };
+        for (int i = 0; i < BURST; i++) {
+            switch (i % 5) {
+                case 0:
+                    mManager.setVolume(i / (double) BURST, callback);
+                    break;
+                case 1:
+                    mManager.playFrom(i % 2, callback);
+                    break;
+                case 2:
+                    mManager.stop(callback);
+                    break;
+                case 3:
+                    mManager.resume(callback);
+                    break;
+                default:
+                    mManager.requestStatus(callback);
+                    break;
+            }
+        }
+    }
+
+    private void disconnect() {
+        for (DeviceSession device : mManager.getDevices()) {
+            mReleasedSessions.add(new WeakReference<DeviceSession>(device));
+            mManager.disconnect(device, true);
+        }
+        if (--mCyclesLeft == 0) {
+            mWindowDone.countDown();
+        } else {
+            // Lets the main thread handle other messages between cycles.
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    connect();
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns how many disconnected sessions are still reachable, or whose stream is still
+     * connected to its receiver.
+     */
+    private int countLeakedSessions() throws InterruptedException {
+        final CountDownLatch counted = new CountDownLatch(1);
+        final int[] leaked = new int[1];
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Iterator<WeakReference<DeviceSession>> it = mReleasedSessions.iterator();
+                        it.hasNext();) {
+                    if (it.next().get() != null) {
+                        leaked[0]++;
+                    } else {
+                        it.remove();
+                    }
+                }
+                for (SimulatedReceiver receiver : mReceivers) {
+                    leaked[0] += receiver.getStreamCount();
+                }
+                counted.countDown();
+            }
+        });
+        counted.await();
+        return leaked[0];
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static List<String> findRegressions(Sample baseline, Sample last) {
+        List<String> regressions = new ArrayList<String>();
+        if (last.threads > baseline.threads + MAX_THREAD_GROWTH) {
+            regressions.add("threads grew from " + baseline.threads + " to " + last.threads);
+        }
+        if (last.heapBytes > baseline.heapBytes + MAX_HEAP_GROWTH_BYTES) {
+            regressions.add("heap grew by " + (last.heapBytes - baseline.heapBytes) / 1024
+                    + " KB");
+        }
+        if (last.leakedSessions > 0) {
+            regressions.add(last.leakedSessions + " sessions leaked");
+        }
+        if (last.p99Ms > baseline.p99Ms * MAX_LATENCY_RATIO + LATENCY_MS + JITTER_MS) {
+            regressions.add(String.format("p99 latency rose from %.1f ms to %.1f ms",
+                    baseline.p99Ms, last.p99Ms));
+        }
+        if (last.commandsPerSecond < baseline.commandsPerSecond * MIN_THROUGHPUT_RATIO) {
+            regressions.add(String.format("throughput fell from %.0f to %.0f commands/s",
+                    baseline.commandsPerSecond, last.commandsPerSecond));
+        }
+        return regressions;
+    }
+
+    /**
+     * Records the latency of every device's reply to a command.
+     */
+    private class CountingCallback implements MultiSessionManager.FanOutCallback {
+        @Override
+        public void onDeviceCompleted(DeviceSession device, boolean success, long latencyMs) {
+            mCommands++;
+            if (success) {
+                mLatency.record(latencyMs * 1000);
+            } else if (device.getLastError() instanceof CancellationException) {
+                mSuperseded++;
+            } else {
+                mFailures++;
+                mLatency.recordError();
+            }
+        }
+
+        @Override
+        public void onFanOutCompleted(int succeeded, int failed) {
+        }
+    }
+}
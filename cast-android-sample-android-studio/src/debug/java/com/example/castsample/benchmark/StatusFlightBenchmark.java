@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.benchmark;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.castsample.metrics.LatencyHistogram;
+import com.example.castsample.session.CastCommandExecutor;
+import com.example.castsample.session.StatusMessageStream;
+import com.example.castsample.simulation.SimulatedReceiver;
+import com.google.cast.MediaProtocolCommand;
+import com.google.cast.MediaProtocolMessageStream;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Has many consumers ask a slow simulated receiver for its status far more often than it answers,
+ * once with status requests shared while one is outstanding and once with every request sent, and
+ * reports how many requests were sent, the most that were outstanding at once and how long the
+ * consumers waited. Shared, at most one request should ever be outstanding.
+ */
+public class StatusFlightBenchmark implements Benchmark {
+
+    private static final int CONSUMERS = 16;
+    private static final long ASK_INTERVAL_MS = 20;
+    private static final long DURATION_MS = 5000;
+    private static final long LATENCY_MS = 500;
+    private static final long JITTER_MS = 200;
+    private static final long TIMEOUT_MS = 30000;
+    /** The status policy without sharing, for comparison. */
+    private static final CastCommandExecutor.Policy UNSHARED_POLICY =
+            new CastCommandExecutor.Policy(5000, 3);
+
+    @Override
+    public String getName() {
+        return "status-single-flight";
+    }
+
+    @Override
+    public String run(Context context) throws Exception {
+        return measure(true) + measure(false);
+    }
+
+    private String measure(final boolean shared) throws InterruptedException {
+        SimulatedReceiver receiver = new SimulatedReceiver("status", LATENCY_MS, JITTER_MS, 0,
+                0, 1);
+        StatusMessageStream stream = receiver.createStream();
+        final CastCommandExecutor executor = new CastCommandExecutor("status-benchmark");
+        executor.setDeviceName(receiver.getName());
+        executor.setMessageStream(stream);
+
+        final AtomicInteger sent = new AtomicInteger();
+        final CastCommandExecutor.Command command = new CastCommandExecutor.Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                sent.incrementAndGet();
+                return stream.requestStatus();
+            }
+        };
+        final LatencyHistogram waits = new LatencyHistogram();
+        // Asked, answered and the peak outstanding, all counted on the main thread.
+        final int[] counts = new int[3];
+        final CountDownLatch done = new CountDownLatch(1);
+        final Handler handler = new Handler(Looper.getMainLooper());
+        final long end = System.nanoTime() + DURATION_MS * 1000000;
+
+        for (int i = 0; i < CONSUMERS; i++) {
+            // Spreads the consumers over the interval.
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (System.nanoTime() >= end) {
+                        return;
+                    }
+                    final long askedNanos = System.nanoTime();
+                    counts[0]++;
+                    CastCommandExecutor.Callback callback = new CastCommandExecutor.Callback() {
+                        @Override
+                        public void onCompleted(MediaProtocolCommand cmd) {
+                            waits.record((System.nanoTime() - askedNanos) / 1000);
+                            answered();
+                        }
+
+                        @Override
+                        public void onFailed(MediaProtocolCommand cmd, Exception e) {
+                            waits.recordError();
+                            answered();
+                        }
+
+                        private void answered() {
+                            if (++counts[1] == counts[0] && System.nanoTime() >= end) {
+                                done.countDown();
+                            }
+                        }
+                    };
+                    if (shared) {
+                        executor.submit("requestStatus", command, callback);
+                        counts[2] = Math.max(counts[2],
+                                executor.getInFlightCount("requestStatus"));
+                    } else {
+                        executor.submit("requestStatus", UNSHARED_POLICY, command, callback);
+                        // Every request answers exactly one consumer.
+                        counts[2] = Math.max(counts[2], sent.get() - counts[1]);
+                    }
+                    handler.postDelayed(this, ASK_INTERVAL_MS);
+                }
+            }, i * ASK_INTERVAL_MS / CONSUMERS);
+        }
+        boolean finished = done.await(DURATION_MS + TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        executor.shutdown();
+        receiver.closeStream(stream);
+        if (!finished) {
+            throw new IllegalStateException("Status requests still outstanding after "
+                    + TIMEOUT_MS + " ms");
+        }
+        return String.format("%s: %d asked, %d sent, peak %d outstanding, "
+                        + "wait p50 %.0f ms, p99 %.0f ms, %d failed\n",
+                shared ? "shared" : "unshared", counts[0], sent.get(), counts[2],
+                waits.getPercentileMicros(0.5) / 1000.0, waits.getPercentileMicros(0.99) / 1000.0,
+                waits.getErrorCount());
+    }
+}
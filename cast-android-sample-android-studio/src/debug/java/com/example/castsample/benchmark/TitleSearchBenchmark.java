@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.benchmark;
+
+import android.content.Context;
+
+import com.example.castsample.catalog.TitleIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds a TitleIndex over synthetic titles and times every keystroke of a few typed queries,
+ * taking the same path as MediaAdapter: a full index lookup for the first character and a
+ * refinement of the previous matches for each further one.
+ */
+public class TitleSearchBenchmark implements Benchmark {
+
+    private static final int ENTRIES = 100000;
+    private static final String[] QUERIES = { "tears of steel", "big buck", "s", "zz" };
+    private static final String[] WORDS = {
+            "big", "buck", "bunny", "tears", "of", "steel", "elephant", "dreams", "sintel",
+            "reel", "google", "io", "keynote", "walkout", "music", "design", "android", "cast",
+            "live", "session", "the", "a", "night", "sky", "river", "stone", "episode", "part",
+    };
+    /** One frame at 60 Hz. */
+    private static final long FRAME_NANOS = 16666667;
+
+    @Override
+    public String getName() {
+        return "title-search";
+    }
+
+    @Override
+    public String run(Context context) throws Exception {
+        Random random = new Random(42);
+        List<String> titles = new ArrayList<String>(ENTRIES);
+        for (int i = 0; i < ENTRIES; i++) {
+            StringBuilder title = new StringBuilder();
+            int words = 2 + random.nextInt(4);
+            for (int w = 0; w < words; w++) {
+                title.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            titles.add(title.append(i).toString());
+        }
+
+        long start = System.nanoTime();
+        TitleIndex index = TitleIndex.build(titles);
+        long buildNanos = System.nanoTime() - start;
+
+        StringBuilder report = new StringBuilder();
+        report.append(ENTRIES).append(" titles, index built in ").append(millis(buildNanos))
+                .append('\n');
+        for (String query : QUERIES) {
+            // Warm up, so the timed pass measures steady-state lookups.
+            type(index, query);
+        }
+        long worst = 0;
+        for (String query : QUERIES) {
+            long[] result = type(index, query);
+            worst = Math.max(worst, result[1]);
+            report.append('"').append(query).append("\": ").append(result[0])
+                    .append(" matches, slowest keystroke ").append(millis(result[1]))
+                    .append('\n');
+        }
+        report.append(worst < FRAME_NANOS ? "within" : "OVER").append(" one frame\n");
+        return report.toString();
+    }
+
+    /**
+     * Types the given query one character at a time and returns the final number of matches and
+     * the nanoseconds taken by the slowest keystroke.
+     */
+    private static long[] type(TitleIndex index, String query) {
+        long slowest = 0;
+        int[] matches = null;
+        int matchCount = 0;
+        String previous = null;
+        for (int length = 1; length <= query.length(); length++) {
+            String normalized = TitleIndex.normalize(query.substring(0, length));
+            long keystroke = System.nanoTime();
+            if (matches == null) {
+                matches = index.search(normalized);
+                matchCount = matches.length;
+            } else {
+                matchCount = index.refine(matches, matchCount, previous, normalized);
+            }
+            slowest = Math.max(slowest, System.nanoTime() - keystroke);
+            previous = normalized;
+        }
+        return new long[] { matchCount, slowest };
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.benchmark;
+
+import android.content.Context;
+
+import com.example.castsample.metrics.TraceLog;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures what a volume key repeat costs to trace: recording a TraceLog event with tracing on
+ * and off, from one thread and from several at once, next to building the message string the
+ * old verbose logging built for every repeat.
+ */
+public class TraceLogBenchmark implements Benchmark {
+
+    private static final int EVENTS = 2000000;
+    private static final int THREADS = 4;
+
+    // Keeps the JIT from discarding the string building.
+    private static volatile int sSink;
+
+    @Override
+    public String getName() {
+        return "trace-log";
+    }
+
+    @Override
+    public String run(Context context) throws Exception {
+        boolean wasEnabled = TraceLog.isEnabled();
+        StringBuilder report = new StringBuilder();
+        try {
+            // Warm up.
+            record(EVENTS);
+            concatenate(EVENTS);
+
+            TraceLog.setEnabled(true);
+            report.append(line("traced, 1 thread", timeThreads(1)));
+            report.append(line("traced, " + THREADS + " threads", timeThreads(THREADS)));
+            TraceLog.setEnabled(false);
+            report.append(line("tracing off", timeThreads(1)));
+            long start = System.nanoTime();
+            concatenate(EVENTS);
+            report.append(line("string concatenation", System.nanoTime() - start));
+        } finally {
+            TraceLog.setEnabled(wasEnabled);
+        }
+        return report.toString();
+    }
+
+    private static long timeThreads(int threads) throws InterruptedException {
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final int perThread = EVENTS / threads;
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                        record(perThread);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        long start = System.nanoTime();
+        startSignal.countDown();
+        done.await();
+        return System.nanoTime() - start;
+    }
+
+    private static void record(int count) {
+        for (int i = 0; i < count; i++) {
+            TraceLog.event(TraceLog.VOLUME_KEY, i * 0.05);
+        }
+    }
+
+    private static void concatenate(int count) {
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            length += ("New volume: " + (i * 0.05)).length();
+        }
+        sSink = length;
+    }
+
+    private static String line(String label, long nanos) {
+        return String.format("%s: %.1f ns per event\n", label, (double) nanos / EVENTS);
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.simulation;
+
+import android.util.Log;
+
+import com.example.castsample.session.StatusMessageStream;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stand-in for a receiver running the media protocol, for exercising the sender without
+ * hardware. The streams it creates never touch a channel: outgoing messages are applied to a
+ * simulated player and answered after a network delay, in the same format a real receiver uses.
+ * The player advances its position while playing and stops at the end of the media, telling all
+ * connected streams.
+ * <p>
+ * The delay of a reply is the latency plus a random jitter. Packet loss is modelled the way a TCP
+ * channel experiences it: a lost reply is retransmitted after a timeout rather than dropped, and
+ * replies of one receiver always arrive in order. Optionally, sending itself can be made to block,
+ * as it does when a receiver's socket is backed up. Each receiver draws from its own seeded random
+ * generator, so a run with the same seeds and the same commands sees the same delays. Only
+ * org.json and plain threads are used, so the simulator also runs on a desktop JVM.
+ */
+public class SimulatedReceiver {
+
+    private static final String TAG = SimulatedReceiver.class.getSimpleName();
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_STOPPED = 1;
+    private static final int STATE_PLAYING = 2;
+    private static final double DEFAULT_DURATION = 600;
+    /** The lower bound of the TCP retransmission timeout. */
+    private static final long MIN_RETRANSMIT_MS = 200;
+
+    // Replies of all simulated receivers are delivered from one thread.
+    private static final ScheduledExecutorService sReplies =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final String mName;
+    private final long mLatencyMs;
+    private final long mJitterMs;
+    private final double mLossRate;
+    private final long mRetransmitMs;
+    private final long mSendDelayMs;
+    private final Random mRandom;
+    private final List<StatusMessageStream> mStreams =
+            new CopyOnWriteArrayList<StatusMessageStream>();
+    private double mMediaDuration = DEFAULT_DURATION;
+    // The earliest time the next reply may arrive, which keeps replies in order. Guarded by this.
+    private long mNextDeliveryMs;
+
+    // Player state, guarded by this.
+    private int mState = STATE_IDLE;
+    private String mContentId;
+    private String mTitle;
+    private double mDuration;
+    private double mPosition;
+    private long mPositionTime;
+    private double mVolume = 1.0;
+    private boolean mMuted;
+    private long mEventSequence;
+    // Incremented whenever playback starts or stops, to cancel a pending end of media.
+    private int mPlayGeneration;
+    private ScheduledFuture<?> mEndOfMedia;
+
+    /**
+     * Creates a receiver answering after latencyMs, whose streams block every send for
+     * sendDelayMs.
+     */
+    public SimulatedReceiver(String name, long latencyMs, long sendDelayMs) {
+        this(name, latencyMs, 0, 0, sendDelayMs, name.hashCode());
+    }
+
+    /**
+     * Creates a receiver whose replies take latencyMs plus up to jitterMs, of which the given
+     * fraction is lost and retransmitted. Its streams block every send for sendDelayMs. The seed
+     * determines the sequence of delays.
+     */
+    public SimulatedReceiver(String name, long latencyMs, long jitterMs, double lossRate,
+            long sendDelayMs, long seed) {
+        if (lossRate < 0 || lossRate >= 1) {
+            throw new IllegalArgumentException("Loss rate must be in [0, 1): " + lossRate);
+        }
+        mName = name;
+        mLatencyMs = latencyMs;
+        mJitterMs = jitterMs;
+        mLossRate = lossRate;
+        mRetransmitMs = Math.max(MIN_RETRANSMIT_MS, 3 * latencyMs);
+        mSendDelayMs = sendDelayMs;
+        mRandom = new Random(seed);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Sets the duration of media loaded from now on, in seconds.
+     */
+    public synchronized void setMediaDuration(double seconds) {
+        mMediaDuration = seconds;
+    }
+
+    /**
+     * Returns the number of streams connected to this receiver.
+     */
+    public int getStreamCount() {
+        return mStreams.size();
+    }
+
+    /**
+     * Creates a message stream connected to this receiver. It receives the replies to its own
+     * messages and the unsolicited status updates of the receiver until it is closed.
+     */
+    public StatusMessageStream createStream() {
+        StatusMessageStream stream = new StatusMessageStream() {
+            @Override
+            protected void sendMessage(JSONObject message) throws IOException {
+                if (mSendDelayMs > 0) {
+                    try {
+                        Thread.sleep(mSendDelayMs);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while sending");
+                    }
+                }
+                if (!mStreams.contains(this)) {
+                    throw new IOException("Stream to " + mName + " is closed");
+                }
+                JSONObject reply = handle(message);
+                if (reply != null) {
+                    deliver(this, reply);
+                }
+            }
+        };
+        mStreams.add(stream);
+        return stream;
+    }
+
+    /**
+     * Disconnects the given stream. Messages sent through it fail from now on.
+     */
+    public void closeStream(StatusMessageStream stream) {
+        mStreams.remove(stream);
+    }
+
+    /**
+     * Stops the receiver application, which discards the loaded media.
+     */
+    public synchronized void stopApplication() {
+        cancelEndOfMedia();
+        mState = STATE_IDLE;
+        mContentId = null;
+        mTitle = null;
+        setPosition(0);
+    }
+
+    private void deliver(final StatusMessageStream stream, final JSONObject reply) {
+        sReplies.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (mStreams.contains(stream)) {
+                    stream.onMessageReceived(reply);
+                }
+            }
+        }, nextDelayMs(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns how long the next reply takes to arrive, never arriving before an earlier one.
+     */
+    private synchronized long nextDelayMs() {
+        long delay = mLatencyMs;
+        if (mJitterMs > 0) {
+            delay += (long) (mRandom.nextDouble() * mJitterMs);
+        }
+        long retransmit = mRetransmitMs;
+        while (mLossRate > 0 && mRandom.nextDouble() < mLossRate) {
+            delay += retransmit;
+            // Each further timeout of the same segment doubles.
+            retransmit *= 2;
+        }
+        long now = System.nanoTime() / 1000000;
+        long delivery = Math.max(now + delay, mNextDeliveryMs);
+        mNextDeliveryMs = delivery;
+        return delivery - now;
+    }
+
+    private void scheduleEndOfMedia() {
+        cancelEndOfMedia();
+        final int generation = mPlayGeneration;
+        long remainingMs = (long) ((mDuration - getPosition()) * 1000);
+        mEndOfMedia = sReplies.schedule(new Runnable() {
+            @Override
+            public void run() {
+                onEndOfMedia(generation);
+            }
+        }, Math.max(0, remainingMs), TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelEndOfMedia() {
+        mPlayGeneration++;
+        if (mEndOfMedia != null) {
+            mEndOfMedia.cancel(false);
+            mEndOfMedia = null;
+        }
+    }
+
+    private void onEndOfMedia(int generation) {
+        JSONObject status;
+        synchronized (this) {
+            if (generation != mPlayGeneration || mState != STATE_PLAYING) {
+                return;
+            }
+            setPosition(mDuration);
+            mState = STATE_STOPPED;
+            try {
+                status = new JSONObject();
+                status.put("type", "STATUS");
+                status.put("status", createStatus());
+            } catch (JSONException e) {
+                Log.e(TAG, mName + " failed to build status", e);
+                return;
+            }
+        }
+        for (StatusMessageStream stream : mStreams) {
+            deliver(stream, status);
+        }
+    }
+
+    /**
+     * Applies a message to the player and returns the reply to it, or null if there is none.
+     */
+    private synchronized JSONObject handle(JSONObject message) {
+        String type = message.optString("type");
+        if ("LOAD".equals(type)) {
+            mContentId = message.optString("src");
+            mTitle = message.optString("title", null);
+            mDuration = mMediaDuration;
+            setPosition(0);
+            mState = message.optBoolean("autoplay", true) ? STATE_PLAYING : STATE_STOPPED;
+        } else if ("PLAY".equals(type)) {
+            if (message.has("position")) {
+                setPosition(message.optDouble("position"));
+            } else {
+                setPosition(getPosition());
+            }
+            mState = mContentId != null ? STATE_PLAYING : STATE_IDLE;
+        } else if ("STOP".equals(type)) {
+            setPosition(getPosition());
+            if (mState == STATE_PLAYING) {
+                mState = STATE_STOPPED;
+            }
+        } else if ("VOLUME".equals(type)) {
+            if (message.has("volume")) {
+                mVolume = message.optDouble("volume");
+            }
+            if (message.has("muted")) {
+                mMuted = message.optBoolean("muted");
+            }
+        } else if (!"INFO".equals(type)) {
+            Log.w(TAG, mName + " ignoring message of type " + type);
+            return null;
+        }
+
+        if (mState != STATE_PLAYING) {
+            cancelEndOfMedia();
+        } else if ("LOAD".equals(type) || "PLAY".equals(type)) {
+            scheduleEndOfMedia();
+        }
+
+        try {
+            JSONObject reply = new JSONObject();
+            if (message.has("cmd_id")) {
+                reply.put("type", "RESPONSE");
+                reply.put("cmd_id", message.optLong("cmd_id"));
+            } else {
+                reply.put("type", "STATUS");
+            }
+            reply.put("status", createStatus());
+            return reply;
+        } catch (JSONException e) {
+            Log.e(TAG, mName + " failed to build reply", e);
+            return null;
+        }
+    }
+
+    private JSONObject createStatus() throws JSONException {
+        double position = getPosition();
+        JSONObject status = new JSONObject();
+        status.put("event_sequence", ++mEventSequence);
+        status.put("state", mState);
+        if (mContentId != null) {
+            status.put("content_id", mContentId);
+            status.put("title", mTitle);
+            status.put("current_time", position);
+            status.put("duration", mDuration);
+        }
+        status.put("time_progress", mState == STATE_PLAYING);
+        status.put("volume", mVolume);
+        status.put("muted", mMuted);
+        return status;
+    }
+
+    private double getPosition() {
+        if (mState != STATE_PLAYING) {
+            return mPosition;
+        }
+        double elapsed = (System.nanoTime() / 1000000 - mPositionTime) / 1000.0;
+        return Math.min(mDuration, mPosition + elapsed);
+    }
+
+    private void setPosition(double position) {
+        mPosition = position;
+        mPositionTime = System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.simulation;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.castsample.session.CastTransport;
+import com.example.castsample.session.StatusMessageStream;
+
+/**
+ * A CastTransport to a SimulatedReceiver. Launching the receiver application takes a fixed time,
+ * rejoining it is immediate, and ending the connection without stopping the application keeps
+ * the receiver's player state for the next connection, as a real receiver does.
+ */
+public class SimulatedTransport implements CastTransport {
+
+    private final SimulatedReceiver mReceiver;
+    private final long mLaunchMs;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private Listener mListener;
+    private StatusMessageStream mStream;
+    private boolean mActive;
+    private boolean mApplicationRunning;
+
+    private final Runnable mConnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mApplicationRunning = true;
+            mStream = mReceiver.createStream();
+            if (mListener != null) {
+                mListener.onConnected(mStream);
+            }
+        }
+    };
+
+    /**
+     * Creates a transport whose connect takes launchMs until the receiver application runs.
+     */
+    public SimulatedTransport(SimulatedReceiver receiver, long launchMs) {
+        mReceiver = receiver;
+        mLaunchMs = launchMs;
+    }
+
+    public SimulatedReceiver getReceiver() {
+        return mReceiver;
+    }
+
+    @Override
+    public String getDeviceId() {
+        return mReceiver.getName();
+    }
+
+    @Override
+    public String getDeviceName() {
+        return mReceiver.getName();
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void connect() {
+        if (mActive) {
+            throw new IllegalStateException("Already connected to " + mReceiver.getName());
+        }
+        mActive = true;
+        if (mApplicationRunning) {
+            // Launching a running application restarts it.
+            mReceiver.stopApplication();
+        }
+        mMainHandler.postDelayed(mConnectRunnable, mLaunchMs);
+    }
+
+    @Override
+    public boolean canReconnect() {
+        return !mActive && mApplicationRunning;
+    }
+
+    @Override
+    public void reconnect() {
+        if (!canReconnect()) {
+            throw new IllegalStateException("Nothing to rejoin on " + mReceiver.getName());
+        }
+        mActive = true;
+        mMainHandler.post(mConnectRunnable);
+    }
+
+    @Override
+    public boolean isActive() {
+        return mActive;
+    }
+
+    @Override
+    public void disconnect(boolean stopApplication) {
+        if (!mActive) {
+            return;
+        }
+        mActive = false;
+        mMainHandler.removeCallbacks(mConnectRunnable);
+        if (mStream != null) {
+            mReceiver.closeStream(mStream);
+            mStream = null;
+        }
+        if (stopApplication && mApplicationRunning) {
+            mReceiver.stopApplication();
+            mApplicationRunning = false;
+        }
+        final Listener listener = mListener;
+        if (listener != null) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onDisconnected(null);
+                }
+            });
+        }
+    }
+}
@@ -17,19 +17,32 @@
 package com.example.castsample;
 
 /**
- * A storage class containing the title and URL of a piece of playable media.
+ * A storage class containing the title and URL of a piece of playable media, along with optional
+ * URLs of a small thumbnail for lists and a larger image for the receiver.
  */
 public class CastMedia {
 
     private String mTitle;
     private String mVideoUrl;
+    private String mThumbnailUrl;
+    private String mImageUrl;
 
     /**
      * Creates a new CastMedia object for the media with the given title and URL.
      */
     public CastMedia(String title, String videoUrl) {
+        this(title, videoUrl, null, null);
+    }
+
+    /**
+     * Creates a new CastMedia object for the media with the given title, URL and image URLs, either
+     * of which may be null.
+     */
+    public CastMedia(String title, String videoUrl, String thumbnailUrl, String imageUrl) {
         mTitle = title;
         mVideoUrl = videoUrl;
+        mThumbnailUrl = thumbnailUrl;
+        mImageUrl = imageUrl;
     }
 
     public String getTitle() {
@@ -39,4 +52,12 @@ public class CastMedia {
     public String getUrl() {
         return mVideoUrl;
     }
+
+    public String getThumbnailUrl() {
+        return mThumbnailUrl;
+    }
+
+    public String getImageUrl() {
+        return mImageUrl;
+    }
 }
@@ -16,93 +16,97 @@
 
 package com.example.castsample;
 
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.support.v4.app.FragmentActivity;
 import android.support.v7.app.MediaRouteButton;
+import android.support.v7.app.MediaRouteChooserDialog;
 import android.support.v7.media.MediaRouteSelector;
 import android.support.v7.media.MediaRouter;
-import android.support.v7.media.MediaRouter.RouteInfo;
-import android.text.Html;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.ImageButton;
 import android.widget.TextView;
 
+import com.example.castsample.catalog.CatalogSource;
+import com.example.castsample.catalog.MediaCatalog;
 import com.example.castsample.mediaroutedialog.SampleMediaRouteDialogFactory;
-import com.google.cast.ApplicationChannel;
-import com.google.cast.ApplicationMetadata;
-import com.google.cast.ApplicationSession;
-import com.google.cast.CastContext;
-import com.google.cast.CastDevice;
-import com.google.cast.ContentMetadata;
-import com.google.cast.MediaProtocolCommand;
-import com.google.cast.MediaProtocolMessageStream;
-import com.google.cast.MediaRouteAdapter;
+import com.example.castsample.metrics.CommandStats;
+import com.example.castsample.metrics.StartupTrace;
+import com.example.castsample.metrics.StatsOverlay;
+import com.example.castsample.metrics.TraceLog;
+import com.example.castsample.route.RouteDiscovery;
+import com.example.castsample.route.RouteRegistry;
+import com.example.castsample.session.SessionState;
+import com.example.castsample.session.SessionStateStore;
+import com.example.castsample.session.StatusMessageStream;
 import com.google.cast.MediaRouteHelper;
-import com.google.cast.MediaRouteStateChangeListener;
-import com.google.cast.SessionError;
 
-import java.io.IOException;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * An activity that plays a chosen sample video on a Cast device and exposes playback and volume
- * controls in the UI.
+ * controls in the UI. The session itself is owned by {@link CastSessionService}, which this
+ * activity binds to and renders, so recreating or leaving the activity does not affect it.
  */
-public class CastSampleActivity extends FragmentActivity implements MediaRouteAdapter {
+public class CastSampleActivity extends FragmentActivity {
 
     private static final String TAG = CastSampleActivity.class.getSimpleName();
 
-    public static final boolean ENABLE_LOGV = true;
-
-    protected static final double MAX_VOLUME_LEVEL = 20;
     private static final double VOLUME_INCREMENT = 0.05;
-    private static final int SEEK_FORWARD = 1;
-    private static final int SEEK_BACK = 2;
-    private static final int SEEK_INCREMENT = 10;
-
-    private boolean mPlayButtonShowsPlay = false;
-    private boolean mVideoIsStopped = false;
-
-    private CastContext mCastContext = null;
-    private CastDevice mSelectedDevice;
-    private CastMedia mMedia;
-    private ContentMetadata mMetaData;
-    private ApplicationSession mSession;
-    private MediaProtocolMessageStream mMessageStream;
+    private static final long FRAME_INTERVAL_MS = 16;
+
+    private CastSessionService mService;
+    private boolean mServiceBound;
+    private boolean mStarted;
     private MediaRouteButton mMediaRouteButton;
     private MediaRouter mMediaRouter;
     private MediaRouteSelector mMediaRouteSelector;
-    private MediaRouter.Callback mMediaRouterCallback;
+    private RouteRegistry mRouteRegistry;
+    private RouteDiscovery mRouteDiscovery;
     private MediaSelectionDialog mMediaSelectionDialog;
-    private MediaProtocolCommand mStatus;
+    private StatsOverlay mStatsOverlay;
+    private StartupTrace mStartupTrace;
 
     private ImageButton mPlayPauseButton;
     private ImageButton mStopButton;
     private TextView mStatusText;
     private TextView mCurrentlyPlaying;
-    private String mCurrentItemId;
-    private RouteInfo mCurrentRoute;
+    private StatusRenderer mStatusRenderer;
 
     private SampleMediaRouteDialogFactory mDialogFactory;
 
     /**
-     * Initializes MediaRouter information and prepares for Cast device detection upon creating
-     * this activity.
+     * Sets up what the first frame needs: the views, the Cast button and, if the session service
+     * is already running, the connection to it. Otherwise starting the service, which registers
+     * the Cast route provider, and warming up the catalog are deferred until after the first
+     * frame, and the media selection dialog is created when first opened.
      */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        logVIfEnabled(TAG, "onCreate called");
+        TraceLog.event(TraceLog.ACTIVITY_CREATE);
+        mStartupTrace = new StartupTrace();
+        long stepStart = System.nanoTime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_cast_sample);
+        mStartupTrace.step("content view", stepStart);
 
-        mCastContext = new CastContext(getApplicationContext());
-        mMedia = new CastMedia(null, null);
-        mMetaData = new ContentMetadata();
-
+        stepStart = System.nanoTime();
         mDialogFactory = new SampleMediaRouteDialogFactory();
 
-        MediaRouteHelper.registerMinimalMediaRouteProvider(mCastContext, this);
         mMediaRouter = MediaRouter.getInstance(getApplicationContext());
         mMediaRouteSelector = MediaRouteHelper
                 .buildMediaRouteSelector(MediaRouteHelper.CATEGORY_CAST,
@@ -111,185 +115,211 @@ public class CastSampleActivity extends FragmentActivity implements MediaRouteAd
         mMediaRouteButton = (MediaRouteButton) findViewById(R.id.media_route_button);
         mMediaRouteButton.setRouteSelector(mMediaRouteSelector);
         mMediaRouteButton.setDialogFactory(mDialogFactory);
-        mMediaRouterCallback = new MyMediaRouterCallback();
+        mRouteRegistry = new RouteRegistry(getApplicationContext());
+        mRouteRegistry.addListener(new RouteRegistry.Listener() {
+            @Override
+            public void onRouteAdded(RouteRegistry.Route route) {
+                setMediaRouteButtonVisible();
+            }
 
+            @Override
+            public void onRouteRemoved(RouteRegistry.Route route) {
+                setMediaRouteButtonVisible();
+            }
+
+            @Override
+            public void onRouteChanged(RouteRegistry.Route route) {
+            }
+        });
+        mRouteDiscovery = new RouteDiscovery(mMediaRouter, mMediaRouteSelector, mRouteRegistry);
+        // Devices seen on earlier launches show the Cast button before discovery finds them.
+        setMediaRouteButtonVisible();
+        mStartupTrace.step("cast button", stepStart);
+
+        stepStart = System.nanoTime();
         mStatusText = (TextView) findViewById(R.id.play_status_text);
         mCurrentlyPlaying = (TextView) findViewById(R.id.currently_playing);
         mCurrentlyPlaying.setText(getString(R.string.tap_to_select));
-        mMediaSelectionDialog = new MediaSelectionDialog(this);
+        mStatusRenderer = new StatusRenderer(getResources(), mStatusText, mCurrentlyPlaying);
 
         mPlayPauseButton = (ImageButton) findViewById(R.id.play_pause_button);
         mStopButton = (ImageButton) findViewById(R.id.stop_button);
         initButtons();
-
-        Thread myThread = null;
-        Runnable runnable = new StatusRunner();
-        myThread = new Thread(runnable);
-        logVIfEnabled(TAG, "Starting statusRunner thread");
-        myThread.start();
+        mStatsOverlay = new StatsOverlay(this);
+        mStartupTrace.step("controls", stepStart);
+
+        if (CastSessionService.isRunning()) {
+            // Reattaches to the running session; the service renders it from its own state.
+            stepStart = System.nanoTime();
+            bindSessionService();
+            mStartupTrace.step("session service", stepStart);
+        }
+        scheduleDeferredInit();
     }
 
     /**
-     * Initializes all buttons by adding user controls and listeners.
+     * Runs the initialization steps that the first frame does not need once that frame has been
+     * drawn, one step per idle pass of the main thread so that input is not held up.
      */
-    public void initButtons() {
-        mPlayPauseButton.setEnabled(false);
-        mPlayPauseButton.setImageResource(R.drawable.pause_button);
-        mPlayPauseButton.setOnClickListener(new View.OnClickListener() {
+    private void scheduleDeferredInit() {
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
             @Override
-            public void onClick(View v) {
-                onPlayClicked(!mPlayButtonShowsPlay);
-            }
-        });
-        mStopButton.setEnabled(false);
-        mStopButton.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                onStopClicked();
-            }
-        });
-        mCurrentlyPlaying.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View v) {
-                logVIfEnabled(TAG, "Selecting Media");
-                mMediaSelectionDialog.setTitle(getResources().getString(
-                        R.string.medial_dialog_title));
-                mMediaSelectionDialog.show();
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Runs once the frame being drawn is done.
+                decorView.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mStartupTrace.onFirstDraw();
+                        Looper.myQueue().addIdleHandler(mDeferredInit);
+                    }
+                });
+                return true;
             }
         });
     }
 
+    private final MessageQueue.IdleHandler mDeferredInit = new MessageQueue.IdleHandler() {
+        private int mStep;
+
+        @Override
+        public boolean queueIdle() {
+            long stepStart = System.nanoTime();
+            switch (mStep++) {
+                case 0:
+                    bindSessionService();
+                    mStartupTrace.step("session service", stepStart);
+                    return true;
+                default:
+                    // Starts loading the catalog in the background, so the media selection
+                    // dialog opens with its first page ready.
+                    MediaCatalog.get(CastSampleActivity.this, CatalogSource.fromResource(
+                            CastSampleActivity.this, R.raw.media_catalog)).load();
+                    mStartupTrace.step("catalog warm-up", stepStart);
+                    mStartupTrace.complete(CastSampleActivity.this);
+                    return false;
+            }
+        }
+    };
+
     /**
-     * Skips forward or backward by some fixed increment in the currently playing media.
-     *
-     * @param direction an integer corresponding to either SEEK_FORWARD or SEEK_BACK
+     * Binds to the session service, creating it if needed, unless that has been done already.
      */
-    public void onSeekClicked(int direction) {
-        try {
-            if (mMessageStream != null) {
-                double cPosition = mMessageStream.getStreamPosition();
-                if (direction == SEEK_FORWARD) {
-                    mMessageStream.playFrom(cPosition + SEEK_INCREMENT);
-                } else if (direction == SEEK_BACK) {
-                    mMessageStream.playFrom(cPosition - SEEK_INCREMENT);
-                } else {
-                    Log.e(TAG, "onSeekClicked was not FWD or BACK");
-                }
-            } else {
-                Log.e(TAG, "onSeekClicked - mMPMS==null");
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to send pause command.");
+    private void bindSessionService() {
+        if (mServiceBound) {
+            return;
         }
+        mServiceBound = bindService(new Intent(this, CastSessionService.class),
+                mServiceConnection, Context.BIND_AUTO_CREATE);
     }
 
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            mService = ((CastSessionService.LocalBinder) binder).getService();
+            if (mStarted) {
+                mService.addListener(mServiceListener);
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mService = null;
+        }
+    };
+
     /**
-     * Handles stopping the currently playing media upon the stop button being pressed.
+     * Renders the snapshots of the session published by the service.
      */
-    public void onStopClicked() {
-        try {
-            if (mMessageStream != null) {
-                mMessageStream.stop();
-                mVideoIsStopped = !mVideoIsStopped;
-                mPlayPauseButton.setImageResource(R.drawable.play_button);
-                mPlayButtonShowsPlay = true;
-            } else {
-                Log.e(TAG, "onStopClicked - mMPMS==null");
+    private final SessionStateStore.Listener mServiceListener = new SessionStateStore.Listener() {
+        @Override
+        public void onStateChanged(SessionState previous, SessionState current) {
+            if (previous == null || previous.getPhase() != current.getPhase()) {
+                mRouteDiscovery.setRouteSelected(current.isRouteSelected());
+                mPlayPauseButton.setEnabled(current.isSessionOpen());
+                mStopButton.setEnabled(current.isSessionOpen());
             }
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to send pause command.");
+            if (previous == null || previous.isPaused() != current.isPaused()) {
+                mPlayPauseButton.setImageResource(
+                        current.isPaused() ? R.drawable.play_button : R.drawable.pause_button);
+            }
+            updateStatus();
+            startPositionTicker();
         }
+    };
+
+    /**
+     * Returns the session service, or null while it is not bound.
+     */
+    public CastSessionService getSessionService() {
+        return mService;
     }
 
     /**
-     * Mutes the currently playing media when the mute button is pressed.
+     * Lets the user pick another Cast device to extend the session to. The current device keeps
+     * playing, and both receive the commands of the session from then on.
      */
-    public void onMuteClicked() {
-        try {
-            if (mMessageStream != null) {
-                if (mMessageStream.isMuted()) {
-                    mMessageStream.setMuted(false);
-                } else {
-                    mMessageStream.setMuted(true);
+    public void addScreen() {
+        if (mService == null || !mService.getState().isSessionOpen()) {
+            return;
+        }
+        mService.setAddingScreen(true);
+        MediaRouteChooserDialog chooser = new MediaRouteChooserDialog(this);
+        chooser.setRouteSelector(mMediaRouteSelector);
+        chooser.setOnDismissListener(new DialogInterface.OnDismissListener() {
+            @Override
+            public void onDismiss(DialogInterface dialog) {
+                // A route picked has been selected by now; nothing is added later.
+                if (mService != null) {
+                    mService.setAddingScreen(false);
                 }
-            } else {
-                Log.e(TAG, "onMutedClicked - mMPMS==null");
             }
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to send pause command.");
-        }
+        });
+        chooser.show();
     }
 
     /**
-     * Plays or pauses the currently loaded media, depending on the current state of the <code>
-     * mPlayPauseButton</code>.
-     *
-     * @param playState indicates that Play was clicked if true, and Pause was clicked if false
+     * Initializes all buttons by adding user controls and listeners.
      */
-    public void onPlayClicked(boolean playState) {
-        if (playState) {
-            try {
-                if (mMessageStream != null) {
-                    mMessageStream.stop();
-                } else {
-                    Log.e(TAG, "onClick-Play - mMPMS==null");
+    public void initButtons() {
+        mPlayPauseButton.setEnabled(false);
+        mPlayPauseButton.setImageResource(R.drawable.pause_button);
+        mPlayPauseButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (mService != null) {
+                    mService.togglePlayback();
                 }
-            } catch (IOException e) {
-                Log.e(TAG, "Failed to send stop command.");
             }
-            mPlayPauseButton.setImageResource(R.drawable.play_button);
-        } else {
-            try {
-                if (mMessageStream != null) {
-                    if (mVideoIsStopped) {
-                        mMessageStream.play();
-                        mVideoIsStopped = !mVideoIsStopped;
-                    } else {
-                        mMessageStream.resume();
-                    }
-                } else {
-                    Log.e(TAG, "onClick-Play - mMPMS==null");
+        });
+        mStopButton.setEnabled(false);
+        mStopButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (mService != null) {
+                    mService.stop();
                 }
-            } catch (IOException e) {
-                Log.e(TAG, "Failed to send play/resume command.");
             }
-            mPlayPauseButton.setImageResource(R.drawable.pause_button);
-        }
-        mPlayButtonShowsPlay = !mPlayButtonShowsPlay;
-    }
-
-    @Override
-    public void onDeviceAvailable(CastDevice device, String myString,
-                                  MediaRouteStateChangeListener listener) {
-        mSelectedDevice = device;
-        logVIfEnabled(TAG, "Available device found: " + myString);
-        openSession();
-    }
-
-    @Override
-    public void onSetVolume(double volume) {
-        try {
-            mMessageStream.setVolume(volume);
-        } catch (IllegalStateException e) {
-            Log.e(TAG, "Problem sending Set Volume", e);
-        } catch (IOException e) {
-            Log.e(TAG, "Problem sending Set Volume", e);
-        }
-    }
-
-    @Override
-    public void onUpdateVolume(double volumeChange) {
-        try {
-            if ((mCurrentItemId != null) && (mCurrentRoute != null)) {
-                mCurrentRoute.requestUpdateVolume((int) (volumeChange * MAX_VOLUME_LEVEL));
+        });
+        mCurrentlyPlaying.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                TraceLog.event(TraceLog.MEDIA_DIALOG_OPEN);
+                if (mMediaSelectionDialog == null) {
+                    mMediaSelectionDialog = new MediaSelectionDialog(CastSampleActivity.this);
+                }
+                mMediaSelectionDialog.setTitle(getResources().getString(
+                        R.string.medial_dialog_title));
+                mMediaSelectionDialog.show();
             }
-        } catch (IllegalStateException e) {
-            Log.e(TAG, "Problem sending Update Volume", e);
-        }
+        });
     }
 
     /**
-     * Processes volume up and volume down actions upon receiving them as key events.
+     * Processes volume up and volume down actions upon receiving them as key events. Key repeats
+     * only move the target volume kept by the service, which sends it once the burst settles.
      */
     @Override
     public boolean dispatchKeyEvent(KeyEvent event) {
@@ -298,32 +328,20 @@ public class CastSampleActivity extends FragmentActivity implements MediaRouteAd
         switch (keyCode) {
             case KeyEvent.KEYCODE_VOLUME_UP:
                 if (action == KeyEvent.ACTION_DOWN) {
-                    double currentVolume;
-                    if (mMessageStream != null) {
-                        currentVolume = mMessageStream.getVolume();
-                        logVIfEnabled(TAG, "Volume up from " + currentVolume);
-                        if (currentVolume < 1.0) {
-                            logVIfEnabled(TAG, "New volume: " + (currentVolume + VOLUME_INCREMENT));
-                            onSetVolume(currentVolume + VOLUME_INCREMENT);
-                        }
+                    if (mService != null) {
+                        mService.adjustVolume(VOLUME_INCREMENT);
                     } else {
-                        Log.e(TAG, "dispatchKeyEvent - volume up - mMPMS==null");
+                        Log.e(TAG, "dispatchKeyEvent - volume up - mService==null");
                     }
                 }
 
                 return true;
             case KeyEvent.KEYCODE_VOLUME_DOWN:
                 if (action == KeyEvent.ACTION_DOWN) {
-                    double currentVolume;
-                    if (mMessageStream != null) {
-                        currentVolume = mMessageStream.getVolume();
-                        logVIfEnabled(TAG, "Volume down from: " + currentVolume);
-                        if (currentVolume > 0.0) {
-                            logVIfEnabled(TAG, "New volume: " + (currentVolume - VOLUME_INCREMENT));
-                            onSetVolume(currentVolume - VOLUME_INCREMENT);
-                        }
+                    if (mService != null) {
+                        mService.adjustVolume(-VOLUME_INCREMENT);
                     } else {
-                        Log.e(TAG, "dispatchKeyEvent - volume down - mMPMS==null");
+                        Log.e(TAG, "dispatchKeyEvent - volume down - mService==null");
                     }
                 }
                 return true;
@@ -335,270 +353,147 @@ public class CastSampleActivity extends FragmentActivity implements MediaRouteAd
     @Override
     protected void onStart() {
         super.onStart();
-        mMediaRouter.addCallback(mMediaRouteSelector, mMediaRouterCallback,
-                MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY);
-        logVIfEnabled(TAG, "onStart called and callback added");
+        TraceLog.event(TraceLog.ACTIVITY_START);
+        mStarted = true;
+        if (mService != null) {
+            mService.addListener(mServiceListener);
+        }
+        mRouteDiscovery.start();
+        mStatsOverlay.start();
     }
 
-    /**
-     * Closes a running session upon destruction of this Activity.
-     */
     @Override
     protected void onStop() {
-        mMediaRouter.removeCallback(mMediaRouterCallback);
-        super.onStop();
-        logVIfEnabled(TAG, "onStop called and callback removed");
-    }
-
-    @Override
-    protected void onDestroy() {
-        logVIfEnabled(TAG, "onDestroy called, ending session if session exists");
-        if (mSession != null) {
-            try {
-                if (!mSession.hasStopped()) {
-                    mSession.endSession();
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Failed to end session.");
-            }
+        TraceLog.event(TraceLog.ACTIVITY_STOP);
+        mStarted = false;
+        if (mService != null) {
+            mService.removeListener(mServiceListener);
         }
-        mSession = null;
-        super.onDestroy();
+        mStatsOverlay.stop();
+        mStatusText.removeCallbacks(mPositionTicker);
+        mRouteDiscovery.stop();
+        super.onStop();
     }
 
     /**
-     * A callback class which listens for route select or unselect events and processes devices
-     * and sessions accordingly.
+     * Adds the command latency histograms to "adb shell dumpsys activity", one tab-separated line
+     * per device and command, followed by the outstanding status requests, the startup steps and
+     * the trace of recent events.
+     * Passing "reset" as an argument clears the histograms afterwards; "trace-on" and "trace-off"
+     * switch tracing.
      */
-    private class MyMediaRouterCallback extends MediaRouter.Callback {
-        @Override
-        public void onRouteSelected(MediaRouter router, RouteInfo route) {
-            MediaRouteHelper.requestCastDeviceForRoute(route);
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        List<String> options = args != null ? Arrays.asList(args) : Collections.<String>emptyList();
+        writer.print(prefix);
+        writer.println("Command latency:");
+        CommandStats.getInstance().dump(writer);
+        if (mService != null) {
+            writer.print(prefix);
+            writer.print("Status requests: ");
+            writer.print(mService.getStatusRequestSummary());
+            writer.print(prefix);
+            writer.println("Further screens: " + mService.getExtraScreenSummary());
         }
-
-        @Override
-        public void onRouteUnselected(MediaRouter router, RouteInfo route) {
-            try {
-                if (mSession != null) {
-                    logVIfEnabled(TAG, "Ending session and stopping application");
-                    mSession.setStopApplicationWhenEnding(true);
-                    mSession.endSession();
-                } else {
-                    Log.e(TAG, "onRouteUnselected: mSession is null");
-                }
-            } catch (IllegalStateException e) {
-                Log.e(TAG, "onRouteUnselected:");
-                e.printStackTrace();
-            } catch (IOException e) {
-                Log.e(TAG, "onRouteUnselected:");
-                e.printStackTrace();
-            }
-            mMessageStream = null;
-            mSelectedDevice = null;
+        writer.print(prefix);
+        writer.println("Status renders: " + mStatusRenderer.getSummary());
+        if (mService != null && mService.getPlaybackTrace().getLastSummary() != null) {
+            writer.print(prefix);
+            writer.println(mService.getPlaybackTrace().getLastSummary());
         }
-    }
-
-    /**
-     * Starts a new video playback session with the current CastContext and selected device.
-     */
-    private void openSession() {
-        mSession = new ApplicationSession(mCastContext, mSelectedDevice);
-
-        // TODO: The below lines allow you to specify either that your application uses the default
-        // implementations of the Notification and Lock Screens, or that you will be using your own.
-        int flags = 0;
-
-        // Comment out the below line if you are not writing your own Notification Screen.
-        // flags |= ApplicationSession.FLAG_DISABLE_NOTIFICATION;
-
-        // Comment out the below line if you are not writing your own Lock Screen.
-        // flags |= ApplicationSession.FLAG_DISABLE_LOCK_SCREEN_REMOTE_CONTROL;
-        mSession.setApplicationOptions(flags);
-
-        logVIfEnabled(TAG, "Beginning session with context: " + mCastContext);
-        logVIfEnabled(TAG, "The session to begin: " + mSession);
-        mSession.setListener(new com.google.cast.ApplicationSession.Listener() {
-
-            @Override
-            public void onSessionStarted(ApplicationMetadata appMetadata) {
-                logVIfEnabled(TAG, "Getting channel after session start");
-                ApplicationChannel channel = mSession.getChannel();
-                if (channel == null) {
-                    Log.e(TAG, "channel = null");
-                    return;
-                }
-                logVIfEnabled(TAG, "Creating and attaching Message Stream");
-                mMessageStream = new MediaProtocolMessageStream();
-                channel.attachMessageStream(mMessageStream);
-
-                if (mMessageStream.getPlayerState() == null) {
-                    if (mMedia != null) {
-                        loadMedia();
-                    }
-                } else {
-                    logVIfEnabled(TAG, "Found player already running; updating status");
-                    updateStatus();
-                }
-            }
-
-            @Override
-            public void onSessionStartFailed(SessionError error) {
-                Log.e(TAG, "onStartFailed " + error);
-            }
-
-            @Override
-            public void onSessionEnded(SessionError error) {
-                Log.i(TAG, "onEnded " + error);
-            }
-        });
-
-        mPlayPauseButton.setEnabled(true);
-        mStopButton.setEnabled(true);
-        try {
-            logVIfEnabled(TAG, "Starting session with app name " + getString(R.string.app_name));
-
-            // TODO: To run your own copy of the receiver, you will need to set app_name in 
-            // /res/strings.xml to your own appID, and then upload the provided receiver 
-            // to the url that you whitelisted for your app.
-            // The current value of app_name is "YOUR_APP_ID_HERE".
-            mSession.startSession(getString(R.string.app_name));
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to open session", e);
+        writer.print(prefix);
+        writer.println(mStartupTrace.getSummary());
+        if (options.contains("trace-on") || options.contains("trace-off")) {
+            TraceLog.setEnabled(options.contains("trace-on"));
+        }
+        writer.print(prefix);
+        writer.println("Trace (" + (TraceLog.isEnabled() ? "on" : "off") + "):");
+        TraceLog.dump(writer);
+        if (options.contains("reset")) {
+            CommandStats.getInstance().reset();
         }
     }
 
     /**
-     * Loads the stored media object and casts it to the currently selected device.
+     * Unbinds from the session service. A running session stays with the service, which keeps
+     * itself in the foreground until the session is ended from the Cast button or the
+     * notification.
      */
-    protected void loadMedia() {
-        logVIfEnabled(TAG, "Loading selected media on device");
-        mMetaData.setTitle(mMedia.getTitle());
-        try {
-            MediaProtocolCommand cmd = mMessageStream.loadMedia(mMedia.getUrl(), mMetaData, true);
-            cmd.setListener(new MediaProtocolCommand.Listener() {
-
-                @Override
-                public void onCompleted(MediaProtocolCommand mPCommand) {
-                    logVIfEnabled(TAG, "Load completed - starting playback");
-                    mPlayPauseButton.setImageResource(R.drawable.pause_button);
-                    mPlayButtonShowsPlay = false;
-                    onSetVolume(0.5);
-                }
-
-                @Override
-                public void onCancelled(MediaProtocolCommand mPCommand) {
-                    logVIfEnabled(TAG, "Load cancelled");
-                }
-            });
-
-        } catch (IllegalStateException e) {
-            Log.e(TAG, "Problem occurred with MediaProtocolCommand during loading", e);
-        } catch (IOException e) {
-            Log.e(TAG, "Problem opening MediaProtocolCommand during loading", e);
+    @Override
+    protected void onDestroy() {
+        TraceLog.event(TraceLog.ACTIVITY_DESTROY);
+        Looper.myQueue().removeIdleHandler(mDeferredInit);
+        if (mServiceBound) {
+            unbindService(mServiceConnection);
+            mServiceBound = false;
         }
+        mService = null;
+        super.onDestroy();
     }
 
     /**
      * Stores and attempts to load the passed piece of media.
      */
     protected void mediaSelected(CastMedia media) {
-        this.mMedia = media;
-        updateCurrentlyPlaying();
-        if (mMessageStream != null) {
-            loadMedia();
+        if (mService != null) {
+            mService.selectMedia(media);
         }
     }
 
     /**
-     * Updates the status of the currently playing video in the dedicated message view.
-     */
-    public void updateStatus() {
-        this.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    setMediaRouteButtonVisible();
-                    updateCurrentlyPlaying();
-
-                    if (mMessageStream != null) {
-                        mStatus = mMessageStream.requestStatus();
-
-                        String currentStatus = "Player State: "
-                                + mMessageStream.getPlayerState() + "\n";
-                        currentStatus += "Device " + mSelectedDevice.getFriendlyName() + "\n";
-                        currentStatus += "Title " + mMessageStream.getTitle() + "\n";
-                        currentStatus += "Current Position: "
-                                + mMessageStream.getStreamPosition() + "\n";
-                        currentStatus += "Duration: "
-                                + mMessageStream.getStreamDuration() + "\n";
-                        currentStatus += "Volume set at: "
-                                + (mMessageStream.getVolume() * 100) + "%\n";
-                        currentStatus += "requestStatus: " + mStatus.getType() + "\n";
-                        mStatusText.setText(currentStatus);
-                    } else {
-                        mStatusText.setText(getResources().getString(R.string.tap_icon));
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "Status request failed: " + e);
-                }
-            }
-        });
-    }
-
-    /**
-     * Sets the Cast Device Selection button to visible or not, depending on the availability of
-     * devices.
+     * Adds the passed piece of media to the end of the play queue, or plays it right away if
+     * nothing has been selected yet.
      */
-    protected final void setMediaRouteButtonVisible() {
-        mMediaRouteButton.setVisibility(
-                mMediaRouter.isRouteAvailable(mMediaRouteSelector, 0) ? View.VISIBLE : View.GONE);
+    protected void mediaEnqueued(CastMedia media) {
+        if (mService != null) {
+            mService.enqueueMedia(media);
+        }
     }
 
     /**
-     * Updates a view with the title of the currently playing media.
+     * Updates the status and currently playing views from the current snapshot of the session.
+     * Fields that have not changed since the last update are left alone.
      */
-    protected void updateCurrentlyPlaying() {
-        String playing = "";
-        if (mMedia.getTitle() != null) {
-            playing = "Media Selected: " + mMedia.getTitle();
-            if (mMessageStream != null) {
-                String colorString = "<br><font color=#0066FF>";
-                colorString += "Casting to " + mSelectedDevice.getFriendlyName();
-                colorString += "</font>";
-                playing += colorString;
-            }
-            mCurrentlyPlaying.setText(Html.fromHtml(playing));
-        } else {
-            String castString = "<font color=#FF0000>";
-            castString += getResources().getString(R.string.tap_to_select);
-            castString += "</font>";
-            mCurrentlyPlaying.setText(Html.fromHtml(castString));
+    public void updateStatus() {
+        if (mService != null) {
+            mStatusRenderer.render(mService.getState(), mService.getLastStatusRequest());
         }
     }
 
     /**
-     * A Runnable class that updates a view to display status for the currently playing media.
+     * Keeps the displayed position moving at frame rate while the receiver is playing; the
+     * renderer redraws the status only when the shown tenth of a second changes.
      */
-    private class StatusRunner implements Runnable {
+    private final Runnable mPositionTicker = new Runnable() {
         @Override
         public void run() {
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    updateStatus();
-                    Thread.sleep(1500);
-                } catch (Exception e) {
-                    Log.e(TAG, "Thread interrupted: " + e);
-                }
+            StatusMessageStream stream = mService != null
+                    ? mService.getState().getMessageStream() : null;
+            if (stream == null) {
+                return;
+            }
+            updateStatus();
+            if (stream.getPlaybackClock().isAdvancing()) {
+                mStatusText.postDelayed(this, FRAME_INTERVAL_MS);
             }
         }
+    };
+
+    private void startPositionTicker() {
+        mStatusText.removeCallbacks(mPositionTicker);
+        mStatusText.post(mPositionTicker);
     }
 
     /**
-     * Logs in verbose mode with the given tag and message, if the LOCAL_LOGV tag is set.
+     * Sets the Cast Device Selection button to visible or not, depending on whether devices are
+     * available or have been seen recently.
      */
-    private void logVIfEnabled(String tag, String message) {
-        if (ENABLE_LOGV) {
-            Log.v(tag, message);
+    protected final void setMediaRouteButtonVisible() {
+        boolean visible = mRouteRegistry.hasKnownRoutes();
+        mMediaRouteButton.setVisibility(visible ? View.VISIBLE : View.GONE);
+        if (visible) {
+            mStartupTrace.onCastButtonShown();
         }
     }
 }
@@ -0,0 +1,1050 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample;
+
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.support.v4.app.NotificationCompat;
+import android.support.v7.media.MediaRouteSelector;
+import android.support.v7.media.MediaRouter;
+import android.support.v7.media.MediaRouter.RouteInfo;
+import android.util.Log;
+
+import com.example.castsample.metrics.PlaybackTrace;
+import com.example.castsample.metrics.TraceLog;
+import com.example.castsample.probe.MediaInfo;
+import com.example.castsample.probe.MediaProber;
+import com.example.castsample.server.MediaServer;
+import com.example.castsample.session.CastCommandExecutor;
+import com.example.castsample.session.CastTransport;
+import com.example.castsample.session.CommandCoalescer;
+import com.example.castsample.session.DeviceSession;
+import com.example.castsample.session.MultiSessionManager;
+import com.example.castsample.session.PlayQueue;
+import com.example.castsample.session.PlayerStatus;
+import com.example.castsample.session.QueueAdvancer;
+import com.example.castsample.session.SessionState;
+import com.example.castsample.session.SessionState.Phase;
+import com.example.castsample.session.SessionStateStore;
+import com.example.castsample.session.SessionStore;
+import com.example.castsample.session.SessionTransport;
+import com.example.castsample.session.StatusMessageStream;
+import com.example.castsample.session.StatusScheduler;
+import com.google.cast.CastContext;
+import com.google.cast.CastDevice;
+import com.google.cast.ContentMetadata;
+import com.google.cast.MediaProtocolCommand;
+import com.google.cast.MediaProtocolMessageStream;
+import com.google.cast.MediaRouteAdapter;
+import com.google.cast.MediaRouteHelper;
+import com.google.cast.MediaRouteStateChangeListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Owns the Cast session, the command pipeline and the playback state, so they outlive the
+ * activities showing them. Activities bind to this service and act as views over it: they
+ * subscribe to the {@link SessionState} snapshots it publishes, and attaching one renders the
+ * current snapshot without a round trip to the receiver. While a session is open the service runs
+ * in the foreground with a notification, and it ends once the session has ended and no client is
+ * bound. All methods must be called on the main thread; snapshots may be read anywhere.
+ * <p>
+ * A session can be extended to further screens: while {@link #setAddingScreen} is set, selecting
+ * another route keeps the current receiver playing instead of ending its session. Such screens
+ * receive every playback, seek, volume and load command of the session in parallel.
+ */
+public class CastSessionService extends Service implements MediaRouteAdapter {
+
+    private static final String TAG = CastSessionService.class.getSimpleName();
+
+    /** Ends the session, e.g. from the notification. */
+    public static final String ACTION_STOP_CASTING = "com.example.castsample.STOP_CASTING";
+
+    public static final int SEEK_FORWARD = 1;
+    public static final int SEEK_BACK = 2;
+    private static final double MAX_VOLUME_LEVEL = 20;
+    private static final int SEEK_INCREMENT = 10;
+    private static final double INITIAL_VOLUME = 0.5;
+    /** How many of the last trace events to log after an error. */
+    private static final int ERROR_TRACE_EVENTS = 32;
+    /** How long to wait for the receiver's status when rejoining before loading the media. */
+    private static final long REJOIN_TIMEOUT_MS = 3000;
+    private static final int NOTIFICATION_ID = 1;
+
+    /**
+     * Hands clients in this process the service itself.
+     */
+    public class LocalBinder extends Binder {
+        public CastSessionService getService() {
+            return CastSessionService.this;
+        }
+    }
+
+    private static boolean sRunning;
+
+    private final IBinder mBinder = new LocalBinder();
+    private final SessionStateStore mStore = new SessionStateStore();
+    private final PlaybackTrace mPlaybackTrace = new PlaybackTrace();
+    private Handler mHandler;
+
+    private CastContext mCastContext;
+    private MediaRouter mMediaRouter;
+    private MediaRouteSelector mMediaRouteSelector;
+    private MediaRouter.Callback mMediaRouterCallback;
+    // The live connection of the session, whose phase is kept in mStore.
+    private CastTransport mTransport;
+    private CastCommandExecutor mCommandExecutor;
+    private CommandCoalescer mCommandCoalescer;
+    private StatusScheduler mStatusScheduler;
+    private SessionStore mSessionStore;
+    private PlayQueue mPlayQueue;
+    private QueueAdvancer mQueueAdvancer;
+    private MediaProber mMediaProber;
+    // Receivers the session was extended to, besides the one of the selected route.
+    private final MultiSessionManager mExtraScreens = new MultiSessionManager();
+    // Set while the user picks a route to add as a screen.
+    private boolean mAddingScreen;
+    private boolean mForeground;
+    private boolean mPolling;
+    // URL under which the local MediaServer serves the current media, if it is a local file.
+    private String mServedUrl;
+    private String mServedSource;
+    // The load of the current media, prepared while the session launches.
+    private CastMedia mPreparedMedia;
+    private String mPreparedUrl;
+    private ContentMetadata mPreparedMetadata;
+    private String mCurrentItemId;
+    private RouteInfo mCurrentRoute;
+
+    /**
+     * Returns whether the service exists, in which case binding to it is cheap.
+     */
+    public static boolean isRunning() {
+        return sRunning;
+    }
+
+    /**
+     * Creates the CastContext, registers the Cast route provider and restores the last
+     * session's media.
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        sRunning = true;
+        mHandler = new Handler();
+
+        mCastContext = new CastContext(getApplicationContext());
+        MediaRouteHelper.registerMinimalMediaRouteProvider(mCastContext, this);
+        mMediaRouter = MediaRouter.getInstance(getApplicationContext());
+        mMediaRouteSelector = MediaRouteHelper.buildMediaRouteSelector(
+                MediaRouteHelper.CATEGORY_CAST, getString(R.string.app_name), null);
+
+        mCommandExecutor = new CastCommandExecutor();
+        mCommandCoalescer = new CommandCoalescer(mCommandExecutor);
+        mCommandCoalescer.setListener(new CommandCoalescer.Listener() {
+            @Override
+            public void onVolumeFlushed(double volume) {
+                mExtraScreens.setVolume(volume, null);
+            }
+
+            @Override
+            public void onSeekFlushed(double position) {
+                mExtraScreens.playFrom(position, null);
+            }
+        });
+        mStatusScheduler = new StatusScheduler(mCommandExecutor, new StatusScheduler.Callback() {
+            @Override
+            public void onStatusUpdated() {
+                SessionState state = publishStatus();
+                if (state.getPhase() == Phase.REJOINING) {
+                    finishRejoin();
+                }
+                PlayerStatus player = state.getPlayer();
+                if (mPlaybackTrace.isActive() && player != null
+                        && player.getPlayerState()
+                                == MediaProtocolMessageStream.PlayerState.PLAYING) {
+                    mPlaybackTrace.finish("buffer", state.getDeviceName());
+                }
+                mQueueAdvancer.onStatusUpdated();
+                // Status requests are shared per device, so this costs at most one in flight each.
+                mExtraScreens.requestStatus(null);
+            }
+        });
+        mExtraScreens.setListener(new MultiSessionManager.Listener() {
+            @Override
+            public void onDeviceConnectionChanged(DeviceSession device) {
+                if (!device.isConnected()) {
+                    Log.i(TAG, "Screen " + device.getName() + " left the session");
+                }
+                setExtraScreens(mExtraScreens.getConnectedCount());
+            }
+
+            @Override
+            public void onDeviceStatusChanged(DeviceSession device) {
+            }
+        });
+        mSessionStore = new SessionStore(this);
+        mMediaProber = MediaProber.getInstance(this);
+        mPlayQueue = new PlayQueue();
+        mQueueAdvancer = new QueueAdvancer(mPlayQueue, mStatusScheduler,
+                new QueueAdvancer.Callback() {
+            @Override
+            public void onAdvance(CastMedia media, ContentMetadata metadata) {
+                TraceLog.event(TraceLog.QUEUE_ADVANCE,
+                        mPlayQueue.size() - mPlayQueue.getCurrentPosition() - 1);
+                setMedia(media);
+                loadMedia(media, metadata, true);
+            }
+        });
+        mPlayQueue.addListener(new PlayQueue.Listener() {
+            @Override
+            public void onQueueChanged(PlayQueue queue) {
+                setMedia(mStore.get().getMedia());
+                updatePolling();
+            }
+        });
+        CastMedia lastMedia = mSessionStore.getMedia();
+        if (lastMedia != null) {
+            mPlayQueue.playNow(lastMedia);
+            setMedia(lastMedia);
+        }
+
+        mMediaRouterCallback = new MyMediaRouterCallback();
+        mMediaRouter.addCallback(mMediaRouteSelector, mMediaRouterCallback, 0);
+        RouteInfo selected = mMediaRouter.getSelectedRoute();
+        if (selected != null && !selected.isDefault()
+                && selected.matchesSelector(mMediaRouteSelector)) {
+            // Selected from the Cast button before the service existed.
+            mMediaRouterCallback.onRouteSelected(mMediaRouter, selected);
+        }
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP_CASTING.equals(intent.getAction())) {
+            stopCasting();
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    /**
+     * Ends the session, if it is still open, and releases everything the service owns.
+     */
+    @Override
+    public void onDestroy() {
+        sRunning = false;
+        mMediaRouter.removeCallback(mMediaRouterCallback);
+        mHandler.removeCallbacks(mRejoinTimeout);
+        mStatusScheduler.stop();
+        mStatusScheduler.setMessageStream(null);
+        mQueueAdvancer.setMessageStream(null);
+        mPlayQueue.removeListener(mQueueAdvancer);
+        if (mTransport != null) {
+            TraceLog.event(TraceLog.SESSION_END);
+            try {
+                mTransport.disconnect(false);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to end session.");
+            }
+            mTransport = null;
+        }
+        mExtraScreens.disconnectAll(true);
+        mCommandExecutor.shutdown();
+        MediaServer.getInstance().stop();
+        MediaRouteHelper.unregisterMediaRouteProvider(mCastContext);
+        mCastContext.dispose();
+        super.onDestroy();
+    }
+
+    /**
+     * Attaches a client, which is told about the current state right away from the snapshot kept
+     * here, without asking the receiver, and about every change after that.
+     */
+    public void addListener(SessionStateStore.Listener listener) {
+        if (mStore.get().isSessionOpen()) {
+            TraceLog.event(TraceLog.SESSION_RESTORE);
+        }
+        mStore.subscribe(listener);
+        updatePolling();
+    }
+
+    /**
+     * Detaches a client. The session stays open without clients.
+     */
+    public void removeListener(SessionStateStore.Listener listener) {
+        mStore.unsubscribe(listener);
+        if (!mStore.hasSubscribers() && mStore.get().isSessionOpen()) {
+            TraceLog.event(TraceLog.SESSION_RETAIN);
+        }
+        updatePolling();
+    }
+
+    /**
+     * Sets whether the next route selected is added as a further screen, keeping the current one
+     * playing, rather than replacing it. Clear it once the user has picked a route or given up.
+     */
+    public void setAddingScreen(boolean addingScreen) {
+        mAddingScreen = addingScreen;
+    }
+
+    /**
+     * Returns a summary of the status of the screens the session has been extended to.
+     */
+    public String getExtraScreenSummary() {
+        MultiSessionManager.MergedStatus status = mExtraScreens.getMergedStatus();
+        return mExtraScreens.getConnectedCount() + " connected, " + status.playing
+                + " playing, " + status.stopped + " stopped, " + status.idle + " idle, "
+                + status.unknown + " unknown, drift "
+                + String.format(Locale.ROOT, "%.1f s", status.getDrift());
+    }
+
+    /**
+     * Returns the current snapshot of the session. Safe to call from any thread.
+     */
+    public SessionState getState() {
+        return mStore.get();
+    }
+
+    /**
+     * Returns the most recent status request, or null if none has been sent on this stream.
+     */
+    public MediaProtocolCommand getLastStatusRequest() {
+        return mStatusScheduler.getLastStatusRequest();
+    }
+
+    /**
+     * Returns how many status requests are outstanding and how many callers shared them.
+     */
+    public String getStatusRequestSummary() {
+        return mCommandExecutor.getSingleFlightSummary();
+    }
+
+    public PlaybackTrace getPlaybackTrace() {
+        return mPlaybackTrace;
+    }
+
+    /**
+     * Pauses playback if it is playing, and plays or resumes it otherwise.
+     */
+    public void togglePlayback() {
+        SessionState state = mStore.get();
+        if (state.getMessageStream() == null) {
+            Log.e(TAG, "togglePlayback - mMPMS==null");
+        } else if (!state.isPaused()) {
+            mCommandExecutor.stop(new LoggingCallback("Failed to send stop command."));
+            mExtraScreens.stop(null);
+        } else if (state.isVideoStopped()) {
+            mCommandExecutor.play(new LoggingCallback("Failed to send play/resume command."));
+            mExtraScreens.play(null);
+            setVideoStopped(false);
+        } else {
+            mCommandExecutor.resume(new LoggingCallback("Failed to send play/resume command."));
+            mExtraScreens.resume(null);
+        }
+        setPaused(!state.isPaused());
+        mStatusScheduler.refreshNow();
+    }
+
+    /**
+     * Stops the currently playing media.
+     */
+    public void stop() {
+        SessionState state = mStore.get();
+        if (state.getMessageStream() == null) {
+            Log.e(TAG, "stop - mMPMS==null");
+            return;
+        }
+        mCommandExecutor.stop(new LoggingCallback("Failed to send stop command."));
+        mExtraScreens.stop(null);
+        setVideoStopped(!state.isVideoStopped());
+        setPaused(true);
+        mStatusScheduler.refreshNow();
+    }
+
+    /**
+     * Skips forward or backward by some fixed increment in the currently playing media. Rapid
+     * calls are accumulated and sent as a single seek.
+     *
+     * @param direction either SEEK_FORWARD or SEEK_BACK
+     */
+    public void seek(int direction) {
+        StatusMessageStream stream = mStore.get().getMessageStream();
+        if (stream == null) {
+            Log.e(TAG, "seek - mMPMS==null");
+            return;
+        }
+        double position = stream.getPlaybackClock().getPosition();
+        if (direction == SEEK_FORWARD) {
+            mCommandCoalescer.seekBy(position, SEEK_INCREMENT);
+        } else if (direction == SEEK_BACK) {
+            mCommandCoalescer.seekBy(position, -SEEK_INCREMENT);
+        } else {
+            Log.e(TAG, "seek was not FWD or BACK");
+        }
+        double target = mCommandCoalescer.getPendingSeekTarget();
+        if (target >= 0) {
+            stream.getPlaybackClock().seekTo(target);
+        }
+        mStatusScheduler.requestFastUpdates();
+    }
+
+    /**
+     * Mutes or unmutes the receiver.
+     */
+    public void toggleMute() {
+        StatusMessageStream stream = mStore.get().getMessageStream();
+        if (stream != null) {
+            mCommandExecutor.setMuted(!stream.isMuted(),
+                    new LoggingCallback("Failed to send mute command."));
+            mExtraScreens.setMuted(!stream.isMuted(), null);
+        } else {
+            Log.e(TAG, "toggleMute - mMPMS==null");
+        }
+    }
+
+    /**
+     * Moves the target volume by the given amount. Repeated calls only move the local target,
+     * which is sent once they settle.
+     */
+    public void adjustVolume(double delta) {
+        if (mStore.get().getMessageStream() != null) {
+            double volume = mCommandCoalescer.adjustVolume(delta);
+            TraceLog.event(TraceLog.VOLUME_KEY, volume);
+        } else {
+            Log.e(TAG, "adjustVolume - mMPMS==null");
+        }
+    }
+
+    /**
+     * Stores and attempts to load the passed piece of media.
+     */
+    public void selectMedia(CastMedia media) {
+        mMediaProber.probe(media.getUrl(), null);
+        mPlayQueue.playNow(media);
+        setMedia(media);
+        if (mStore.get().getPhase() == Phase.REJOINING) {
+            mHandler.removeCallbacks(mRejoinTimeout);
+            moveTo(Phase.CONNECTED);
+        }
+        if (mStore.get().getMessageStream() != null) {
+            loadMedia(true);
+        } else if (mStore.get().getExtraScreens() > 0) {
+            // No device is selected at the moment, but the further screens play on.
+            mExtraScreens.loadMedia(resolveMediaUrl(media.getUrl()),
+                    QueueAdvancer.createMetadata(media), true, null);
+        }
+    }
+
+    /**
+     * Adds the passed piece of media to the end of the play queue, or plays it right away if
+     * nothing has been selected yet.
+     */
+    public void enqueueMedia(CastMedia media) {
+        if (mStore.get().getMedia().getUrl() == null) {
+            selectMedia(media);
+            return;
+        }
+        mPlayQueue.enqueue(media);
+        mMediaProber.probe(media.getUrl(), null);
+    }
+
+    /**
+     * Ends the session and the receiver application by unselecting the Cast route.
+     */
+    public void stopCasting() {
+        if (mStore.get().isRouteSelected()) {
+            mMediaRouter.getDefaultRoute().select();
+        } else {
+            mExtraScreens.disconnectAll(true);
+            setExtraScreens(0);
+            stopSelf();
+        }
+    }
+
+    @Override
+    public void onDeviceAvailable(CastDevice device, String myString,
+                                  MediaRouteStateChangeListener listener) {
+        TraceLog.event(TraceLog.DEVICE_AVAILABLE);
+        if (!mStore.get().isRouteSelected()) {
+            Log.w(TAG, "Ignoring device " + device.getFriendlyName() + " without a selected route");
+            return;
+        }
+        mPlaybackTrace.mark("device");
+        if (mTransport != null && device.getDeviceId().equals(mTransport.getDeviceId())) {
+            if (mTransport.isActive()) {
+                TraceLog.event(TraceLog.SESSION_STILL_RUNNING);
+                return;
+            }
+            if (mTransport.canReconnect()) {
+                resumeSession();
+                return;
+            }
+        }
+        setDevice(device);
+        openSession();
+    }
+
+    @Override
+    public void onSetVolume(double volume) {
+        mCommandExecutor.setVolume(volume, new LoggingCallback("Problem sending Set Volume"));
+        mExtraScreens.setVolume(volume, null);
+    }
+
+    @Override
+    public void onUpdateVolume(double volumeChange) {
+        try {
+            if ((mCurrentItemId != null) && (mCurrentRoute != null)) {
+                mCurrentRoute.requestUpdateVolume((int) (volumeChange * MAX_VOLUME_LEVEL));
+            }
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Problem sending Update Volume", e);
+        }
+    }
+
+    /**
+     * A callback class which listens for route select or unselect events and processes devices
+     * and sessions accordingly.
+     */
+    private class MyMediaRouterCallback extends MediaRouter.Callback {
+        @Override
+        public void onRouteSelected(MediaRouter router, RouteInfo route) {
+            mAddingScreen = false;
+            if (mTransport != null && mTransport.isActive()) {
+                // Selected again while the session is connecting or connected; it keeps its phase
+                // and stream, and onDeviceAvailable only opens a new session for another device.
+                MediaRouteHelper.requestCastDeviceForRoute(route);
+                return;
+            }
+            if (!moveTo(Phase.SELECTED)) {
+                return;
+            }
+            mPlaybackTrace.start();
+            MediaRouteHelper.requestCastDeviceForRoute(route);
+            // Runs while the device is looked up and the receiver launches.
+            prepareLoad();
+        }
+
+        @Override
+        public void onRouteUnselected(MediaRouter router, RouteInfo route) {
+            mPlaybackTrace.cancel();
+            StatusMessageStream stream = mStore.get().getMessageStream();
+            if (mAddingScreen && stream != null && mTransport != null && mTransport.isActive()) {
+                // Another route is being added; this receiver keeps playing as a further screen.
+                detachMessageStream();
+                mExtraScreens.adopt(mTransport, stream);
+                mTransport = null;
+                moveTo(Phase.IDLE);
+                setExtraScreens(mExtraScreens.getConnectedCount());
+                return;
+            }
+            try {
+                if (mTransport != null) {
+                    TraceLog.event(TraceLog.SESSION_END);
+                    mTransport.disconnect(true);
+                } else {
+                    Log.e(TAG, "onRouteUnselected: mTransport is null");
+                }
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "onRouteUnselected:");
+                e.printStackTrace();
+            } catch (IOException e) {
+                Log.e(TAG, "onRouteUnselected:");
+                e.printStackTrace();
+            }
+            detachMessageStream();
+            mSessionStore.clear();
+            mTransport = null;
+            mExtraScreens.disconnectAll(true);
+            moveTo(Phase.IDLE);
+            setExtraScreens(0);
+            leaveForeground();
+        }
+    }
+
+    /**
+     * Starts a new video playback session with the current CastContext and selected device.
+     */
+    private void openSession() {
+        // TODO: The below lines allow you to specify either that your application uses the default
+        // implementations of the Notification and Lock Screens, or that you will be using your own.
+        int flags = 0;
+
+        // Comment out the below line if you are not writing your own Notification Screen.
+        // flags |= ApplicationSession.FLAG_DISABLE_NOTIFICATION;
+
+        // Comment out the below line if you are not writing your own Lock Screen.
+        // flags |= ApplicationSession.FLAG_DISABLE_LOCK_SCREEN_REMOTE_CONTROL;
+
+        // TODO: To run your own copy of the receiver, you will need to set app_name in
+        // /res/strings.xml to your own appID, and then upload the provided receiver
+        // to the url that you whitelisted for your app.
+        // The current value of app_name is "YOUR_APP_ID_HERE".
+        mTransport = new SessionTransport(mCastContext, mStore.get().getDevice(),
+                getString(R.string.app_name), flags);
+
+        TraceLog.event(TraceLog.SESSION_OPEN);
+        mTransport.setListener(new TransportListener());
+        moveTo(Phase.CONNECTING);
+        enterForeground();
+        try {
+            mTransport.connect();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open session", e);
+        }
+    }
+
+    /**
+     * Resumes the last session with the same device, which rejoins the receiver application it
+     * had started instead of launching it again.
+     */
+    private void resumeSession() {
+        TraceLog.event(TraceLog.SESSION_RESUME);
+        mTransport.setListener(new TransportListener());
+        moveTo(Phase.CONNECTING);
+        enterForeground();
+        try {
+            mTransport.reconnect();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to resume session, starting a new one", e);
+            openSession();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Failed to resume session, starting a new one", e);
+            openSession();
+        }
+    }
+
+    /**
+     * Keeps the service, and with it the session, alive without bound clients while the session
+     * is open, with a notification that leads back to the activity or ends the session.
+     */
+    private void enterForeground() {
+        if (mForeground) {
+            return;
+        }
+        mForeground = true;
+        startService(new Intent(this, CastSessionService.class));
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0,
+                new Intent(this, CastSampleActivity.class), 0);
+        PendingIntent stopIntent = PendingIntent.getService(this, 0,
+                new Intent(this, CastSessionService.class).setAction(ACTION_STOP_CASTING),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        startForeground(NOTIFICATION_ID, new NotificationCompat.Builder(this)
+                .setSmallIcon(R.drawable.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.casting_to, mStore.get().getDeviceName()))
+                .setOngoing(true)
+                .setContentIntent(contentIntent)
+                .addAction(R.drawable.stop_button, getString(R.string.stop_casting), stopIntent)
+                .build());
+    }
+
+    /**
+     * Lets the service end once the last client has unbound.
+     */
+    private void leaveForeground() {
+        if (!mForeground) {
+            return;
+        }
+        mForeground = false;
+        stopForeground(true);
+        stopSelf();
+    }
+
+    /**
+     * Polls the receiver while a client shows the status, or while the play queue needs to know
+     * when the current item ends.
+     */
+    private void updatePolling() {
+        boolean poll = mStore.hasSubscribers() || mPlayQueue.peekNext() != null;
+        if (poll == mPolling) {
+            return;
+        }
+        mPolling = poll;
+        if (poll) {
+            mStatusScheduler.start();
+        } else {
+            mStatusScheduler.stop();
+        }
+    }
+
+    /**
+     * Makes the given stream the one all commands and status polls go through, and moves the
+     * session to the given phase.
+     */
+    private void attachMessageStream(final StatusMessageStream messageStream,
+            final Phase phase) {
+        SessionState state = mStore.update(new SessionStateStore.Update() {
+            @Override
+            public SessionState apply(SessionState state) {
+                return state.withMessageStream(messageStream).moveTo(phase);
+            }
+        });
+        if (state.getDeviceName() != null) {
+            mCommandExecutor.setDeviceName(state.getDeviceName());
+        }
+        mCommandExecutor.setMessageStream(messageStream);
+        mCommandCoalescer.reset();
+        mStatusScheduler.setMessageStream(messageStream);
+        mQueueAdvancer.setMessageStream(messageStream);
+    }
+
+    /**
+     * Stops sending commands and status polls to the current stream.
+     */
+    private void detachMessageStream() {
+        mHandler.removeCallbacks(mRejoinTimeout);
+        mStatusScheduler.setMessageStream(null);
+        mQueueAdvancer.setMessageStream(null);
+        mCommandExecutor.setMessageStream(null);
+        mCommandCoalescer.reset();
+    }
+
+    /**
+     * Decides, once the receiver has reported its status, whether the last session's media is
+     * still loaded there. If so it is adopted as it is; otherwise it is loaded again.
+     */
+    private void finishRejoin() {
+        SessionState state = mStore.get();
+        PlayerStatus player = state.getPlayer();
+        if (player == null || player.getPlayerState() == null) {
+            // No status has arrived yet.
+            return;
+        }
+        mHandler.removeCallbacks(mRejoinTimeout);
+        moveTo(Phase.CONNECTED);
+        String contentId = player.getContentId();
+        if (contentId != null && contentId.equals(state.getMedia().getUrl())
+                && player.getPlayerState() != MediaProtocolMessageStream.PlayerState.IDLE) {
+            TraceLog.event(TraceLog.REJOIN_ADOPT);
+            setPaused(player.getPlayerState() != MediaProtocolMessageStream.PlayerState.PLAYING);
+        } else {
+            TraceLog.event(TraceLog.REJOIN_RELOAD);
+            loadMedia(false);
+        }
+    }
+
+    private final Runnable mRejoinTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (mStore.get().getPhase() == Phase.REJOINING) {
+                Log.w(TAG, "No status from receiver while rejoining; loading media");
+                moveTo(Phase.CONNECTED);
+                loadMedia(false);
+            }
+        }
+    };
+
+    /**
+     * Resolves the URL and builds the metadata of the current media ahead of loading it, so that
+     * this work overlaps the session launch instead of following it.
+     */
+    private void prepareLoad() {
+        mPreparedMedia = null;
+        CastMedia media = mStore.get().getMedia();
+        if (media.getUrl() == null) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        mPreparedMetadata = QueueAdvancer.createMetadata(media);
+        mPreparedUrl = resolveMediaUrl(media.getUrl());
+        mPreparedMedia = media;
+        mPlaybackTrace.addOverlapped("prepare", System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Loads the stored media object and casts it to the currently selected device, and to the
+     * further screens if allScreens is set.
+     */
+    private void loadMedia(boolean allScreens) {
+        CastMedia media = mStore.get().getMedia();
+        if (mPreparedMedia == media) {
+            mPreparedMedia = null;
+            sendLoad(media, mPreparedUrl, mPreparedMetadata, allScreens);
+        } else {
+            loadMedia(media, QueueAdvancer.createMetadata(media), allScreens);
+        }
+    }
+
+    /**
+     * Casts the given media with the given, possibly prepared, metadata to the currently selected
+     * device, and to the further screens if allScreens is set.
+     */
+    private void loadMedia(CastMedia media, ContentMetadata metadata, boolean allScreens) {
+        mPreparedMedia = null;
+        sendLoad(media, resolveMediaUrl(media.getUrl()), metadata, allScreens);
+    }
+
+    /**
+     * Sends the load of the given media, whose URL has been resolved, followed right away by the
+     * initial volume. Further screens only get it if allScreens is set; a device that has just
+     * joined loads the media without restarting the screens already playing it.
+     */
+    private void sendLoad(final CastMedia media, String url, ContentMetadata metadata,
+            boolean allScreens) {
+        TraceLog.event(TraceLog.LOAD_SEND);
+        MediaInfo info = mMediaProber.getCached(media.getUrl());
+        if (info != null && metadata.getContentInfo() == null) {
+            // Lets the receiver show duration and format before the media has loaded.
+            metadata.setContentInfo(info.toJson());
+        }
+        mQueueAdvancer.onLoadStarted();
+        if (allScreens) {
+            mExtraScreens.loadMedia(url, metadata, true, null);
+            mExtraScreens.setVolume(INITIAL_VOLUME, null);
+        }
+        mCommandExecutor.loadMedia(url, metadata, true, new CastCommandExecutor.Callback() {
+
+            @Override
+            public void onCompleted(MediaProtocolCommand mPCommand) {
+                TraceLog.event(TraceLog.LOAD_COMPLETE);
+                mPlaybackTrace.mark("load");
+                setPaused(false);
+                CastDevice device = mStore.get().getDevice();
+                if (device != null) {
+                    mSessionStore.save(device, media);
+                }
+            }
+
+            @Override
+            public void onFailed(MediaProtocolCommand mPCommand, Exception e) {
+                if (e instanceof CancellationException) {
+                    // A newer load has replaced this one and carries on the trace.
+                    TraceLog.event(TraceLog.LOAD_CANCEL);
+                    return;
+                }
+                if (e == null) {
+                    TraceLog.event(TraceLog.LOAD_CANCEL);
+                } else {
+                    Log.e(TAG, "Problem opening MediaProtocolCommand during loading", e);
+                    TraceLog.dumpToLog("load failed", ERROR_TRACE_EVENTS);
+                }
+                mPlaybackTrace.cancel();
+            }
+        });
+        // The receiver applies the volume independently of the load, so it need not wait for the
+        // load to complete.
+        mCommandExecutor.setVolume(INITIAL_VOLUME,
+                new LoggingCallback("Problem sending Set Volume"));
+    }
+
+    /**
+     * Returns the URL the receiver should load for the given media URL. Files on the device are
+     * published through the local MediaServer, since the receiver cannot read them directly.
+     */
+    private String resolveMediaUrl(String url) {
+        if (mServedUrl != null && url.equals(mServedSource)) {
+            // Screens may still be playing it from this URL.
+            return mServedUrl;
+        }
+        if (mServedUrl != null) {
+            MediaServer.getInstance().unpublish(mServedUrl);
+            mServedUrl = null;
+            mServedSource = null;
+        }
+        String path;
+        if (url.startsWith("file://")) {
+            path = Uri.parse(url).getPath();
+        } else if (url.startsWith("/")) {
+            path = url;
+        } else {
+            return url;
+        }
+        InetAddress address = MediaServer.findLocalAddress();
+        if (address == null) {
+            Log.e(TAG, "No network address to serve " + path + " on");
+            return url;
+        }
+        try {
+            MediaServer.getInstance().start(0);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to start media server", e);
+            return url;
+        }
+        mServedUrl = MediaServer.getInstance().publish(new File(path), address);
+        mServedSource = url;
+        TraceLog.event(TraceLog.MEDIA_SERVE, MediaServer.getInstance().getPort());
+        return mServedUrl;
+    }
+
+    /**
+     * Moves the session to the given phase if the state machine allows it, and returns whether
+     * it is in that phase now.
+     */
+    private boolean moveTo(final Phase phase) {
+        SessionState state = mStore.update(new SessionStateStore.Update() {
+            @Override
+            public SessionState apply(SessionState state) {
+                return state.getPhase().canMoveTo(phase) ? state.moveTo(phase) : state;
+            }
+        });
+        if (state.getPhase() != phase) {
+            Log.w(TAG, "Ignoring move from " + state.getPhase() + " to " + phase);
+            return false;
+        }
+        return true;
+    }
+
+    private void setDevice(final CastDevice device) {
+        mStore.update(new SessionStateStore.Update() {
+            @Override
+            public SessionState apply(SessionState state) {
+                return state.withDevice(device);
+            }
+        });
+    }
+
+    /**
+     * Publishes the given media as the current one, along with what the play queue plays next.
+     */
+    private void setMedia(final CastMedia media) {
+        final CastMedia next = mPlayQueue.peekNext();
+        mStore.update(new SessionStateStore.Update() {
+            @Override
+            public SessionState apply(SessionState state) {
+                return state.withMedia(media, next);
+            }
+        });
+    }
+
+    private void setExtraScreens(final int extraScreens) {
+        mStore.update(new SessionStateStore.Update() {
+            @Override
+            public SessionState apply(SessionState state) {
+                return state.withExtraScreens(extraScreens);
+            }
+        });
+    }
+
+    private void setPaused(final boolean paused) {
+        mStore.update(new SessionStateStore.Update() {
+            @Override
+            public SessionState apply(SessionState state) {
+                return state.withPaused(paused);
+            }
+        });
+    }
+
+    private void setVideoStopped(final boolean videoStopped) {
+        mStore.update(new SessionStateStore.Update() {
+            @Override
+            public SessionState apply(SessionState state) {
+                return state.withVideoStopped(videoStopped);
+            }
+        });
+    }
+
+    /**
+     * Publishes the last status reported on the current stream and returns the new state.
+     */
+    private SessionState publishStatus() {
+        return mStore.update(new SessionStateStore.Update() {
+            @Override
+            public SessionState apply(SessionState state) {
+                StatusMessageStream stream = state.getMessageStream();
+                return stream != null ? state.withPlayer(stream.getStatus()) : state;
+            }
+        });
+    }
+
+    /**
+     * Receives the events of the current transport.
+     */
+    private class TransportListener implements CastTransport.Listener {
+
+        @Override
+        public void onConnected(StatusMessageStream messageStream) {
+            mPlaybackTrace.mark("launch");
+            TraceLog.event(TraceLog.SESSION_STARTED);
+            TraceLog.event(TraceLog.STREAM_ATTACH);
+            SessionState state = mStore.get();
+            if (state.getPhase() != Phase.CONNECTING) {
+                Log.w(TAG, "Ignoring connection in phase " + state.getPhase());
+                return;
+            }
+            boolean hasMedia = state.getMedia().getUrl() != null;
+            if (mSessionStore.isLastDevice(state.getDevice()) && hasMedia) {
+                // The receiver may still be playing the last media; one status round trip tells.
+                TraceLog.event(TraceLog.REJOIN_REQUEST);
+                attachMessageStream(messageStream, Phase.REJOINING);
+                mStatusScheduler.refreshNow();
+                mHandler.postDelayed(mRejoinTimeout, REJOIN_TIMEOUT_MS);
+            } else {
+                attachMessageStream(messageStream, Phase.CONNECTED);
+                if (hasMedia) {
+                    loadMedia(false);
+                }
+            }
+        }
+
+        @Override
+        public void onConnectFailed(String error) {
+            Log.e(TAG, "onStartFailed " + error);
+            TraceLog.dumpToLog("session start failed", ERROR_TRACE_EVENTS);
+            mPlaybackTrace.cancel();
+            moveTo(Phase.SELECTED);
+        }
+
+        @Override
+        public void onDisconnected(String error) {
+            Log.i(TAG, "onEnded " + error);
+            if (mStore.get().isSessionOpen()) {
+                // Lost while the route is still selected; the device may come back.
+                detachMessageStream();
+                moveTo(Phase.SELECTED);
+            }
+        }
+    }
+
+    /**
+     * A command callback which only logs the given message when the command fails.
+     */
+    private static class LoggingCallback implements CastCommandExecutor.Callback {
+        private final String mFailureMessage;
+
+        public LoggingCallback(String failureMessage) {
+            mFailureMessage = failureMessage;
+        }
+
+        @Override
+        public void onCompleted(MediaProtocolCommand command) {
+        }
+
+        @Override
+        public void onFailed(MediaProtocolCommand command, Exception e) {
+            if (e instanceof CancellationException) {
+                // A newer command of the same kind has replaced this one.
+                return;
+            }
+            Log.e(TAG, mFailureMessage, e);
+            TraceLog.dumpToLog(mFailureMessage, ERROR_TRACE_EVENTS);
+        }
+    }
+}
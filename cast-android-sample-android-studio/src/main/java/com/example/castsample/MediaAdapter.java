@@ -16,7 +16,9 @@
 
 package com.example.castsample;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import android.app.Activity;
@@ -24,55 +26,206 @@ import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.BaseAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.example.castsample.catalog.MediaCatalog;
+import com.example.castsample.catalog.TitleIndex;
+import com.example.castsample.image.ImageLoader;
+import com.example.castsample.probe.MediaInfo;
+import com.example.castsample.probe.MediaProber;
+
 /**
- * A BaseAdapter containing a fixed set of CastMedia objects.
+ * A BaseAdapter over a MediaCatalog. Rows appear as the catalog publishes them, so the list can be
+ * shown while the catalog is still loading. Thumbnails are loaded through the ImageLoader; set the
+ * adapter as the list's RecyclerListener so rows that scroll away drop their pending loads.
+ * <p>
+ * The rows can be narrowed to the titles matching a search query. Matches are looked up in the
+ * catalog's TitleIndex; a query that extends the previous one only re-checks the previous
+ * matches, and entries the catalog adds later are checked as they arrive. Entries the index does
+ * not cover yet are normalized once and scanned, so only the short tail behind the index costs
+ * time on every keystroke.
  */
-public class MediaAdapter extends BaseAdapter {
+public class MediaAdapter extends BaseAdapter
+        implements MediaCatalog.Listener, AbsListView.RecyclerListener {
 
-    private Context mContext;
     private LayoutInflater mInflater;
-    private List<CastMedia> mVideos;
+    private MediaCatalog mCatalog;
+    private ImageLoader mImageLoader;
+    private MediaProber mMediaProber;
+    private int mThumbnailSize;
+    // The normalized search query, or null to show all entries.
+    private String mQuery;
+    // Catalog positions of the entries matching mQuery, in catalog order.
+    private int[] mMatches;
+    private int mMatchCount;
+    // Normalized titles of the catalog entries from mTailStart on, filled as they are needed.
+    private final List<String> mTailTitles = new ArrayList<String>();
+    private int mTailStart;
 
     /**
-     * Creates a new MediaAdapter for the given activity.
+     * Creates a new MediaAdapter for the given activity, showing the entries of the given catalog.
      */
-    public MediaAdapter(Activity activity) {
-        mContext = activity.getApplicationContext();
+    public MediaAdapter(Activity activity, MediaCatalog catalog) {
         mInflater = (LayoutInflater) activity.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        mVideos = new ArrayList<CastMedia>();
-        addVideos();
+        mCatalog = catalog;
+        mImageLoader = ImageLoader.getInstance(activity);
+        mMediaProber = MediaProber.getInstance(activity);
+        mThumbnailSize = activity.getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
+    }
+
+    /**
+     * Starts following catalog updates and loads the catalog if it has not been loaded yet.
+     */
+    public void attach() {
+        mCatalog.addListener(this);
+        mCatalog.load();
+        notifyDataSetChanged();
     }
-    
+
     /**
-     * Adds some fixed set of video objects to this object's internal list.
+     * Stops following catalog updates.
      */
-    private void addVideos() {
-        mVideos.add(new CastMedia(mContext.getString(R.string.big_buck_bunny), "http://commondatastorage.googleapis.com/gtv-videos-bucket/big_buck_bunny_1080p.mp4"));
-        mVideos.add(new CastMedia(mContext.getString(R.string.tears_of_steel), "http://commondatastorage.googleapis.com/gtv-videos-bucket/tears_of_steel_1080p.mp4"));
-        mVideos.add(new CastMedia(mContext.getString(R.string.elephant_dreams), "http://commondatastorage.googleapis.com/gtv-videos-bucket/ED_1280.mp4"));
-        mVideos.add(new CastMedia(mContext.getString(R.string.marnau_the_vamp), "http://commondatastorage.googleapis.com/gtv-videos-bucket/murnau_the_vampire_(2007)_oscar_alvarado%C2%B4s_480x200.mp4"));
-        mVideos.add(new CastMedia(mContext.getString(R.string.project_london), "http://commondatastorage.googleapis.com/gtv-videos-bucket/project_london-_official_trailer_1280x720.mp4"));
-        mVideos.add(new CastMedia(mContext.getString(R.string.reel_2012), "http://commondatastorage.googleapis.com/gtv-videos-bucket/reel_2012_1280x720.mp4"));
-        mVideos.add(new CastMedia(mContext.getString(R.string.io_2012_countdown_music), "http://commondatastorage.googleapis.com/gtv-videos-bucket/Google%20IO%202011-%2030%20min%20Countdown.mp3"));
-        mVideos.add(new CastMedia(mContext.getString(R.string.io_2011_walkout_music), "http://commondatastorage.googleapis.com/gtv-videos-bucket/Google%20IO%202011%2045%20Min%20Walk%20Out.mp3"));
+    public void detach() {
+        mCatalog.removeListener(this);
+    }
+
+    /**
+     * Shows only the entries whose titles match the given query, or all entries if it is blank.
+     */
+    public void setQuery(String query) {
+        String normalized = TitleIndex.normalize(query);
+        if (normalized.length() == 0) {
+            mQuery = null;
+            mMatches = null;
+        } else if (mQuery != null && normalized.startsWith(mQuery)) {
+            // Anything matching the longer query matched the previous one.
+            String previous = mQuery;
+            mQuery = normalized;
+            refineMatches(previous);
+        } else {
+            mQuery = normalized;
+            findMatches();
+        }
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void onMediaAdded(MediaCatalog catalog, int position, int count) {
+        if (mQuery != null) {
+            appendMatches(position, position + count);
+        }
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void onCatalogChanged(MediaCatalog catalog) {
+        mTailTitles.clear();
+        mTailStart = 0;
+        if (mQuery != null) {
+            findMatches();
+        }
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void onLoadFinished(MediaCatalog catalog, IOException error) {
     }
 
     @Override
     public int getCount() {
-        return mVideos.size();
+        return mMatches != null ? mMatchCount : mCatalog.size();
     }
 
     @Override
     public CastMedia getItem(int position) {
-        return mVideos.get(position);
+        return mCatalog.get(getCatalogPosition(position));
     }
 
     @Override
     public long getItemId(int position) {
-        return position;
+        return getCatalogPosition(position);
+    }
+
+    private int getCatalogPosition(int position) {
+        return mMatches != null ? mMatches[position] : position;
+    }
+
+    /**
+     * Looks up all matches of mQuery, using the index for the entries it covers.
+     */
+    private void findMatches() {
+        TitleIndex index = mCatalog.getIndex();
+        int indexed = 0;
+        if (index != null) {
+            mMatches = index.search(mQuery);
+            mMatchCount = mMatches.length;
+            indexed = index.size();
+        } else {
+            mMatches = new int[16];
+            mMatchCount = 0;
+        }
+        appendMatches(indexed, mCatalog.size());
+    }
+
+    /**
+     * Drops the matches of the given previous query that do not match the extended mQuery.
+     */
+    private void refineMatches(String previous) {
+        TitleIndex index = mCatalog.getIndex();
+        int indexed = 0;
+        if (index != null) {
+            // Matches are in catalog order, so the indexed ones come first.
+            while (indexed < mMatchCount && mMatches[indexed] < index.size()) {
+                indexed++;
+            }
+        }
+        int count = indexed > 0 ? index.refine(mMatches, indexed, previous, mQuery) : 0;
+        for (int i = indexed; i < mMatchCount; i++) {
+            int position = mMatches[i];
+            if (TitleIndex.matches(getTailTitle(position), mQuery)) {
+                mMatches[count++] = position;
+            }
+        }
+        mMatchCount = count;
+    }
+
+    /**
+     * Checks the catalog entries in [start, end) against mQuery and appends the matching ones.
+     */
+    private void appendMatches(int start, int end) {
+        for (int position = start; position < end; position++) {
+            if (TitleIndex.matches(getTailTitle(position), mQuery)) {
+                if (mMatchCount == mMatches.length) {
+                    mMatches = Arrays.copyOf(mMatches, Math.max(16, mMatchCount * 2));
+                }
+                mMatches[mMatchCount++] = position;
+            }
+        }
+    }
+
+    /**
+     * Returns the normalized title of the given entry, which the index must not cover. Titles are
+     * normalized once and dropped when the index catches up with them.
+     */
+    private String getTailTitle(int position) {
+        TitleIndex index = mCatalog.getIndex();
+        int indexed = index != null ? index.size() : 0;
+        if (indexed > mTailStart) {
+            mTailTitles.subList(0, Math.min(indexed - mTailStart, mTailTitles.size())).clear();
+            mTailStart = indexed;
+        }
+        if (position < mTailStart) {
+            // Scanned before the index covered it.
+            return TitleIndex.normalize(mCatalog.get(position).getTitle());
+        }
+        while (mTailStart + mTailTitles.size() <= position) {
+            int next = mTailStart + mTailTitles.size();
+            mTailTitles.add(TitleIndex.normalize(mCatalog.get(next).getTitle()));
+        }
+        return mTailTitles.get(position - mTailStart);
     }
 
     @Override
@@ -87,19 +240,58 @@ public class MediaAdapter extends BaseAdapter {
         } else {
             viewHolder = (CastVideoViewHolder) view.getTag();
         }
-        viewHolder.setPosition(position);
+        viewHolder.bind(getItem(position));
         return view;
     }
 
-    private class CastVideoViewHolder {
+    @Override
+    public void onMovedToScrapHeap(View view) {
+        Object tag = view.getTag();
+        if (tag instanceof CastVideoViewHolder) {
+            ((CastVideoViewHolder) tag).unbind();
+        }
+    }
+
+    /**
+     * The views of one row. Rows probe their media for the details line once they are shown.
+     */
+    private class CastVideoViewHolder implements MediaProber.Callback {
         private TextView mVideoTitle;
+        private TextView mDetails;
+        private ImageView mThumbnail;
+        private String mUrl;
 
         public CastVideoViewHolder(View view) {
             mVideoTitle = (TextView) view.findViewById(R.id.item_cast_video_title_textview);
+            mDetails = (TextView) view.findViewById(R.id.item_cast_video_details_textview);
+            mThumbnail = (ImageView) view.findViewById(R.id.item_cast_video_thumbnail_imageview);
+        }
+
+        public void bind(CastMedia media) {
+            mVideoTitle.setText(media.getTitle());
+            mImageLoader.load(media.getThumbnailUrl(), mThumbnail, mThumbnailSize,
+                    mThumbnailSize, R.drawable.video_area);
+            if (mUrl != null && !mUrl.equals(media.getUrl())) {
+                mMediaProber.cancel(mUrl, this);
+            }
+            mUrl = media.getUrl();
+            MediaInfo info = mMediaProber.getCached(mUrl);
+            mDetails.setText(info != null ? info.getSummary() : "");
+            if (info == null) {
+                mMediaProber.probe(mUrl, this);
+            }
+        }
+
+        public void unbind() {
+            mImageLoader.cancel(mThumbnail);
+            mMediaProber.cancel(mUrl, this);
         }
 
-        public void setPosition(int position) {
-            mVideoTitle.setText(mVideos.get(position).getTitle());
+        @Override
+        public void onProbed(String url, MediaInfo info) {
+            if (info != null && url.equals(mUrl)) {
+                mDetails.setText(info.getSummary());
+            }
         }
     }
 }
@@ -19,11 +19,18 @@ package com.example.castsample;
 import android.app.Activity;
 import android.app.Dialog;
 import android.os.Bundle;
-import android.util.Log;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.widget.AdapterView;
+import android.widget.EditText;
 import android.widget.ListView;
+import android.widget.Toast;
 import android.view.View;
 
+import com.example.castsample.catalog.CatalogSource;
+import com.example.castsample.catalog.MediaCatalog;
+import com.example.castsample.metrics.TraceLog;
+
 /**
  * A Dialog that displays a set of media objects and allows for their selection.
  */
@@ -33,6 +40,7 @@ public class MediaSelectionDialog extends Dialog {
 	
 	private CastSampleActivity mCSA;
 	private ListView mediaListView;
+	private EditText mSearchText;
 	private MediaAdapter mAdapter;
 	
     /**
@@ -46,10 +54,28 @@ public class MediaSelectionDialog extends Dialog {
 	@Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        mAdapter = new MediaAdapter(mCSA);
+        mAdapter = new MediaAdapter(mCSA,
+                MediaCatalog.get(mCSA, CatalogSource.fromResource(mCSA, R.raw.media_catalog)));
         setContentView(R.layout.dialog_media_selection);
         mediaListView = (ListView) findViewById(R.id.media_list);
         mediaListView.setAdapter(mAdapter);
+        mediaListView.setRecyclerListener(mAdapter);
+        mSearchText = (EditText) findViewById(R.id.media_search);
+        mSearchText.addTextChangedListener(new TextWatcher() {
+
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                mAdapter.setQuery(s.toString());
+            }
+        });
         mediaListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
 
             @Override
@@ -60,12 +86,39 @@ public class MediaSelectionDialog extends Dialog {
                 if (mMedia == null) {
                     return;
                 }
-                if(CastSampleActivity.ENABLE_LOGV){
-                    Log.v(TAG, "Selected media: " + mMedia.getTitle());
-                }
+                TraceLog.event(TraceLog.MEDIA_SELECT, position);
                 mCSA.mediaSelected(mMedia);
                 MediaSelectionDialog.this.dismiss();
             }
         });
+        mediaListView.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+
+            @Override
+            public boolean onItemLongClick(AdapterView<?> a, View v,
+                    int position, long id) {
+                CastMedia media = mAdapter.getItem(position);
+                if (media == null) {
+                    return false;
+                }
+                mCSA.mediaEnqueued(media);
+                Toast.makeText(getContext(),
+                        getContext().getString(R.string.media_enqueued, media.getTitle()),
+                        Toast.LENGTH_SHORT).show();
+                return true;
+            }
+        });
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mAdapter.attach();
+        mAdapter.setQuery(mSearchText.getText().toString());
+    }
+
+    @Override
+    protected void onStop() {
+        mAdapter.detach();
+        super.onStop();
     }
 }
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample;
+
+import android.content.res.Resources;
+import android.text.Html;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.widget.TextView;
+
+import com.example.castsample.session.PlayerStatus;
+import com.example.castsample.session.SessionState;
+import com.example.castsample.session.StatusMessageStream;
+import com.google.cast.MediaProtocolCommand;
+import com.google.cast.MediaProtocolMessageStream.PlayerState;
+
+/**
+ * Renders session snapshots into the status and currently playing views, comparing each snapshot
+ * with what was rendered last and setting text only when the shown text changes. Refreshes that
+ * change nothing allocate nothing. A changed field, such as the position while playing, still
+ * costs one setText, which copies the text and lays the view out again. The currently playing
+ * text is converted from HTML only when its title, devices or next title change. Must be used on
+ * the main thread.
+ */
+public class StatusRenderer {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final TextView mStatusText;
+    private final TextView mCurrentlyPlaying;
+    private final String mTapIcon;
+    private final String mTapToSelect;
+    private final StringBuilder mBuilder = new StringBuilder(INITIAL_CAPACITY);
+    // The status text last set, in its first mLength chars; mLength is -1 while the hint shows.
+    private char[] mChars = new char[INITIAL_CAPACITY];
+    private int mLength = -1;
+
+    // What the status view shows; mStreamShown is false while it shows the hint.
+    private boolean mStreamShown;
+    private boolean mHintShown;
+    private PlayerState mPlayerState;
+    private String mDeviceName;
+    private String mTitle;
+    private long mPositionTenths;
+    private long mDurationTenths;
+    private long mVolumePercent;
+    private String mStatusRequestType;
+
+    // What the currently playing view shows.
+    private boolean mPlayingRendered;
+    private String mMediaTitle;
+    private String mCastingTo;
+    private int mExtraScreens;
+    private String mNextTitle;
+    private Spanned mTapToSelectText;
+
+    private long mApplied;
+    private long mSkipped;
+
+    public StatusRenderer(Resources resources, TextView statusText, TextView currentlyPlaying) {
+        mStatusText = statusText;
+        mCurrentlyPlaying = currentlyPlaying;
+        mTapIcon = resources.getString(R.string.tap_icon);
+        mTapToSelect = resources.getString(R.string.tap_to_select);
+    }
+
+    /**
+     * Brings both views up to date with the given snapshot, the current position of its playback
+     * clock and the last status request.
+     */
+    public void render(SessionState state, MediaProtocolCommand statusRequest) {
+        renderCurrentlyPlaying(state);
+        renderStatus(state, statusRequest);
+    }
+
+    /**
+     * Returns how many renders set the status text and how many found it unchanged.
+     */
+    public String getSummary() {
+        return mApplied + " applied, " + mSkipped + " skipped";
+    }
+
+    private void renderStatus(SessionState state, MediaProtocolCommand statusRequest) {
+        StatusMessageStream stream = state.getMessageStream();
+        if (stream == null) {
+            mStreamShown = false;
+            if (mHintShown) {
+                mSkipped++;
+                return;
+            }
+            mHintShown = true;
+            mLength = -1;
+            mApplied++;
+            mStatusText.setText(mTapIcon);
+            return;
+        }
+        PlayerStatus player = state.getPlayer();
+        PlayerState playerState = player != null ? player.getPlayerState() : null;
+        String title = player != null ? player.getTitle() : null;
+        long positionTenths = Math.round(stream.getPlaybackClock().getPosition() * 10);
+        long durationTenths = player != null ? Math.round(player.getDuration() * 10) : 0;
+        long volumePercent = player != null ? Math.round(player.getVolume() * 100) : 0;
+        String statusRequestType = statusRequest != null ? statusRequest.getType() : null;
+        if (mStreamShown && playerState == mPlayerState
+                && TextUtils.equals(state.getDeviceName(), mDeviceName)
+                && TextUtils.equals(title, mTitle)
+                && positionTenths == mPositionTenths
+                && durationTenths == mDurationTenths
+                && volumePercent == mVolumePercent
+                && TextUtils.equals(statusRequestType, mStatusRequestType)) {
+            mSkipped++;
+            return;
+        }
+        mStreamShown = true;
+        mHintShown = false;
+        mPlayerState = playerState;
+        mDeviceName = state.getDeviceName();
+        mTitle = title;
+        mPositionTenths = positionTenths;
+        mDurationTenths = durationTenths;
+        mVolumePercent = volumePercent;
+        mStatusRequestType = statusRequestType;
+
+        StringBuilder builder = mBuilder;
+        builder.setLength(0);
+        builder.append("Player State: ").append(playerState).append('\n')
+                .append("Device ").append(mDeviceName).append('\n')
+                .append("Title ").append(title).append('\n')
+                .append("Current Position: ");
+        appendTenths(builder, positionTenths);
+        builder.append('\n').append("Duration: ");
+        appendTenths(builder, durationTenths);
+        builder.append('\n').append("Volume set at: ").append(volumePercent).append("%\n");
+        if (statusRequestType != null) {
+            builder.append("requestStatus: ").append(statusRequestType).append('\n');
+        }
+        int length = builder.length();
+        if (isRendered(builder)) {
+            mSkipped++;
+            return;
+        }
+        if (mChars.length < length) {
+            mChars = new char[Math.max(length, mChars.length * 2)];
+        }
+        builder.getChars(0, length, mChars, 0);
+        mLength = length;
+        mStatusText.setText(mChars, 0, length);
+        mApplied++;
+    }
+
+    /**
+     * Returns whether the status view already shows the text in the given builder.
+     */
+    private boolean isRendered(StringBuilder builder) {
+        if (builder.length() != mLength) {
+            return false;
+        }
+        for (int i = 0; i < mLength; i++) {
+            if (builder.charAt(i) != mChars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void renderCurrentlyPlaying(SessionState state) {
+        CastMedia media = state.getMedia();
+        String title = media != null ? media.getTitle() : null;
+        String castingTo = state.getMessageStream() != null ? state.getDeviceName() : null;
+        CastMedia next = state.getNextMedia();
+        String nextTitle = next != null ? next.getTitle() : null;
+        int extraScreens = state.getExtraScreens();
+        if (mPlayingRendered && TextUtils.equals(title, mMediaTitle)
+                && TextUtils.equals(castingTo, mCastingTo) && extraScreens == mExtraScreens
+                && TextUtils.equals(nextTitle, mNextTitle)) {
+            return;
+        }
+        mPlayingRendered = true;
+        mMediaTitle = title;
+        mCastingTo = castingTo;
+        mExtraScreens = extraScreens;
+        mNextTitle = nextTitle;
+
+        if (title == null) {
+            if (mTapToSelectText == null) {
+                mTapToSelectText = Html.fromHtml("<font color=#FF0000>" + mTapToSelect + "</font>");
+            }
+            mCurrentlyPlaying.setText(mTapToSelectText);
+            return;
+        }
+        String playing = "Media Selected: " + TextUtils.htmlEncode(title);
+        if (castingTo != null) {
+            playing += "<br><font color=#0066FF>Casting to " + TextUtils.htmlEncode(castingTo)
+                    + (extraScreens > 0 ? " and " + extraScreens + " more" : "") + "</font>";
+        } else if (extraScreens > 0) {
+            playing += "<br><font color=#0066FF>Casting to " + extraScreens + " screens</font>";
+        }
+        if (nextTitle != null) {
+            playing += "<br>Up next: " + TextUtils.htmlEncode(nextTitle);
+        }
+        mCurrentlyPlaying.setText(Html.fromHtml(playing));
+    }
+
+    /**
+     * Appends a count of tenths as a decimal with one fraction digit, without going through a
+     * double or a String.
+     */
+    private static void appendTenths(StringBuilder builder, long tenths) {
+        if (tenths < 0) {
+            builder.append('-');
+            tenths = -tenths;
+        }
+        builder.append(tenths / 10).append('.').append((char) ('0' + tenths % 10));
+    }
+}
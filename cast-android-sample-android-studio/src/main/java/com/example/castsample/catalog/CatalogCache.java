@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.catalog;
+
+import com.example.castsample.CastMedia;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A versioned on-disk copy of a media catalog, together with the validators (ETag and
+ * Last-Modified) of the response it was built from.
+ * <p>
+ * The file starts with a header (magic, version, entry count, source key and validators),
+ * followed by an index holding one int offset per entry and then the entry records. A Reader maps
+ * the file and decodes an entry only when it is asked for, so opening a cache costs the same no
+ * matter how many entries it holds.
+ */
+public class CatalogCache {
+
+    private static final int MAGIC = 0x434d4331;
+    private static final int VERSION = 2;
+
+    private final File mFile;
+
+    /**
+     * Creates a cache backed by the given file, which need not exist yet.
+     */
+    public CatalogCache(File file) {
+        mFile = file;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Opens the cache for reading. Returns null if there is no cache, if it was written by a
+     * different version or for a different source, or if its index does not fit in the file.
+     */
+    public Reader open(String sourceKey) throws IOException {
+        if (!mFile.isFile()) {
+            return null;
+        }
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            if (file.length() < 12 || file.readInt() != MAGIC || file.readInt() != VERSION) {
+                return null;
+            }
+            int count = file.readInt();
+            String key = file.readUTF();
+            String etag = file.readUTF();
+            String lastModified = file.readUTF();
+            if (!key.equals(sourceKey) || count < 0) {
+                return null;
+            }
+            int indexOffset = (int) file.getFilePointer();
+            if (indexOffset + 4L * count > file.length()) {
+                return null;
+            }
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    file.length());
+            return new Reader(buffer, count, indexOffset, emptyToNull(etag),
+                    emptyToNull(lastModified));
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Starts writing a new version of the cache. The current version stays readable until the
+     * writer is committed.
+     */
+    public Writer newWriter(String sourceKey, String etag, String lastModified)
+            throws IOException {
+        return new Writer(sourceKey, etag, lastModified);
+    }
+
+    public void delete() {
+        mFile.delete();
+    }
+
+    private static String emptyToNull(String value) {
+        return value.length() == 0 ? null : value;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Random access to the entries of a cache file. Entries are decoded on demand.
+     */
+    public static class Reader {
+        private final MappedByteBuffer mBuffer;
+        private final int mCount;
+        private final int mIndexOffset;
+        private final int mDataOffset;
+        private final String mEtag;
+        private final String mLastModified;
+
+        private Reader(MappedByteBuffer buffer, int count, int indexOffset, String etag,
+                String lastModified) {
+            mBuffer = buffer;
+            mCount = count;
+            mIndexOffset = indexOffset;
+            mDataOffset = indexOffset + 4 * count;
+            mEtag = etag;
+            mLastModified = lastModified;
+        }
+
+        public int size() {
+            return mCount;
+        }
+
+        public String getEtag() {
+            return mEtag;
+        }
+
+        public String getLastModified() {
+            return mLastModified;
+        }
+
+        /**
+         * Decodes the entry at the given position.
+         */
+        public synchronized CastMedia get(int position) {
+            if (position < 0 || position >= mCount) {
+                throw new IndexOutOfBoundsException("Invalid catalog position " + position);
+            }
+            mBuffer.position(mDataOffset + mBuffer.getInt(mIndexOffset + 4 * position));
+            String title = readString();
+            String url = readString();
+            String thumbnailUrl = readString();
+            String imageUrl = readString();
+            return new CastMedia(title, url, thumbnailUrl, imageUrl);
+        }
+
+        /**
+         * Decodes only the title of the entry at the given position.
+         */
+        public synchronized String getTitle(int position) {
+            if (position < 0 || position >= mCount) {
+                throw new IndexOutOfBoundsException("Invalid catalog position " + position);
+            }
+            mBuffer.position(mDataOffset + mBuffer.getInt(mIndexOffset + 4 * position));
+            return readString();
+        }
+
+        private String readString() {
+            int length = mBuffer.getInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            mBuffer.get(bytes);
+            try {
+                return new String(bytes, "UTF-8");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Appends entries to a new version of the cache. Records are streamed to a temporary file as
+     * they are added; only the offsets are kept in memory.
+     */
+    public class Writer {
+        private final String mSourceKey;
+        private final String mEtag;
+        private final String mLastModified;
+        private final File mDataFile;
+        private final DataOutputStream mData;
+        private int[] mOffsets = new int[256];
+        private int mCount;
+
+        private Writer(String sourceKey, String etag, String lastModified) throws IOException {
+            mSourceKey = sourceKey;
+            mEtag = etag;
+            mLastModified = lastModified;
+            mFile.getParentFile().mkdirs();
+            mDataFile = new File(mFile.getPath() + ".data");
+            mData = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(mDataFile)));
+        }
+
+        public void add(CastMedia media) throws IOException {
+            if (mCount == mOffsets.length) {
+                mOffsets = Arrays.copyOf(mOffsets, mCount * 2);
+            }
+            mOffsets[mCount++] = mData.size();
+            writeString(media.getTitle());
+            writeString(media.getUrl());
+            writeString(media.getThumbnailUrl());
+            writeString(media.getImageUrl());
+        }
+
+        /**
+         * Writes the header and index and atomically replaces the current cache file.
+         */
+        public void commit() throws IOException {
+            mData.close();
+            File tmpFile = new File(mFile.getPath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(tmpFile);
+            try {
+                DataOutputStream header = new DataOutputStream(new BufferedOutputStream(out));
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                header.writeInt(mCount);
+                header.writeUTF(mSourceKey);
+                header.writeUTF(nullToEmpty(mEtag));
+                header.writeUTF(nullToEmpty(mLastModified));
+                for (int i = 0; i < mCount; i++) {
+                    header.writeInt(mOffsets[i]);
+                }
+                header.flush();
+                FileInputStream data = new FileInputStream(mDataFile);
+                try {
+                    FileChannel source = data.getChannel();
+                    long size = source.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += source.transferTo(position, size - position,
+                                out.getChannel());
+                    }
+                } finally {
+                    data.close();
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+                mDataFile.delete();
+            }
+            if (!tmpFile.renameTo(mFile)) {
+                tmpFile.delete();
+                throw new IOException("Failed to replace " + mFile);
+            }
+        }
+
+        /**
+         * Discards everything written so far and keeps the current cache file.
+         */
+        public void abort() {
+            try {
+                mData.close();
+            } catch (IOException e) {
+                // Nothing to recover; the file is deleted below.
+            }
+            mDataFile.delete();
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                mData.writeInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes("UTF-8");
+            mData.writeInt(bytes.length);
+            mData.write(bytes);
+        }
+    }
+}
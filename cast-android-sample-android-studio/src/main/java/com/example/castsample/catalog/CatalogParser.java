@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.catalog;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.castsample.CastMedia;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * Reads a media catalog incrementally, handing each entry to a Handler as soon as it has been
+ * parsed. The catalog is either a JSON array of entries or an object whose "media" member is
+ * such an array; each entry is an object with "title" and "url" members and optional "thumbnail"
+ * and "image" URLs. Unknown members are skipped, and entries without a URL are ignored.
+ */
+public class CatalogParser {
+
+    /**
+     * Receives parsed entries in catalog order.
+     */
+    public interface Handler {
+        /**
+         * Called for every entry. Returns false to stop parsing early.
+         */
+        boolean onMedia(CastMedia media);
+    }
+
+    /**
+     * Parses the given stream, which is closed afterwards.
+     */
+    public void parse(InputStream in, Handler handler) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("media".equals(reader.nextName())) {
+                        if (!parseArray(reader, handler)) {
+                            return;
+                        }
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                parseArray(reader, handler);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private boolean parseArray(JsonReader reader, Handler handler) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            CastMedia media = parseMedia(reader);
+            if (media != null && !handler.onMedia(media)) {
+                return false;
+            }
+        }
+        reader.endArray();
+        return true;
+    }
+
+    private CastMedia parseMedia(JsonReader reader) throws IOException {
+        String title = null;
+        String url = null;
+        String thumbnailUrl = null;
+        String imageUrl = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if ("title".equals(name)) {
+                title = reader.nextString();
+            } else if ("url".equals(name)) {
+                url = reader.nextString();
+            } else if ("thumbnail".equals(name)) {
+                thumbnailUrl = reader.nextString();
+            } else if ("image".equals(name)) {
+                imageUrl = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (url == null) {
+            return null;
+        }
+        return new CastMedia(title != null ? title : url, url, thumbnailUrl, imageUrl);
+    }
+}
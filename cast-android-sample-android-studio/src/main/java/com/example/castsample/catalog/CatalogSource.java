@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.catalog;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * A location a media catalog can be streamed from: a raw resource, a local file or an HTTP feed.
+ * Sources with the same key describe the same catalog. Files and HTTP feeds report validators,
+ * which let a cached copy be revalidated instead of read again.
+ */
+public abstract class CatalogSource {
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    private final String mKey;
+
+    protected CatalogSource(String key) {
+        mKey = key;
+    }
+
+    /**
+     * Returns a string that identifies this catalog.
+     */
+    public String getKey() {
+        return mKey;
+    }
+
+    /**
+     * Opens a new stream over the catalog's JSON document. Called on a background thread.
+     */
+    public abstract InputStream open() throws IOException;
+
+    /**
+     * Opens the catalog unless it still matches the given validators of a cached copy, either of
+     * which may be null. Called on a background thread. Sources without validators always return
+     * the full document.
+     */
+    public Result open(String etag, String lastModified) throws IOException {
+        return new Result(open(), null, null);
+    }
+
+    /**
+     * The outcome of a conditional open.
+     */
+    public static class Result {
+        private final InputStream mStream;
+        private final String mEtag;
+        private final String mLastModified;
+
+        public Result(InputStream stream, String etag, String lastModified) {
+            mStream = stream;
+            mEtag = etag;
+            mLastModified = lastModified;
+        }
+
+        /**
+         * Returns the catalog document, or null if the cached copy is still current.
+         */
+        public InputStream getStream() {
+            return mStream;
+        }
+
+        public boolean isNotModified() {
+            return mStream == null;
+        }
+
+        public String getEtag() {
+            return mEtag;
+        }
+
+        public String getLastModified() {
+            return mLastModified;
+        }
+
+        /**
+         * Returns whether the document carries validators and may therefore be cached.
+         */
+        public boolean isCacheable() {
+            return mEtag != null || mLastModified != null;
+        }
+    }
+
+    /**
+     * Returns a source for a catalog bundled as a raw resource.
+     */
+    public static CatalogSource fromResource(Context context, final int resId) {
+        final Context appContext = context.getApplicationContext();
+        return new CatalogSource("res:" + resId) {
+            @Override
+            public InputStream open() throws IOException {
+                return appContext.getResources().openRawResource(resId);
+            }
+        };
+    }
+
+    /**
+     * Returns a source for a catalog stored in a local file.
+     */
+    public static CatalogSource fromFile(final File file) {
+        return new CatalogSource(file.toURI().toString()) {
+            @Override
+            public InputStream open() throws IOException {
+                return new BufferedInputStream(new FileInputStream(file));
+            }
+
+            @Override
+            public Result open(String etag, String lastModified) throws IOException {
+                String current = file.length() + "@" + file.lastModified();
+                if (current.equals(lastModified)) {
+                    return new Result(null, null, current);
+                }
+                return new Result(open(), null, current);
+            }
+        };
+    }
+
+    /**
+     * Returns a source for a catalog served over HTTP.
+     */
+    public static CatalogSource fromUrl(final URL url) {
+        return new CatalogSource(url.toString()) {
+            @Override
+            public InputStream open() throws IOException {
+                return open(null, null).getStream();
+            }
+
+            @Override
+            public Result open(String etag, String lastModified) throws IOException {
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+                connection.setReadTimeout(READ_TIMEOUT_MS);
+                if (etag != null) {
+                    connection.setRequestProperty("If-None-Match", etag);
+                }
+                if (lastModified != null) {
+                    connection.setRequestProperty("If-Modified-Since", lastModified);
+                }
+                int code = connection.getResponseCode();
+                if (code == HttpURLConnection.HTTP_NOT_MODIFIED
+                        && (etag != null || lastModified != null)) {
+                    connection.disconnect();
+                    return new Result(null, etag, lastModified);
+                }
+                if (code != HttpURLConnection.HTTP_OK) {
+                    connection.disconnect();
+                    throw new IOException("Catalog request failed with HTTP " + code);
+                }
+                return new Result(new BufferedInputStream(connection.getInputStream()),
+                        connection.getHeaderField("ETag"),
+                        connection.getHeaderField("Last-Modified"));
+            }
+        };
+    }
+}
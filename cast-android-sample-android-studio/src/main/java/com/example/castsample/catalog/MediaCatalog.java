@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.catalog;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.castsample.CastMedia;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A media catalog that is streamed from a CatalogSource on a background thread and published to
+ * the main thread page by page as entries are parsed, so the first rows can be shown long before
+ * the whole catalog has been read. Catalogs are shared per source; use {@link #get} to obtain one.
+ * Apart from {@link #get}, all methods must be called on the main thread.
+ * <p>
+ * Sources that report validators are also written to a CatalogCache. On the next launch the cached
+ * copy is shown straight from disk and revalidated in the background; only a changed catalog is
+ * read again, and it replaces the cached copy once it has been read completely.
+ * <p>
+ * A TitleIndex over the entries is built in the background for searching, and rebuilt as pages
+ * arrive.
+ */
+public class MediaCatalog {
+
+    private static final String TAG = MediaCatalog.class.getSimpleName();
+
+    /** Size of the first page, kept small so the first rows appear quickly. */
+    private static final int FIRST_PAGE_SIZE = 20;
+    /** Size of all later pages. */
+    private static final int PAGE_SIZE = 500;
+
+    private static final Map<String, MediaCatalog> sCatalogs = new HashMap<String, MediaCatalog>();
+
+    private static final ThreadFactory sBackgroundThreads = new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private static final ExecutorService sLoader =
+            Executors.newSingleThreadExecutor(sBackgroundThreads);
+    /** Builds title indexes, separately from loading so a cached catalog is indexed at once. */
+    private static final ExecutorService sIndexer =
+            Executors.newSingleThreadExecutor(sBackgroundThreads);
+
+    /**
+     * Receives catalog changes on the main thread.
+     */
+    public interface Listener {
+        /**
+         * Called when count entries have been appended at the given position.
+         */
+        void onMediaAdded(MediaCatalog catalog, int position, int count);
+
+        /**
+         * Called when the entries have been replaced as a whole, e.g. by a cached copy.
+         */
+        void onCatalogChanged(MediaCatalog catalog);
+
+        /**
+         * Called once loading has finished. The error is null if the whole catalog was read.
+         */
+        void onLoadFinished(MediaCatalog catalog, IOException error);
+    }
+
+    private final CatalogSource mSource;
+    private final CatalogCache mCache;
+    private final Handler mMainHandler;
+    private final List<CastMedia> mMedia = new ArrayList<CastMedia>();
+    private CatalogCache.Reader mCachedMedia;
+    private final List<Listener> mListeners = new ArrayList<Listener>();
+    private boolean mLoading;
+    private boolean mLoaded;
+    // Incremented whenever the entries are replaced as a whole.
+    private int mGeneration;
+    private TitleIndex mIndex;
+    private boolean mIndexing;
+    private boolean mIndexStale;
+
+    /**
+     * Returns the shared catalog for the given source, creating it if necessary. The catalog is
+     * not loaded until {@link #load} is called.
+     */
+    public static MediaCatalog get(Context context, CatalogSource source) {
+        synchronized (sCatalogs) {
+            MediaCatalog catalog = sCatalogs.get(source.getKey());
+            if (catalog == null) {
+                File cacheFile = new File(context.getCacheDir(),
+                        "catalogs/" + Integer.toHexString(source.getKey().hashCode()) + ".bin");
+                catalog = new MediaCatalog(source, new CatalogCache(cacheFile));
+                sCatalogs.put(source.getKey(), catalog);
+            }
+            return catalog;
+        }
+    }
+
+    private MediaCatalog(CatalogSource source, CatalogCache cache) {
+        mSource = source;
+        mCache = cache;
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public CatalogSource getSource() {
+        return mSource;
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Returns the number of entries published so far.
+     */
+    public int size() {
+        return mCachedMedia != null ? mCachedMedia.size() : mMedia.size();
+    }
+
+    public CastMedia get(int position) {
+        return mCachedMedia != null ? mCachedMedia.get(position) : mMedia.get(position);
+    }
+
+    /**
+     * Returns the title index over the first {@link TitleIndex#size} entries, or null if the
+     * current entries have not been indexed yet. Entries added since the index was built are not
+     * covered by it.
+     */
+    public TitleIndex getIndex() {
+        return mIndex;
+    }
+
+    public boolean isLoading() {
+        return mLoading;
+    }
+
+    public boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * Starts streaming the catalog unless it is already loading or loaded. After a failed load
+     * this starts over, dropping the entries that had been read.
+     */
+    public void load() {
+        if (mLoading || mLoaded) {
+            return;
+        }
+        mLoading = true;
+        final boolean retry = size() > 0;
+        sLoader.execute(new Runnable() {
+            @Override
+            public void run() {
+                readCatalog(retry);
+            }
+        });
+    }
+
+    /**
+     * Runs on the loader thread. If retry is set, entries published by an earlier, failed load
+     * are replaced rather than appended to.
+     */
+    private void readCatalog(boolean retry) {
+        String key = mSource.getKey();
+        CatalogCache.Reader cached = null;
+        try {
+            cached = mCache.open(key);
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable catalog cache " + mCache.getFile(), e);
+            mCache.delete();
+        }
+        if (cached != null) {
+            publishReplacement(cached);
+        } else if (retry) {
+            publishReplacement(null);
+        }
+
+        CatalogCache.Writer writer = null;
+        IOException error = null;
+        try {
+            CatalogSource.Result result = cached != null
+                    ? mSource.open(cached.getEtag(), cached.getLastModified())
+                    : mSource.open(null, null);
+            if (!result.isNotModified()) {
+                if (result.isCacheable()) {
+                    writer = mCache.newWriter(key, result.getEtag(), result.getLastModified());
+                } else if (cached != null) {
+                    // The cached copy can no longer be revalidated; show the source instead.
+                    cached = null;
+                    publishReplacement(null);
+                }
+                // While a cached copy is shown, the new version is only swapped in once complete.
+                PageBuilder pages = new PageBuilder(cached == null, writer);
+                new CatalogParser().parse(result.getStream(), pages);
+                pages.flush();
+                if (writer != null && pages.isCacheComplete()) {
+                    writer.commit();
+                    writer = null;
+                    publishReplacement(mCache.open(key));
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read catalog " + key, e);
+            error = e;
+        } catch (RuntimeException e) {
+            // JsonReader reports malformed documents as runtime exceptions.
+            Log.e(TAG, "Malformed catalog " + key, e);
+            error = new IOException(e.toString());
+        } finally {
+            if (writer != null) {
+                writer.abort();
+            }
+        }
+        final IOException loadError = error;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mLoading = false;
+                mLoaded = loadError == null;
+                updateIndex();
+                for (Listener listener : new ArrayList<Listener>(mListeners)) {
+                    listener.onLoadFinished(MediaCatalog.this, loadError);
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces all published entries with those of the given cache reader, or with nothing if it
+     * is null.
+     */
+    private void publishReplacement(final CatalogCache.Reader reader) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCachedMedia = reader;
+                mMedia.clear();
+                mGeneration++;
+                mIndex = null;
+                updateIndex();
+                for (Listener listener : new ArrayList<Listener>(mListeners)) {
+                    listener.onCatalogChanged(MediaCatalog.this);
+                }
+            }
+        });
+    }
+
+    /**
+     * Rebuilds the title index on the indexer thread unless it covers all entries already. Only
+     * one build runs at a time; changes made during a build cause another one afterwards.
+     */
+    private void updateIndex() {
+        if (mIndexing) {
+            mIndexStale = true;
+            return;
+        }
+        if (size() == 0 || (mIndex != null && mIndex.size() == size())) {
+            return;
+        }
+        mIndexing = true;
+        final int generation = mGeneration;
+        final List<String> titles = snapshotTitles();
+        sIndexer.execute(new Runnable() {
+            @Override
+            public void run() {
+                final TitleIndex index = TitleIndex.build(titles);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mIndexing = false;
+                        if (generation == mGeneration) {
+                            mIndex = index;
+                        }
+                        if (mIndexStale) {
+                            mIndexStale = false;
+                            updateIndex();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns the titles of the entries published so far, as a list that may be read from any
+     * thread.
+     */
+    private List<String> snapshotTitles() {
+        if (mCachedMedia != null) {
+            final CatalogCache.Reader reader = mCachedMedia;
+            return new AbstractList<String>() {
+                @Override
+                public String get(int position) {
+                    return reader.getTitle(position);
+                }
+
+                @Override
+                public int size() {
+                    return reader.size();
+                }
+            };
+        }
+        final List<CastMedia> media = new ArrayList<CastMedia>(mMedia);
+        return new AbstractList<String>() {
+            @Override
+            public String get(int position) {
+                return media.get(position).getTitle();
+            }
+
+            @Override
+            public int size() {
+                return media.size();
+            }
+        };
+    }
+
+    /**
+     * Collects parsed entries on the loader thread, appends them to a cache writer if there is one
+     * and publishes them to the main thread one page at a time if asked to.
+     */
+    private class PageBuilder implements CatalogParser.Handler {
+        private final boolean mPublish;
+        private final CatalogCache.Writer mWriter;
+        private int mPageSize = FIRST_PAGE_SIZE;
+        private List<CastMedia> mPage = new ArrayList<CastMedia>(FIRST_PAGE_SIZE);
+        private boolean mWriteFailed;
+
+        public PageBuilder(boolean publish, CatalogCache.Writer writer) {
+            mPublish = publish;
+            mWriter = writer;
+        }
+
+        @Override
+        public boolean onMedia(CastMedia media) {
+            if (mWriter != null && !mWriteFailed) {
+                try {
+                    mWriter.add(media);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to write catalog cache", e);
+                    mWriteFailed = true;
+                }
+            }
+            if (!mPublish) {
+                return true;
+            }
+            mPage.add(media);
+            if (mPage.size() >= mPageSize) {
+                flush();
+                mPageSize = PAGE_SIZE;
+            }
+            return true;
+        }
+
+        /**
+         * Returns whether every entry has been added to the cache writer.
+         */
+        public boolean isCacheComplete() {
+            return !mWriteFailed;
+        }
+
+        public void flush() {
+            if (mPage.isEmpty()) {
+                return;
+            }
+            final List<CastMedia> page = mPage;
+            mPage = new ArrayList<CastMedia>(PAGE_SIZE);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    int position = mMedia.size();
+                    mMedia.addAll(page);
+                    // Keeps the index close behind the stream, so searches scan few entries.
+                    updateIndex();
+                    for (Listener listener : new ArrayList<Listener>(mListeners)) {
+                        listener.onMediaAdded(MediaCatalog.this, position, page.size());
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.catalog;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An immutable word-prefix index over the titles of the first {@link #size} catalog entries.
+ * A query matches a title if every word of the query is a prefix of some word of the title,
+ * ignoring case and punctuation, so "tea st" finds "Tears of Steel".
+ * <p>
+ * The index holds the sorted distinct words of all titles, each with the ascending positions of
+ * the titles containing it. A query word selects a contiguous range of words by binary search, so
+ * a lookup costs time proportional to the number of hits rather than the number of titles. Build
+ * the index off the main thread; lookups are cheap enough for every keystroke.
+ */
+public class TitleIndex {
+
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final int mSize;
+    private final String[] mWords;
+    private final int[] mWordStart;
+    private final int[] mPostings;
+
+    private TitleIndex(int size, String[] words, int[] wordStart, int[] postings) {
+        mSize = size;
+        mWords = words;
+        mWordStart = wordStart;
+        mPostings = postings;
+    }
+
+    /**
+     * Builds an index over the given titles. This may take a while for large catalogs.
+     */
+    public static TitleIndex build(List<String> titles) {
+        int count = titles.size();
+        Map<String, Postings> postingsByWord = new HashMap<String, Postings>();
+        int total = 0;
+        for (int position = 0; position < count; position++) {
+            String title = normalize(titles.get(position));
+            if (title.length() == 0) {
+                continue;
+            }
+            for (String word : title.split(" ")) {
+                Postings postings = postingsByWord.get(word);
+                if (postings == null) {
+                    postings = new Postings();
+                    postingsByWord.put(word, postings);
+                }
+                if (postings.add(position)) {
+                    total++;
+                }
+            }
+        }
+
+        String[] words = postingsByWord.keySet().toArray(new String[postingsByWord.size()]);
+        Arrays.sort(words);
+        int[] wordStart = new int[words.length + 1];
+        int[] allPostings = new int[total];
+        int offset = 0;
+        for (int i = 0; i < words.length; i++) {
+            Postings postings = postingsByWord.get(words[i]);
+            wordStart[i] = offset;
+            System.arraycopy(postings.mPositions, 0, allPostings, offset, postings.mCount);
+            offset += postings.mCount;
+        }
+        wordStart[words.length] = offset;
+        return new TitleIndex(count, words, wordStart, allPostings);
+    }
+
+    /**
+     * Returns the number of titles covered by this index.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the ascending positions of all indexed titles matching the given query, which must
+     * have been passed through {@link #normalize} and must not be empty.
+     */
+    public int[] search(String query) {
+        BitSet result = null;
+        for (String token : query.split(" ")) {
+            BitSet hits = findWordPrefix(token);
+            if (result == null) {
+                result = hits;
+            } else {
+                result.and(hits);
+            }
+            if (result.isEmpty()) {
+                return NO_POSITIONS;
+            }
+        }
+        int[] positions = new int[result.cardinality()];
+        int count = 0;
+        for (int p = result.nextSetBit(0); p >= 0; p = result.nextSetBit(p + 1)) {
+            positions[count++] = p;
+        }
+        return positions;
+    }
+
+    /**
+     * Narrows the matches of the previous normalized query to those of the given one. Words equal
+     * to the word at the same place in the previous query are already satisfied, so only the
+     * others are looked up; a paste may have changed or added several. The first count positions
+     * of the given array are filtered in place, and the new count is returned. Positions beyond
+     * the index are left to the caller and must not be passed in.
+     */
+    public int refine(int[] positions, int count, String previous, String query) {
+        String[] previousWords = previous.split(" ");
+        String[] words = query.split(" ");
+        BitSet hits = null;
+        for (int i = 0; i < words.length; i++) {
+            if (i < previousWords.length && words[i].equals(previousWords[i])) {
+                continue;
+            }
+            BitSet wordHits = findWordPrefix(words[i]);
+            if (hits == null) {
+                hits = wordHits;
+            } else {
+                hits.and(wordHits);
+            }
+        }
+        if (hits == null) {
+            return count;
+        }
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (hits.get(positions[i])) {
+                positions[kept++] = positions[i];
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Returns the positions of all titles having a word that starts with the given prefix.
+     */
+    private BitSet findWordPrefix(String prefix) {
+        BitSet hits = new BitSet(mSize);
+        for (int i = lowerBound(prefix); i < mWords.length && mWords[i].startsWith(prefix); i++) {
+            for (int p = mWordStart[i]; p < mWordStart[i + 1]; p++) {
+                hits.set(mPostings[p]);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Returns whether the given normalized title matches the given normalized query.
+     */
+    public static boolean matches(String title, String query) {
+        int start = 0;
+        int length = query.length();
+        while (start < length) {
+            int end = query.indexOf(' ', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (!hasWordWithPrefix(title, query, start, end - start)) {
+                return false;
+            }
+            start = end + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Lower-cases the given text and reduces it to its words separated by single spaces. Letters
+     * and digits form words; everything else separates them.
+     */
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        StringBuilder builder = new StringBuilder(lower.length());
+        boolean separator = false;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (separator && builder.length() > 0) {
+                    builder.append(' ');
+                }
+                separator = false;
+                builder.append(c);
+            } else {
+                separator = true;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static boolean hasWordWithPrefix(String title, String query, int offset, int length) {
+        int wordStart = 0;
+        while (wordStart >= 0) {
+            if (title.regionMatches(wordStart, query, offset, length)) {
+                return true;
+            }
+            wordStart = title.indexOf(' ', wordStart);
+            if (wordStart >= 0) {
+                wordStart++;
+            }
+        }
+        return false;
+    }
+
+    private int lowerBound(String token) {
+        int low = 0;
+        int high = mWords.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mWords[mid].compareTo(token) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The ascending positions of the titles containing one word.
+     */
+    private static class Postings {
+        private int[] mPositions = new int[2];
+        private int mCount;
+
+        /**
+         * Appends the given position unless it was the last one added. Returns whether it was
+         * appended.
+         */
+        public boolean add(int position) {
+            if (mCount > 0 && mPositions[mCount - 1] == position) {
+                return false;
+            }
+            if (mCount == mPositions.length) {
+                mPositions = Arrays.copyOf(mPositions, mCount * 2);
+            }
+            mPositions[mCount++] = position;
+            return true;
+        }
+    }
+}
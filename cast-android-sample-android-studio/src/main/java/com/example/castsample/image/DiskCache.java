@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.image;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A size-bounded directory of downloaded files. Entries are named after the SHA-1 of their key, and
+ * when the directory grows past its limit the least recently used files are deleted, using the
+ * file modification time as the access time. Safe to use from several threads.
+ */
+public class DiskCache {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    private long mSize = -1;
+
+    /**
+     * Creates a cache in the given directory that holds at most maxBytes.
+     */
+    public DiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the file cached for the given key, or null if there is none.
+     */
+    public File get(String key) {
+        File file = fileFor(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Copies the given stream into the cache under the given key and returns the cached file. The
+     * stream is not closed.
+     */
+    public File put(String key, InputStream in) throws IOException {
+        mDirectory.mkdirs();
+        File file = fileFor(key);
+        File tmpFile = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        long length = 0;
+        OutputStream out = new FileOutputStream(tmpFile);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                length += read;
+            }
+        } catch (IOException e) {
+            out.close();
+            tmpFile.delete();
+            throw e;
+        }
+        out.close();
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            throw new IOException("Failed to store " + file);
+        }
+        added(length);
+        return file;
+    }
+
+    /**
+     * Returns the file of the given key, named by a hash wide enough that two keys never share
+     * a file in practice.
+     */
+    private File fileFor(String key) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        char[] name = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            name[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            name[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new File(mDirectory, new String(name));
+    }
+
+    private synchronized void added(long length) {
+        if (mSize < 0) {
+            mSize = 0;
+            File[] files = mDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    mSize += file.length();
+                }
+            }
+        } else {
+            mSize += length;
+        }
+        if (mSize > mMaxBytes) {
+            trim();
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the cache is at three quarters of its limit.
+     */
+    private void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long diff = lastModified[a] - lastModified[b];
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        long target = mMaxBytes * 3 / 4;
+        for (int i = 0; i < order.length && mSize > target; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                mSize -= length;
+            }
+        }
+    }
+}
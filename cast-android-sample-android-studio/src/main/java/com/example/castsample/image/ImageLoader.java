@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.image;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads images from URLs into ImageViews off the main thread. Images are downsampled to the
+ * requested size, kept in a bounded in-memory LRU cache and a disk cache, and the pixels of
+ * bitmaps that have left the memory cache and are no longer shown are reused for later decodes.
+ * Binding a view to a new URL cancels its previous request, so recycled list rows never wait for
+ * or show images that scrolled away. Apart from the decoding, everything runs on the main thread.
+ */
+public class ImageLoader {
+
+    private static final String TAG = ImageLoader.class.getSimpleName();
+
+    private static final int THREADS = 3;
+    private static final long DISK_CACHE_BYTES = 20 * 1024 * 1024;
+    /** Fraction of the app's memory class given to the memory cache. */
+    private static final int MEMORY_CACHE_DIVISOR = 8;
+    private static final int MAX_POOLED_BITMAPS = 8;
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 20000;
+
+    private static ImageLoader sInstance;
+
+    private final Handler mMainHandler;
+    private final ExecutorService mExecutor;
+    private final DiskCache mDiskCache;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    // Number of views currently showing each bitmap. Main thread only.
+    private final Map<Bitmap, Integer> mBoundBitmaps = new IdentityHashMap<Bitmap, Integer>();
+    // Memory cache key of every decoded bitmap that has not been handed to the pool. Main thread
+    // only.
+    private final Map<Bitmap, String> mCacheKeys = new IdentityHashMap<Bitmap, String>();
+    // Bitmaps that are neither cached nor shown and whose pixels may be decoded into again.
+    private final List<Bitmap> mReusableBitmaps = new ArrayList<Bitmap>();
+
+    /**
+     * Returns the shared ImageLoader.
+     */
+    public static synchronized ImageLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ImageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ImageLoader(Context context) {
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mExecutor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mDiskCache = new DiskCache(new File(context.getCacheDir(), "images"), DISK_CACHE_BYTES);
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int cacheBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_DIVISOR;
+        mMemoryCache = new LruCache<String, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                    Bitmap newValue) {
+                if (!mBoundBitmaps.containsKey(oldValue)) {
+                    offerReusable(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Shows the image at the given URL in the given view, downsampled to about width by height
+     * pixels. The placeholder is shown until the image is available, and stays if the URL is null
+     * or the image cannot be loaded.
+     */
+    public void load(String url, ImageView view, int width, int height, int placeholderResId) {
+        Request previous = (Request) view.getTag();
+        if (previous != null && previous.matches(url, width, height) && !previous.mCancelled) {
+            return;
+        }
+        cancel(view);
+        if (url == null) {
+            view.setImageResource(placeholderResId);
+            return;
+        }
+        Request request = new Request(url, width, height, view);
+        view.setTag(request);
+        Bitmap bitmap = mMemoryCache.get(request.mKey);
+        if (bitmap != null) {
+            request.show(bitmap);
+            return;
+        }
+        view.setImageResource(placeholderResId);
+        request.mFuture = mExecutor.submit(request);
+    }
+
+    /**
+     * Cancels any pending request for the given view and releases the image it shows.
+     */
+    public void cancel(ImageView view) {
+        Request request = (Request) view.getTag();
+        if (request == null) {
+            return;
+        }
+        view.setTag(null);
+        request.mCancelled = true;
+        if (request.mFuture != null) {
+            request.mFuture.cancel(false);
+        }
+        if (request.mShown != null) {
+            release(request.mShown);
+            request.mShown = null;
+        }
+    }
+
+    private void bind(Bitmap bitmap) {
+        Integer count = mBoundBitmaps.get(bitmap);
+        mBoundBitmaps.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    private void release(Bitmap bitmap) {
+        Integer count = mBoundBitmaps.get(bitmap);
+        if (count == null || count <= 1) {
+            mBoundBitmaps.remove(bitmap);
+            if (mMemoryCache.get(keyOf(bitmap)) != bitmap) {
+                offerReusable(bitmap);
+            }
+        } else {
+            mBoundBitmaps.put(bitmap, count - 1);
+        }
+    }
+
+    private String keyOf(Bitmap bitmap) {
+        String key = mCacheKeys.get(bitmap);
+        return key != null ? key : "";
+    }
+
+    private void offerReusable(Bitmap bitmap) {
+        mCacheKeys.remove(bitmap);
+        if (!bitmap.isMutable()) {
+            return;
+        }
+        synchronized (mReusableBitmaps) {
+            if (mReusableBitmaps.size() < MAX_POOLED_BITMAPS) {
+                mReusableBitmaps.add(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Removes and returns a pooled bitmap whose pixels can hold the decode described by the
+     * given options, or null. Called on a loader thread.
+     */
+    private Bitmap takeReusable(BitmapFactory.Options options) {
+        int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+        int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+        synchronized (mReusableBitmaps) {
+            for (int i = 0; i < mReusableBitmaps.size(); i++) {
+                Bitmap candidate = mReusableBitmaps.get(i);
+                boolean fits;
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    fits = candidate.getAllocationByteCount() >= width * height * 4;
+                } else {
+                    // Before KitKat, reuse requires identical dimensions and no subsampling.
+                    fits = options.inSampleSize == 1 && candidate.getWidth() == width
+                            && candidate.getHeight() == height;
+                }
+                if (fits) {
+                    return mReusableBitmaps.remove(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes the given file at the largest power-of-two subsampling that still covers the
+     * requested size. Called on a loader thread.
+     */
+    private Bitmap decode(File file, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width
+                && options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inBitmap = takeReusable(options);
+        try {
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap did not fit after all; decode into fresh memory.
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+    }
+
+    private File download(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Image request failed with HTTP " + code);
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                return mDiskCache.put(url, in);
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * A request to show one image in one view. Runs on a loader thread and delivers its result to
+     * the main thread.
+     */
+    private class Request implements Runnable {
+        private final String mUrl;
+        private final int mWidth;
+        private final int mHeight;
+        private final String mKey;
+        private final ImageView mView;
+        private volatile boolean mCancelled;
+        private Future<?> mFuture;
+        private Bitmap mShown;
+
+        public Request(String url, int width, int height, ImageView view) {
+            mUrl = url;
+            mWidth = width;
+            mHeight = height;
+            mKey = url + "@" + width + "x" + height;
+            mView = view;
+        }
+
+        public boolean matches(String url, int width, int height) {
+            return mUrl.equals(url) && mWidth == width && mHeight == height;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            Bitmap bitmap = null;
+            try {
+                File file = mDiskCache.get(mUrl);
+                if (file == null) {
+                    file = download(mUrl);
+                }
+                if (!mCancelled) {
+                    bitmap = decode(file, mWidth, mHeight);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to load image " + mUrl, e);
+            }
+            if (bitmap == null) {
+                return;
+            }
+            final Bitmap result = bitmap;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mCacheKeys.put(result, mKey);
+                    mMemoryCache.put(mKey, result);
+                    if (!mCancelled && mView.getTag() == Request.this) {
+                        show(result);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Shows the given bitmap in this request's view. Main thread only.
+         */
+        public void show(Bitmap bitmap) {
+            mShown = bitmap;
+            bind(bitmap);
+            mView.setImageBitmap(bitmap);
+        }
+    }
+}
@@ -24,24 +24,24 @@ import android.view.View;
 import android.widget.Button;
 
 import com.example.castsample.CastSampleActivity;
+import com.example.castsample.CastSessionService;
 import com.example.castsample.R;
 
 
 /**
  * A sample class which demonstrates handling of basic playback controls. Note that this dialog
- * must be created within a CastSampleActivity.
+ * must be created within a CastSampleActivity, whose session service it controls.
  */
 public class SampleMediaRouteControllerDialog extends MediaRouteControllerDialog
         implements View.OnClickListener {
 
     private static final String TAG = SampleMediaRouteControllerDialog.class.getSimpleName();
-    private static final int SEEK_FORWARD = 1;
-    private static final int SEEK_BACK = 2;
 
     private CastSampleActivity mActivity;
     private Button mBackButton;
     private Button mMuteButton;
     private Button mForwardButton;
+    private Button mAddScreenButton;
 
     /**
      * Creates a new SampleMediaRouteControllerDialog in the given context.
@@ -64,6 +64,8 @@ public class SampleMediaRouteControllerDialog extends MediaRouteControllerDialog
         mMuteButton.setOnClickListener(this);
         mForwardButton = (Button) controls.findViewById(R.id.skip_forward_button);
         mForwardButton.setOnClickListener(this);
+        mAddScreenButton = (Button) controls.findViewById(R.id.add_screen_button);
+        mAddScreenButton.setOnClickListener(this);
 
         mActivity = (CastSampleActivity) getOwnerActivity();
         return controls;
@@ -71,19 +73,28 @@ public class SampleMediaRouteControllerDialog extends MediaRouteControllerDialog
 
     /**
      * Receives click events on this dialog's playback buttons, and depending on the button clicked,
-     * calls the parent CastSampleActivity's onSeekClicked or onMuteClicked functions.
+     * seeks or mutes through the session service of the parent CastSampleActivity, or lets the
+     * user pick a further screen.
      */
     @Override
     public void onClick(View view) {
+        CastSessionService service = mActivity.getSessionService();
+        if (service == null) {
+            return;
+        }
         switch (view.getId()) {
             case R.id.skip_back_button:
-                mActivity.onSeekClicked(SEEK_BACK);
+                service.seek(CastSessionService.SEEK_BACK);
                 break;
             case R.id.mute_button:
-                mActivity.onMuteClicked();
+                service.toggleMute();
                 break;
             case R.id.skip_forward_button:
-                mActivity.onSeekClicked(SEEK_FORWARD);
+                service.seek(CastSessionService.SEEK_FORWARD);
+                break;
+            case R.id.add_screen_button:
+                dismiss();
+                mActivity.addScreen();
                 break;
         }
     }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.metrics;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide latency histograms of media protocol commands, one per device and command type.
+ * Latency is measured from sending a command to the receiver completing or cancelling it.
+ */
+public class CommandStats {
+
+    private static final CommandStats sInstance = new CommandStats();
+
+    /**
+     * The histogram of one command type on one device.
+     */
+    public static class Entry {
+        private final String mDevice;
+        private final String mType;
+        private final LatencyHistogram mHistogram = new LatencyHistogram();
+
+        Entry(String device, String type) {
+            mDevice = device;
+            mType = type;
+        }
+
+        public String getDevice() {
+            return mDevice;
+        }
+
+        public String getType() {
+            return mType;
+        }
+
+        public LatencyHistogram getHistogram() {
+            return mHistogram;
+        }
+    }
+
+    private final ConcurrentMap<String, Entry> mEntries = new ConcurrentHashMap<String, Entry>();
+
+    public static CommandStats getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Returns the entry for the given device and command type, creating it if needed.
+     */
+    public Entry getEntry(String device, String type) {
+        String key = device + '\n' + type;
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            Entry created = new Entry(device, type);
+            entry = mEntries.putIfAbsent(key, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Records the outcome of a command that was sent at startNanos, as given by
+     * {@link System#nanoTime()}.
+     */
+    public void record(Entry entry, long startNanos, boolean success) {
+        if (success) {
+            entry.mHistogram.record((System.nanoTime() - startNanos) / 1000);
+        } else {
+            entry.mHistogram.recordError();
+        }
+    }
+
+    /**
+     * Returns all entries sorted by device and command type.
+     */
+    public List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<Entry>(mEntries.values());
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry lhs, Entry rhs) {
+                int result = lhs.mDevice.compareTo(rhs.mDevice);
+                return result != 0 ? result : lhs.mType.compareTo(rhs.mType);
+            }
+        });
+        return entries;
+    }
+
+    public void reset() {
+        for (Entry entry : mEntries.values()) {
+            entry.mHistogram.reset();
+        }
+    }
+
+    /**
+     * Writes one tab-separated line per entry, in milliseconds, preceded by a header line.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("device\tcommand\tcount\terrors\tmean_ms\tp50_ms\tp99_ms\tmax_ms");
+        for (Entry entry : getEntries()) {
+            LatencyHistogram histogram = entry.mHistogram;
+            writer.println(String.format(Locale.ROOT, "%s\t%s\t%d\t%d\t%.1f\t%.1f\t%.1f\t%.1f",
+                    entry.mDevice, entry.mType, histogram.getCount(), histogram.getErrorCount(),
+                    histogram.getMeanMicros() / 1000.0,
+                    histogram.getPercentileMicros(0.5) / 1000.0,
+                    histogram.getPercentileMicros(0.99) / 1000.0,
+                    histogram.getMaxMicros() / 1000.0));
+        }
+    }
+
+    /**
+     * Returns a compact multi-line summary for an on-screen overlay.
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        String device = null;
+        for (Entry entry : getEntries()) {
+            LatencyHistogram histogram = entry.mHistogram;
+            if (!entry.mDevice.equals(device)) {
+                device = entry.mDevice;
+                summary.append(device).append('\n');
+            }
+            summary.append(String.format(Locale.ROOT, "  %-13s n=%d p50=%d p99=%d max=%d",
+                    entry.mType, histogram.getCount(),
+                    histogram.getPercentileMicros(0.5) / 1000,
+                    histogram.getPercentileMicros(0.99) / 1000,
+                    histogram.getMaxMicros() / 1000));
+            if (histogram.getErrorCount() > 0) {
+                summary.append(" err=").append(histogram.getErrorCount());
+            }
+            summary.append('\n');
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.metrics;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Traces the time from choosing a Cast device to the receiver reporting playback, as a sequence
+ * of back-to-back spans plus any work that overlapped them. When the trace finishes, the total and
+ * each span are recorded in CommandStats under "ttp" and "ttp.<span>", so they show up next to
+ * the command latencies. Main thread only.
+ */
+public class PlaybackTrace {
+
+    private static final String TAG = PlaybackTrace.class.getSimpleName();
+
+    /** The CommandStats type under which the total time to playback is recorded. */
+    public static final String TYPE_TIME_TO_PLAYBACK = "ttp";
+
+    private final List<String> mSpans = new ArrayList<String>();
+    private final List<Long> mSpanNanos = new ArrayList<Long>();
+    private final List<String> mOverlapped = new ArrayList<String>();
+    private final List<Long> mOverlappedNanos = new ArrayList<Long>();
+    private boolean mActive;
+    private long mStartNanos;
+    private long mLastMarkNanos;
+    private String mLastSummary;
+
+    /**
+     * Starts a new trace, abandoning any trace in progress.
+     */
+    public void start() {
+        mSpans.clear();
+        mSpanNanos.clear();
+        mOverlapped.clear();
+        mOverlappedNanos.clear();
+        mStartNanos = System.nanoTime();
+        mLastMarkNanos = mStartNanos;
+        mActive = true;
+    }
+
+    public boolean isActive() {
+        return mActive;
+    }
+
+    /**
+     * Ends the span with the given name now; it began when the previous span ended.
+     */
+    public void mark(String span) {
+        if (!mActive) {
+            return;
+        }
+        long now = System.nanoTime();
+        mSpans.add(span);
+        mSpanNanos.add(now - mLastMarkNanos);
+        mLastMarkNanos = now;
+    }
+
+    /**
+     * Records work that ran alongside the spans and so did not add to the total.
+     */
+    public void addOverlapped(String span, long durationNanos) {
+        if (!mActive) {
+            return;
+        }
+        mOverlapped.add(span);
+        mOverlappedNanos.add(durationNanos);
+    }
+
+    /**
+     * Ends the last span and the trace, and records it for the given device.
+     */
+    public void finish(String span, String device) {
+        if (!mActive) {
+            return;
+        }
+        mark(span);
+        mActive = false;
+        CommandStats stats = CommandStats.getInstance();
+        long totalNanos = mLastMarkNanos - mStartNanos;
+        stats.getEntry(device, TYPE_TIME_TO_PLAYBACK).getHistogram().record(totalNanos / 1000);
+        StringBuilder summary = new StringBuilder();
+        summary.append("Time to playback on ").append(device).append(": ")
+                .append(totalNanos / 1000000).append(" ms (");
+        for (int i = 0; i < mSpans.size(); i++) {
+            long nanos = mSpanNanos.get(i);
+            stats.getEntry(device, TYPE_TIME_TO_PLAYBACK + "." + mSpans.get(i)).getHistogram()
+                    .record(nanos / 1000);
+            if (i > 0) {
+                summary.append(", ");
+            }
+            summary.append(mSpans.get(i)).append(' ').append(nanos / 1000000);
+        }
+        summary.append(')');
+        for (int i = 0; i < mOverlapped.size(); i++) {
+            summary.append(i == 0 ? "; overlapped: " : ", ").append(mOverlapped.get(i))
+                    .append(' ').append(mOverlappedNanos.get(i) / 1000000);
+        }
+        mLastSummary = summary.toString();
+        Log.i(TAG, mLastSummary);
+    }
+
+    /**
+     * Abandons the trace in progress, e.g. when the session failed to start.
+     */
+    public void cancel() {
+        mActive = false;
+    }
+
+    /**
+     * Returns the breakdown of the last finished trace, or null.
+     */
+    public String getLastSummary() {
+        return mLastSummary;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.metrics;
+
+import android.app.Activity;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Records the order and duration of the initialization steps of an activity, and when its first
+ * frame was drawn and its Cast button became visible, all relative to the start of onCreate. The
+ * trace is complete once the deferred steps have run after the first frame. Main thread only.
+ */
+public class StartupTrace {
+
+    private static final String TAG = StartupTrace.class.getSimpleName();
+
+    /**
+     * Receives every completed trace, e.g. to benchmark repeated starts.
+     */
+    public interface Listener {
+        void onStartupTraced(Activity activity, StartupTrace trace);
+    }
+
+    private static Listener sListener;
+
+    private final long mStartNanos = System.nanoTime();
+    private final List<String> mSteps = new ArrayList<String>();
+    private final List<Long> mStepEndNanos = new ArrayList<Long>();
+    private final List<Long> mStepNanos = new ArrayList<Long>();
+    private long mFirstDrawNanos = -1;
+    private long mCastButtonNanos = -1;
+    private boolean mCastButtonShown;
+    private boolean mCompleted;
+
+    /**
+     * Sets the listener for traces completed from now on, or null.
+     */
+    public static void setListener(Listener listener) {
+        sListener = listener;
+    }
+
+    /**
+     * Records that the named step, which began at stepStartNanos as given by
+     * {@link System#nanoTime()}, has just ended.
+     */
+    public void step(String name, long stepStartNanos) {
+        long end = System.nanoTime();
+        mSteps.add(name);
+        mStepEndNanos.add(end - mStartNanos);
+        mStepNanos.add(end - stepStartNanos);
+    }
+
+    /**
+     * Records that the first frame has been drawn.
+     */
+    public void onFirstDraw() {
+        if (mFirstDrawNanos < 0) {
+            mFirstDrawNanos = System.nanoTime() - mStartNanos;
+            if (mCastButtonShown) {
+                mCastButtonNanos = mFirstDrawNanos;
+            }
+        }
+    }
+
+    /**
+     * Records that the Cast button has been made visible. It is on screen with the next frame.
+     */
+    public void onCastButtonShown() {
+        if (mCastButtonShown) {
+            return;
+        }
+        mCastButtonShown = true;
+        if (mFirstDrawNanos >= 0) {
+            mCastButtonNanos = System.nanoTime() - mStartNanos;
+        }
+    }
+
+    /**
+     * Ends the trace after the deferred steps, logs it and hands it to the listener.
+     */
+    public void complete(Activity activity) {
+        if (mCompleted) {
+            return;
+        }
+        mCompleted = true;
+        Log.i(TAG, getSummary());
+        Listener listener = sListener;
+        if (listener != null) {
+            listener.onStartupTraced(activity, this);
+        }
+    }
+
+    /**
+     * Returns the nanoseconds from onCreate to the first frame, or -1.
+     */
+    public long getFirstDrawNanos() {
+        return mFirstDrawNanos;
+    }
+
+    /**
+     * Returns the nanoseconds from onCreate to the first frame showing the Cast button, or -1 if
+     * it has not been shown.
+     */
+    public long getCastButtonNanos() {
+        return mCastButtonNanos;
+    }
+
+    /**
+     * Returns the nanoseconds from onCreate to the end of the last step.
+     */
+    public long getCompletedNanos() {
+        return mStepEndNanos.isEmpty() ? 0 : mStepEndNanos.get(mStepEndNanos.size() - 1);
+    }
+
+    /**
+     * Returns the steps in the order they ran, each with the time it ended and how long it took.
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder("Startup:");
+        for (int i = 0; i < mSteps.size(); i++) {
+            summary.append(String.format(Locale.ROOT, "\n  %8.1f ms  %-16s %6.1f ms",
+                    mStepEndNanos.get(i) / 1e6, mSteps.get(i), mStepNanos.get(i) / 1e6));
+        }
+        summary.append(String.format(Locale.ROOT, "\n  first draw %.1f ms",
+                mFirstDrawNanos / 1e6));
+        if (mCastButtonNanos >= 0) {
+            summary.append(String.format(Locale.ROOT, ", Cast button %.1f ms",
+                    mCastButtonNanos / 1e6));
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.metrics;
+
+import android.app.Activity;
+import android.content.pm.ApplicationInfo;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.util.TypedValue;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+/**
+ * Shows the CommandStats summary on top of an activity's content in debuggable builds, refreshed
+ * once a second while started. Tapping the overlay collapses it. In release builds it does
+ * nothing.
+ */
+public class StatsOverlay {
+
+    private static final long REFRESH_INTERVAL_MS = 1000;
+
+    private final TextView mText;
+    private boolean mExpanded = true;
+    private boolean mStarted;
+
+    private final Runnable mRefresher = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            if (mStarted) {
+                mText.postDelayed(this, REFRESH_INTERVAL_MS);
+            }
+        }
+    };
+
+    public StatsOverlay(Activity activity) {
+        if ((activity.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+            mText = null;
+            return;
+        }
+        mText = new TextView(activity);
+        mText.setTypeface(Typeface.MONOSPACE);
+        mText.setTextSize(TypedValue.COMPLEX_UNIT_SP, 9);
+        mText.setTextColor(Color.WHITE);
+        mText.setBackgroundColor(0xA0000000);
+        mText.setPadding(6, 4, 6, 4);
+        mText.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                mExpanded = !mExpanded;
+                refresh();
+            }
+        });
+        activity.addContentView(mText, new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT,
+                Gravity.TOP | Gravity.RIGHT));
+    }
+
+    public void start() {
+        if (mText == null || mStarted) {
+            return;
+        }
+        mStarted = true;
+        mRefresher.run();
+    }
+
+    public void stop() {
+        if (mText == null) {
+            return;
+        }
+        mStarted = false;
+        mText.removeCallbacks(mRefresher);
+    }
+
+    private void refresh() {
+        String summary = CommandStats.getInstance().getSummary();
+        if (!mExpanded || summary.length() == 0) {
+            mText.setText("latency");
+        } else {
+            // Drop the trailing newline.
+            mText.setText(summary.substring(0, summary.length() - 1));
+        }
+    }
+}
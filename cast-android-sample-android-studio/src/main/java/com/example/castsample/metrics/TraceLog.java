@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.metrics;
+
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A process-wide trace of the last {@value #CAPACITY} events, kept in preallocated arrays. An
+ * event is an ID from the constants below plus one primitive argument, so recording one neither
+ * allocates nor formats anything and never blocks: writers claim slots with an atomic counter and
+ * publish each slot through its sequence number, and readers skip slots that are being
+ * overwritten. Events are only turned into text when the trace is dumped, e.g. through dumpsys or
+ * to logcat after an error. Tracing can be switched off at runtime, which reduces recording to a
+ * single volatile read.
+ */
+public final class TraceLog {
+
+    private static final String TAG = TraceLog.class.getSimpleName();
+
+    private static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+
+    private static final int ARG_NONE = 0;
+    private static final int ARG_LONG = 1;
+    private static final int ARG_DOUBLE = 2;
+
+    public static final int ACTIVITY_CREATE = 0;
+    public static final int ACTIVITY_START = 1;
+    public static final int ACTIVITY_STOP = 2;
+    public static final int ACTIVITY_DESTROY = 3;
+    public static final int SESSION_RETAIN = 4;
+    public static final int SESSION_RESTORE = 5;
+    public static final int MEDIA_DIALOG_OPEN = 6;
+    public static final int MEDIA_SELECT = 7;
+    public static final int QUEUE_ADVANCE = 8;
+    public static final int DEVICE_AVAILABLE = 9;
+    public static final int SESSION_STILL_RUNNING = 10;
+    public static final int SESSION_OPEN = 11;
+    public static final int SESSION_RESUME = 12;
+    public static final int SESSION_STARTED = 13;
+    public static final int SESSION_END = 14;
+    public static final int STREAM_ATTACH = 15;
+    public static final int REJOIN_REQUEST = 16;
+    public static final int REJOIN_ADOPT = 17;
+    public static final int REJOIN_RELOAD = 18;
+    public static final int LOAD_SEND = 19;
+    public static final int LOAD_COMPLETE = 20;
+    public static final int LOAD_CANCEL = 21;
+    public static final int VOLUME_KEY = 22;
+    public static final int MEDIA_SERVE = 23;
+    private static final int EVENT_COUNT = 24;
+
+    private static final String[] sNames = new String[EVENT_COUNT];
+    private static final int[] sArgKinds = new int[EVENT_COUNT];
+
+    static {
+        define(ACTIVITY_CREATE, "activity.create", ARG_NONE);
+        define(ACTIVITY_START, "activity.start", ARG_NONE);
+        define(ACTIVITY_STOP, "activity.stop", ARG_NONE);
+        define(ACTIVITY_DESTROY, "activity.destroy", ARG_NONE);
+        define(SESSION_RETAIN, "session.retain", ARG_NONE);
+        define(SESSION_RESTORE, "session.restore", ARG_NONE);
+        define(MEDIA_DIALOG_OPEN, "media.dialog", ARG_NONE);
+        define(MEDIA_SELECT, "media.select position=", ARG_LONG);
+        define(QUEUE_ADVANCE, "queue.advance remaining=", ARG_LONG);
+        define(DEVICE_AVAILABLE, "device.available", ARG_NONE);
+        define(SESSION_STILL_RUNNING, "session.running", ARG_NONE);
+        define(SESSION_OPEN, "session.open", ARG_NONE);
+        define(SESSION_RESUME, "session.resume", ARG_NONE);
+        define(SESSION_STARTED, "session.started", ARG_NONE);
+        define(SESSION_END, "session.end", ARG_NONE);
+        define(STREAM_ATTACH, "stream.attach", ARG_NONE);
+        define(REJOIN_REQUEST, "rejoin.request", ARG_NONE);
+        define(REJOIN_ADOPT, "rejoin.adopt", ARG_NONE);
+        define(REJOIN_RELOAD, "rejoin.reload", ARG_NONE);
+        define(LOAD_SEND, "load.send", ARG_NONE);
+        define(LOAD_COMPLETE, "load.complete", ARG_NONE);
+        define(LOAD_CANCEL, "load.cancel", ARG_NONE);
+        define(VOLUME_KEY, "volume.key target=", ARG_DOUBLE);
+        define(MEDIA_SERVE, "media.serve port=", ARG_LONG);
+    }
+
+    private static volatile boolean sEnabled = true;
+    private static final AtomicLong sNextIndex = new AtomicLong();
+    // The index of the event in each slot, or -1 while the slot is being written.
+    private static final AtomicLongArray sSequences = new AtomicLongArray(CAPACITY);
+    private static final long[] sTimes = new long[CAPACITY];
+    private static final int[] sEvents = new int[CAPACITY];
+    private static final long[] sArgs = new long[CAPACITY];
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            sSequences.set(i, -1);
+        }
+    }
+
+    private TraceLog() {
+    }
+
+    private static void define(int event, String name, int argKind) {
+        sNames[event] = name;
+        sArgKinds[event] = argKind;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Turns recording on or off. Events already recorded are kept.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static void event(int event) {
+        if (sEnabled) {
+            write(event, 0);
+        }
+    }
+
+    public static void event(int event, long arg) {
+        if (sEnabled) {
+            write(event, arg);
+        }
+    }
+
+    public static void event(int event, double arg) {
+        if (sEnabled) {
+            write(event, Double.doubleToRawLongBits(arg));
+        }
+    }
+
+    private static void write(int event, long arg) {
+        long index = sNextIndex.getAndIncrement();
+        int slot = (int) index & MASK;
+        sSequences.set(slot, -1);
+        sTimes[slot] = System.nanoTime();
+        sEvents[slot] = event;
+        sArgs[slot] = arg;
+        sSequences.lazySet(slot, index);
+    }
+
+    /**
+     * Writes the recorded events, oldest first, one per line with its time in milliseconds
+     * relative to the newest event.
+     */
+    public static void dump(PrintWriter writer) {
+        dump(writer, null, CAPACITY);
+    }
+
+    /**
+     * Writes the newest events to logcat as warnings, e.g. right after an error.
+     */
+    public static void dumpToLog(String reason, int maxEvents) {
+        Log.w(TAG, "Last events before: " + reason);
+        dump(null, TAG, maxEvents);
+    }
+
+    private static void dump(PrintWriter writer, String tag, int maxEvents) {
+        long end = sNextIndex.get();
+        long start = Math.max(0, end - Math.min(maxEvents, CAPACITY));
+        long endNanos = System.nanoTime();
+        for (long index = start; index < end; index++) {
+            int slot = (int) index & MASK;
+            if (sSequences.get(slot) != index) {
+                continue;
+            }
+            long nanos = sTimes[slot];
+            int event = sEvents[slot];
+            long arg = sArgs[slot];
+            if (sSequences.get(slot) != index || event < 0 || event >= EVENT_COUNT) {
+                // Overwritten while it was read.
+                continue;
+            }
+            String line = format(nanos - endNanos, event, arg);
+            if (writer != null) {
+                writer.println(line);
+            } else {
+                Log.w(tag, line);
+            }
+        }
+    }
+
+    private static String format(long relativeNanos, int event, long arg) {
+        String time = String.format(Locale.ROOT, "%10.3f ", relativeNanos / 1e6);
+        switch (sArgKinds[event]) {
+            case ARG_LONG:
+                return time + sNames[event] + arg;
+            case ARG_DOUBLE:
+                return time + sNames[event]
+                        + String.format(Locale.ROOT, "%.3f", Double.longBitsToDouble(arg));
+            default:
+                return time + sNames[event];
+        }
+    }
+}
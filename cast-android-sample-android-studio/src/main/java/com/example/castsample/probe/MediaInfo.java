@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.probe;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+
+/**
+ * What a probe found out about a media file. Fields that could not be determined are 0 or null.
+ * Instances are immutable.
+ */
+public class MediaInfo {
+
+    private static final String KEY_CONTAINER = "container";
+    private static final String KEY_DURATION = "duration";
+    private static final String KEY_WIDTH = "width";
+    private static final String KEY_HEIGHT = "height";
+    private static final String KEY_BITRATE = "bitrate";
+    private static final String KEY_VIDEO_CODEC = "video_codec";
+    private static final String KEY_AUDIO_CODEC = "audio_codec";
+
+    private final String mContainer;
+    private final double mDuration;
+    private final int mWidth;
+    private final int mHeight;
+    private final long mBitrate;
+    private final String mVideoCodec;
+    private final String mAudioCodec;
+
+    public MediaInfo(String container, double duration, int width, int height, long bitrate,
+            String videoCodec, String audioCodec) {
+        mContainer = container;
+        mDuration = duration;
+        mWidth = width;
+        mHeight = height;
+        mBitrate = bitrate;
+        mVideoCodec = videoCodec;
+        mAudioCodec = audioCodec;
+    }
+
+    /**
+     * Returns "mp4" or "mp3".
+     */
+    public String getContainer() {
+        return mContainer;
+    }
+
+    /**
+     * Returns the duration in seconds.
+     */
+    public double getDuration() {
+        return mDuration;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the average bitrate in bits per second.
+     */
+    public long getBitrate() {
+        return mBitrate;
+    }
+
+    /**
+     * Returns the video codec as an RFC 6381 codecs string, such as "avc1.64001F".
+     */
+    public String getVideoCodec() {
+        return mVideoCodec;
+    }
+
+    /**
+     * Returns the audio codec as an RFC 6381 codecs string, such as "mp4a.40.2", or "mp3".
+     */
+    public String getAudioCodec() {
+        return mAudioCodec;
+    }
+
+    /**
+     * Returns a short description for lists, such as "9:56 \u00b7 1280\u00d7720" for a video.
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        if (mDuration > 0) {
+            long seconds = Math.round(mDuration);
+            if (seconds >= 3600) {
+                summary.append(seconds / 3600).append(':')
+                        .append(String.format(Locale.ROOT, "%02d", seconds / 60 % 60));
+            } else {
+                summary.append(seconds / 60);
+            }
+            summary.append(':').append(String.format(Locale.ROOT, "%02d", seconds % 60));
+        }
+        if (mWidth > 0 && mHeight > 0) {
+            if (summary.length() > 0) {
+                summary.append(" \u00b7 ");
+            }
+            summary.append(mWidth).append("\u00d7").append(mHeight);
+        } else if (mBitrate > 0 && mVideoCodec == null) {
+            if (summary.length() > 0) {
+                summary.append(" \u00b7 ");
+            }
+            summary.append(mBitrate / 1000).append(" kbps");
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Returns this info as JSON, suitable for ContentMetadata's content info.
+     */
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put(KEY_CONTAINER, mContainer);
+            if (mDuration > 0) {
+                json.put(KEY_DURATION, mDuration);
+            }
+            if (mWidth > 0 && mHeight > 0) {
+                json.put(KEY_WIDTH, mWidth);
+                json.put(KEY_HEIGHT, mHeight);
+            }
+            if (mBitrate > 0) {
+                json.put(KEY_BITRATE, mBitrate);
+            }
+            json.put(KEY_VIDEO_CODEC, mVideoCodec);
+            json.put(KEY_AUDIO_CODEC, mAudioCodec);
+        } catch (JSONException e) {
+            // Only thrown for non-finite numbers, which are never put.
+            throw new AssertionError(e);
+        }
+        return json;
+    }
+
+    /**
+     * Reads an info written by {@link #toJson}.
+     */
+    public static MediaInfo fromJson(JSONObject json) {
+        return new MediaInfo(json.optString(KEY_CONTAINER, null), json.optDouble(KEY_DURATION, 0),
+                json.optInt(KEY_WIDTH), json.optInt(KEY_HEIGHT), json.optLong(KEY_BITRATE),
+                json.optString(KEY_VIDEO_CODEC, null), json.optString(KEY_AUDIO_CODEC, null));
+    }
+}
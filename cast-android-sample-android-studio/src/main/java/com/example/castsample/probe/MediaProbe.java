@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.probe;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Reads the duration, picture size, bitrate and codecs of MP4 and MP3 files from their headers,
+ * fetching only the byte ranges that hold them.
+ * <p>
+ * For MP4 the top-level boxes are walked by reading just their headers until the "moov" box is
+ * found, wherever it is, and only that box is read; a file with "moov" at the end thus costs one
+ * small read at the start, one per box in between, and one for "moov". For MP3 the ID3v2 tag is
+ * skipped by its declared size and the first frame header is read, along with its Xing, Info or
+ * VBRI header, which give the exact duration of variable bitrate files.
+ */
+public class MediaProbe {
+
+    /** Bytes read from the start of every file; usually enough for "moov" at the front. */
+    private static final int HEAD_BYTES = 64 * 1024;
+    private static final int MAX_MOOV_BYTES = 32 * 1024 * 1024;
+    /** Bytes searched for the first MP3 frame after the ID3 tag. */
+    private static final int MP3_SEARCH_BYTES = 4096;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final String[] TOP_LEVEL_BOXES = {
+            "ftyp", "moov", "mdat", "free", "skip", "wide", "pdin", "styp", "sidx", "uuid",
+    };
+
+    // Bitrates in kbps, indexed by [version is MPEG-1 ? 0 : 1][layer - 1][bitrate index].
+    private static final int[][][] MP3_BITRATES = {
+            {
+                    { 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },
+                    { 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+                    { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 },
+            },
+            {
+                    { 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },
+                    { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 },
+                    { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 },
+            },
+    };
+    private static final int[] MP3_SAMPLE_RATES = { 44100, 48000, 32000 };
+
+    private MediaProbe() {
+    }
+
+    /**
+     * Probes the media behind the given reader. Returns null if it is neither MP4 nor MP3.
+     */
+    public static MediaInfo probe(RangeReader reader) throws IOException {
+        byte[] head = reader.read(0, HEAD_BYTES);
+        if (head.length >= 10 && head[0] == 'I' && head[1] == 'D' && head[2] == '3') {
+            return probeMp3(reader, head);
+        }
+        if (head.length >= 8 && Arrays.asList(TOP_LEVEL_BOXES).contains(fourcc(head, 4))) {
+            return probeMp4(reader, head);
+        }
+        if (findMp3Frame(head, 0) == 0) {
+            return probeMp3(reader, head);
+        }
+        return null;
+    }
+
+    private static MediaInfo probeMp4(RangeReader reader, byte[] head) throws IOException {
+        long length = reader.getLength();
+        long limit = length >= 0 ? length : Long.MAX_VALUE;
+        long offset = 0;
+        while (offset + 8 <= limit) {
+            byte[] header = offset + 16 <= head.length
+                    ? Arrays.copyOfRange(head, (int) offset, (int) offset + 16)
+                    : reader.read(offset, 16);
+            if (header.length < 8) {
+                break;
+            }
+            long size = u32(header, 0);
+            int headerSize = 8;
+            if (size == 1) {
+                if (header.length < 16) {
+                    break;
+                }
+                size = u64(header, 8);
+                headerSize = 16;
+            } else if (size == 0) {
+                // The box extends to the end of the file.
+                if (length < 0) {
+                    break;
+                }
+                size = length - offset;
+            }
+            if (size < headerSize) {
+                throw new IOException("Invalid box size " + size + " at " + offset);
+            }
+            if ("moov".equals(fourcc(header, 4))) {
+                if (size > MAX_MOOV_BYTES) {
+                    throw new IOException("moov box too large: " + size);
+                }
+                byte[] moov = offset + size <= head.length
+                        ? Arrays.copyOfRange(head, (int) offset, (int) (offset + size))
+                        : reader.read(offset, (int) size);
+                Mp4Info info = new Mp4Info();
+                walk(moov, headerSize, moov.length, info);
+                return info.toMediaInfo(length);
+            }
+            offset += size;
+        }
+        return null;
+    }
+
+    /**
+     * What has been found in a "moov" box so far.
+     */
+    private static class Mp4Info {
+        long mTimescale;
+        long mDuration;
+        int mWidth;
+        int mHeight;
+        String mVideoCodec;
+        String mAudioCodec;
+        // The track being walked.
+        String mHandler;
+        int mTrackWidth;
+        int mTrackHeight;
+        String mTrackCodec;
+
+        void endTrack() {
+            if ("vide".equals(mHandler) && mVideoCodec == null) {
+                mVideoCodec = mTrackCodec;
+                mWidth = mTrackWidth;
+                mHeight = mTrackHeight;
+            } else if ("soun".equals(mHandler) && mAudioCodec == null) {
+                mAudioCodec = mTrackCodec;
+            }
+            mHandler = null;
+            mTrackWidth = 0;
+            mTrackHeight = 0;
+            mTrackCodec = null;
+        }
+
+        MediaInfo toMediaInfo(long length) {
+            double duration = mTimescale > 0 ? (double) mDuration / mTimescale : 0;
+            long bitrate = duration > 0 && length > 0 ? (long) (length * 8 / duration) : 0;
+            return new MediaInfo("mp4", duration, mWidth, mHeight, bitrate, mVideoCodec,
+                    mAudioCodec);
+        }
+    }
+
+    /**
+     * Walks the boxes between start and end, descending into the containers on the way to the
+     * sample descriptions.
+     */
+    private static void walk(byte[] data, int start, int end, Mp4Info info) {
+        int position = start;
+        while (position + 8 <= end) {
+            long size = u32(data, position);
+            int headerSize = 8;
+            if (size == 1 && position + 16 <= end) {
+                size = u64(data, position + 8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = end - position;
+            }
+            if (size < headerSize || position + size > end) {
+                return;
+            }
+            String type = fourcc(data, position + 4);
+            int body = position + headerSize;
+            int boxEnd = (int) (position + size);
+            if ("trak".equals(type)) {
+                walk(data, body, boxEnd, info);
+                info.endTrack();
+            } else if ("mdia".equals(type) || "minf".equals(type) || "stbl".equals(type)) {
+                walk(data, body, boxEnd, info);
+            } else if ("mvhd".equals(type)) {
+                parseMvhd(data, body, boxEnd, info);
+            } else if ("tkhd".equals(type)) {
+                parseTkhd(data, body, boxEnd, info);
+            } else if ("hdlr".equals(type) && body + 12 <= boxEnd) {
+                info.mHandler = fourcc(data, body + 8);
+            } else if ("stsd".equals(type)) {
+                parseStsd(data, body, boxEnd, info);
+            }
+            position = boxEnd;
+        }
+    }
+
+    private static void parseMvhd(byte[] data, int body, int end, Mp4Info info) {
+        if (body >= end) {
+            return;
+        }
+        if (data[body] == 1 && body + 32 <= end) {
+            info.mTimescale = u32(data, body + 20);
+            info.mDuration = u64(data, body + 24);
+        } else if (body + 20 <= end) {
+            info.mTimescale = u32(data, body + 12);
+            info.mDuration = u32(data, body + 16);
+        }
+    }
+
+    private static void parseTkhd(byte[] data, int body, int end, Mp4Info info) {
+        if (body >= end) {
+            return;
+        }
+        // Width and height are 16.16 fixed point numbers after the transformation matrix.
+        int dimensions = body + (data[body] == 1 ? 88 : 76);
+        if (dimensions + 8 <= end) {
+            info.mTrackWidth = (int) (u32(data, dimensions) >> 16);
+            info.mTrackHeight = (int) (u32(data, dimensions + 4) >> 16);
+        }
+    }
+
+    private static void parseStsd(byte[] data, int body, int end, Mp4Info info) {
+        int entry = body + 8;
+        if (entry + 8 > end) {
+            return;
+        }
+        int entryEnd = (int) Math.min(end, entry + u32(data, entry));
+        String format = fourcc(data, entry + 4);
+        info.mTrackCodec = format;
+        if ("vide".equals(info.mHandler)) {
+            int children = entry + 8 + 78;
+            if (info.mTrackWidth == 0 && children <= entryEnd) {
+                info.mTrackWidth = u16(data, entry + 32);
+                info.mTrackHeight = u16(data, entry + 34);
+            }
+            int avcC = findChild(data, children, entryEnd, "avcC");
+            if (avcC >= 0 && avcC + 12 <= entryEnd) {
+                info.mTrackCodec = format + "." + String.format(Locale.ROOT, "%02X%02X%02X",
+                        data[avcC + 9] & 0xFF, data[avcC + 10] & 0xFF, data[avcC + 11] & 0xFF);
+            }
+        } else if ("soun".equals(info.mHandler) && "mp4a".equals(format)) {
+            // Sound sample entry versions 1 and 2 carry 16 or 36 more bytes of fields.
+            int version = entry + 16 <= entryEnd ? u16(data, entry + 16) : 0;
+            int children = entry + 8 + 28 + (version == 1 ? 16 : version == 2 ? 36 : 0);
+            int esds = findChild(data, children, entryEnd, "esds");
+            if (esds >= 0) {
+                info.mTrackCodec = parseEsds(data, esds + 12, (int) Math.min(entryEnd,
+                        esds + u32(data, esds)));
+            }
+        }
+    }
+
+    /**
+     * Returns the RFC 6381 codecs string of an MPEG-4 audio track from the ES descriptor starting
+     * at position.
+     */
+    private static String parseEsds(byte[] data, int position, int end) {
+        int[] cursor = { position };
+        if (readDescriptor(data, cursor, end, 0x03) < 0 || cursor[0] + 3 > end) {
+            return "mp4a";
+        }
+        int flags = data[cursor[0] + 2] & 0xFF;
+        cursor[0] += 3;
+        if ((flags & 0x80) != 0) {
+            cursor[0] += 2;
+        }
+        if ((flags & 0x40) != 0 && cursor[0] < end) {
+            cursor[0] += 1 + (data[cursor[0]] & 0xFF);
+        }
+        if ((flags & 0x20) != 0) {
+            cursor[0] += 2;
+        }
+        if (readDescriptor(data, cursor, end, 0x04) < 0 || cursor[0] + 13 > end) {
+            return "mp4a";
+        }
+        int objectType = data[cursor[0]] & 0xFF;
+        String codec = "mp4a." + Integer.toHexString(objectType);
+        cursor[0] += 13;
+        if (objectType != 0x40 || readDescriptor(data, cursor, end, 0x05) < 0
+                || cursor[0] + 2 > end) {
+            return codec;
+        }
+        int audioObjectType = (data[cursor[0]] & 0xFF) >> 3;
+        if (audioObjectType == 31) {
+            audioObjectType = 32 + (((data[cursor[0]] & 0x07) << 3)
+                    | ((data[cursor[0] + 1] & 0xFF) >> 5));
+        }
+        return codec + "." + audioObjectType;
+    }
+
+    /**
+     * Reads the tag and length of a descriptor at the cursor and moves the cursor to its contents.
+     * Returns the length, or -1 if the tag is not the expected one.
+     */
+    private static int readDescriptor(byte[] data, int[] cursor, int end, int tag) {
+        int position = cursor[0];
+        if (position >= end || (data[position] & 0xFF) != tag) {
+            return -1;
+        }
+        position++;
+        int length = 0;
+        for (int i = 0; i < 4 && position < end; i++) {
+            int b = data[position++] & 0xFF;
+            length = (length << 7) | (b & 0x7F);
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        cursor[0] = position;
+        return length;
+    }
+
+    private static int findChild(byte[] data, int start, int end, String type) {
+        int position = start;
+        while (position + 8 <= end) {
+            long size = u32(data, position);
+            if (type.equals(fourcc(data, position + 4))) {
+                return position;
+            }
+            if (size < 8) {
+                return -1;
+            }
+            position += size;
+        }
+        return -1;
+    }
+
+    private static MediaInfo probeMp3(RangeReader reader, byte[] head) throws IOException {
+        long length = reader.getLength();
+        long audioStart = 0;
+        if (head[0] == 'I' && head[1] == 'D' && head[2] == '3') {
+            // The tag size is a 28-bit "syncsafe" integer, excluding the header and footer.
+            audioStart = 10 + (((head[6] & 0x7F) << 21) | ((head[7] & 0x7F) << 14)
+                    | ((head[8] & 0x7F) << 7) | (head[9] & 0x7F));
+            if ((head[5] & 0x10) != 0) {
+                audioStart += 10;
+            }
+        }
+        byte[] data = audioStart + MP3_SEARCH_BYTES <= head.length
+                ? Arrays.copyOfRange(head, (int) audioStart, (int) audioStart + MP3_SEARCH_BYTES)
+                : reader.read(audioStart, MP3_SEARCH_BYTES);
+        int frame = findMp3Frame(data, 0);
+        if (frame < 0) {
+            return null;
+        }
+
+        int version = (data[frame + 1] >> 3) & 0x03;
+        int layer = 4 - ((data[frame + 1] >> 1) & 0x03);
+        boolean mpeg1 = version == 3;
+        int kbps = MP3_BITRATES[mpeg1 ? 0 : 1][layer - 1][(data[frame + 2] >> 4) & 0x0F];
+        int sampleRate = MP3_SAMPLE_RATES[(data[frame + 2] >> 2) & 0x03]
+                >> (mpeg1 ? 0 : version == 2 ? 1 : 2);
+        boolean mono = ((data[frame + 3] >> 6) & 0x03) == 3;
+        int samplesPerFrame = layer == 1 ? 384 : (layer == 3 && !mpeg1 ? 576 : 1152);
+
+        long frames = 0;
+        long bytes = 0;
+        int xing = frame + 4 + (mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+        int vbri = frame + 4 + 32;
+        if (xing + 8 <= data.length && ("Xing".equals(fourcc(data, xing))
+                || "Info".equals(fourcc(data, xing)))) {
+            long flags = u32(data, xing + 4);
+            int position = xing + 8;
+            if ((flags & 1) != 0 && position + 4 <= data.length) {
+                frames = u32(data, position);
+                position += 4;
+            }
+            if ((flags & 2) != 0 && position + 4 <= data.length) {
+                bytes = u32(data, position);
+            }
+        } else if (vbri + 18 <= data.length && "VBRI".equals(fourcc(data, vbri))) {
+            bytes = u32(data, vbri + 10);
+            frames = u32(data, vbri + 14);
+        }
+
+        long audioBytes = bytes > 0 ? bytes : (length > 0 ? length - audioStart - frame : 0);
+        double duration;
+        long bitrate;
+        if (frames > 0) {
+            duration = (double) frames * samplesPerFrame / sampleRate;
+            bitrate = audioBytes > 0 ? (long) (audioBytes * 8 / duration) : kbps * 1000L;
+        } else {
+            bitrate = kbps * 1000L;
+            duration = audioBytes > 0 ? audioBytes * 8.0 / bitrate : 0;
+        }
+        return new MediaInfo("mp3", duration, 0, 0, bitrate, null, "mp3");
+    }
+
+    /**
+     * Returns the position of the first valid MPEG audio frame header at or after start, or -1.
+     */
+    private static int findMp3Frame(byte[] data, int start) {
+        for (int i = start; i + 4 <= data.length; i++) {
+            if ((data[i] & 0xFF) != 0xFF || (data[i + 1] & 0xE0) != 0xE0) {
+                continue;
+            }
+            int version = (data[i + 1] >> 3) & 0x03;
+            int layer = (data[i + 1] >> 1) & 0x03;
+            int bitrate = (data[i + 2] >> 4) & 0x0F;
+            int sampleRate = (data[i + 2] >> 2) & 0x03;
+            if (version != 1 && layer != 0 && bitrate != 0 && bitrate != 15 && sampleRate != 3) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String fourcc(byte[] data, int position) {
+        return new String(data, position, 4, ASCII);
+    }
+
+    private static int u16(byte[] data, int position) {
+        return ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+    }
+
+    private static long u32(byte[] data, int position) {
+        return ((long) (data[position] & 0xFF) << 24) | ((data[position + 1] & 0xFF) << 16)
+                | ((data[position + 2] & 0xFF) << 8) | (data[position + 3] & 0xFF);
+    }
+
+    private static long u64(byte[] data, int position) {
+        return (u32(data, position) << 32) | u32(data, position + 4);
+    }
+}
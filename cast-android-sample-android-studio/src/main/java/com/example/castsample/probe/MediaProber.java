@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.probe;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.example.castsample.image.DiskCache;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probes media URLs with MediaProbe on a small pool of background threads and caches the results
+ * in memory and on disk, so each file is probed once. Requests for a URL already being probed
+ * share the probe. The queue is bounded: when it is full the oldest waiting request is dropped,
+ * since it is the one most likely to have scrolled out of view. Apart from the probing,
+ * everything runs on the main thread.
+ */
+public class MediaProber {
+
+    private static final String TAG = MediaProber.class.getSimpleName();
+
+    private static final int THREADS = 2;
+    private static final int QUEUED_PROBES = 16;
+    private static final int MEMORY_CACHE_ENTRIES = 512;
+    private static final long DISK_CACHE_BYTES = 1024 * 1024;
+    // Cached in memory for URLs that could not be probed, so they are not tried again.
+    private static final MediaInfo UNKNOWN = new MediaInfo(null, 0, 0, 0, 0, null, null);
+
+    /**
+     * Receives the result of a probe on the main thread.
+     */
+    public interface Callback {
+        /**
+         * Called with what was found, or with null if the URL could not be probed.
+         */
+        void onProbed(String url, MediaInfo info);
+    }
+
+    private static MediaProber sInstance;
+
+    private final Handler mMainHandler;
+    private final ThreadPoolExecutor mExecutor;
+    private final DiskCache mDiskCache;
+    private final LruCache<String, MediaInfo> mMemoryCache =
+            new LruCache<String, MediaInfo>(MEMORY_CACHE_ENTRIES);
+    // Callbacks waiting for each URL being probed. Main thread only.
+    private final Map<String, List<Callback>> mPending = new HashMap<String, List<Callback>>();
+
+    /**
+     * Returns the shared MediaProber.
+     */
+    public static synchronized MediaProber getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MediaProber(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private MediaProber(Context context) {
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mDiskCache = new DiskCache(new File(context.getCacheDir(), "media-info"),
+                DISK_CACHE_BYTES);
+        mExecutor = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUED_PROBES), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, TAG);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                        BlockingQueue<Runnable> queue = executor.getQueue();
+                        Runnable dropped = queue.poll();
+                        if (dropped instanceof Probe) {
+                            ((Probe) dropped).deliver(null, false);
+                        }
+                        if (!executor.isShutdown() && !queue.offer(runnable)
+                                && runnable instanceof Probe) {
+                            ((Probe) runnable).deliver(null, false);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Returns what is known about the given URL without probing it, or null.
+     */
+    public MediaInfo getCached(String url) {
+        MediaInfo info = url != null ? mMemoryCache.get(url) : null;
+        return info != UNKNOWN ? info : null;
+    }
+
+    /**
+     * Probes the given URL unless its result is cached, and reports the result to the callback,
+     * which may be null to only fill the cache. A cached result is reported right away.
+     */
+    public void probe(String url, Callback callback) {
+        if (url == null) {
+            return;
+        }
+        MediaInfo info = mMemoryCache.get(url);
+        if (info != null) {
+            if (callback != null) {
+                callback.onProbed(url, info != UNKNOWN ? info : null);
+            }
+            return;
+        }
+        List<Callback> callbacks = mPending.get(url);
+        if (callbacks != null) {
+            if (callback != null && !callbacks.contains(callback)) {
+                callbacks.add(callback);
+            }
+            return;
+        }
+        callbacks = new ArrayList<Callback>();
+        if (callback != null) {
+            callbacks.add(callback);
+        }
+        mPending.put(url, callbacks);
+        mExecutor.execute(new Probe(url));
+    }
+
+    /**
+     * Forgets the given callback, e.g. when the view it would update has been recycled.
+     */
+    public void cancel(String url, Callback callback) {
+        List<Callback> callbacks = mPending.get(url);
+        if (callbacks != null) {
+            callbacks.remove(callback);
+        }
+    }
+
+    /**
+     * Probes one URL, consulting the disk cache first. Runs on a probe thread.
+     */
+    private class Probe implements Runnable {
+        private final String mUrl;
+
+        Probe(String url) {
+            mUrl = url;
+        }
+
+        @Override
+        public void run() {
+            MediaInfo info = readDiskCache(mUrl);
+            if (info != null) {
+                deliver(info, true);
+                return;
+            }
+            try {
+                info = MediaProbe.probe(new RangeReader(mUrl));
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to probe " + mUrl + ": " + e);
+                // Network trouble may pass; do not remember the failure.
+                deliver(null, false);
+                return;
+            } catch (RuntimeException e) {
+                // A malformed file can send the parser out of bounds; treat it as unknown.
+                Log.w(TAG, "Failed to parse " + mUrl, e);
+                info = null;
+            }
+            if (info != null) {
+                writeDiskCache(mUrl, info);
+            }
+            deliver(info != null ? info : UNKNOWN, true);
+        }
+
+        /**
+         * Hands the result to the main thread, caching it if requested.
+         */
+        void deliver(final MediaInfo info, final boolean cache) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (cache) {
+                        mMemoryCache.put(mUrl, info);
+                    }
+                    List<Callback> callbacks = mPending.remove(mUrl);
+                    if (callbacks == null) {
+                        return;
+                    }
+                    MediaInfo result = info != UNKNOWN ? info : null;
+                    for (Callback callback : callbacks) {
+                        callback.onProbed(mUrl, result);
+                    }
+                }
+            });
+        }
+    }
+
+    private MediaInfo readDiskCache(String url) {
+        File file = mDiskCache.get(url);
+        if (file == null) {
+            return null;
+        }
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] data = new byte[(int) file.length()];
+                int count = 0;
+                while (count < data.length) {
+                    int read = in.read(data, count, data.length - count);
+                    if (read < 0) {
+                        break;
+                    }
+                    count += read;
+                }
+                return MediaInfo.fromJson(new JSONObject(new String(data, 0, count, "UTF-8")));
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read cached info for " + url, e);
+        } catch (JSONException e) {
+            Log.w(TAG, "Corrupt cached info for " + url, e);
+        }
+        return null;
+    }
+
+    private void writeDiskCache(String url, MediaInfo info) {
+        try {
+            mDiskCache.put(url, new ByteArrayInputStream(info.toJson().toString()
+                    .getBytes("UTF-8")));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to cache info for " + url, e);
+        }
+    }
+}
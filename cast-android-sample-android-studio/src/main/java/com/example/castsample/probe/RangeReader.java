@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.probe;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.Arrays;
+
+/**
+ * Reads byte ranges of a media URL without fetching the rest: HTTP URLs through Range requests,
+ * file URLs and absolute paths directly. Counts the requests and bytes it reads. Not thread-safe.
+ */
+public class RangeReader {
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 15000;
+
+    private final String mUrl;
+    private final File mFile;
+    private long mLength = -1;
+    private int mRequests;
+    private long mBytesRead;
+
+    public RangeReader(String url) {
+        mUrl = url;
+        if (url.startsWith("file:")) {
+            mFile = new File(URI.create(url));
+        } else if (url.startsWith("/")) {
+            mFile = new File(url);
+        } else {
+            mFile = null;
+        }
+    }
+
+    /**
+     * Returns the total length of the media, which is known after the first read, or -1.
+     */
+    public long getLength() {
+        return mLength;
+    }
+
+    public int getRequestCount() {
+        return mRequests;
+    }
+
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * Reads up to length bytes starting at offset. Fewer bytes are returned only at the end of the
+     * media.
+     */
+    public byte[] read(long offset, int length) throws IOException {
+        mRequests++;
+        byte[] data = mFile != null ? readFile(offset, length) : readHttp(offset, length);
+        mBytesRead += data.length;
+        return data;
+    }
+
+    private byte[] readFile(long offset, int length) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            mLength = file.length();
+            int count = (int) Math.max(0, Math.min(length, mLength - offset));
+            byte[] data = new byte[count];
+            file.seek(offset);
+            file.readFully(data);
+            return data;
+        } finally {
+            file.close();
+        }
+    }
+
+    private byte[] readHttp(long offset, int length) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(mUrl).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setRequestProperty("Range",
+                    "bytes=" + offset + "-" + (offset + length - 1));
+            int status = connection.getResponseCode();
+            if (status == 416) {
+                return new byte[0];
+            }
+            if (status != HttpURLConnection.HTTP_PARTIAL) {
+                // A server ignoring Range would send the whole file; do not read it.
+                throw new IOException("Range request answered with " + status);
+            }
+            String contentRange = connection.getHeaderField("Content-Range");
+            if (contentRange != null && contentRange.lastIndexOf('/') >= 0) {
+                String total = contentRange.substring(contentRange.lastIndexOf('/') + 1).trim();
+                if (!total.equals("*")) {
+                    mLength = Long.parseLong(total);
+                }
+            }
+            return readUpTo(connection.getInputStream(), length);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed Content-Range");
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static byte[] readUpTo(InputStream in, int length) throws IOException {
+        try {
+            byte[] data = new byte[length];
+            int count = 0;
+            while (count < length) {
+                int read = in.read(data, count, length - count);
+                if (read < 0) {
+                    break;
+                }
+                count += read;
+            }
+            return count == length ? data : Arrays.copyOf(data, count);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.route;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.media.MediaRouteSelector;
+import android.support.v7.media.MediaRouter;
+import android.support.v7.media.MediaRouter.RouteInfo;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Runs Cast route discovery in duty cycles and feeds what it finds into a RouteRegistry.
+ * <p>
+ * Discovery starts with a short burst of active scanning, which finds devices quickly, and then
+ * falls back to passive discovery, which only picks up what the route providers report on their
+ * own. While no route is available a new burst runs every {@link #BURST_INTERVAL_MS}; while a
+ * route is selected no discovery is requested at all. All methods must be called on the main
+ * thread.
+ */
+public class RouteDiscovery {
+
+    /** How long each burst of active scanning lasts, in milliseconds. */
+    private static final long BURST_MS = 10000;
+    /** How long to wait between bursts while no route is available, in milliseconds. */
+    private static final long BURST_INTERVAL_MS = 60000;
+
+    private static final int MODE_OFF = -1;
+    private static final int FLAGS_IDLE = 0;
+    private static final int FLAGS_PASSIVE = MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY;
+    private static final int FLAGS_ACTIVE = MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY
+            | MediaRouter.CALLBACK_FLAG_PERFORM_ACTIVE_SCAN;
+
+    private final MediaRouter mMediaRouter;
+    private final MediaRouteSelector mSelector;
+    private final RouteRegistry mRegistry;
+    private final Handler mHandler;
+    private int mFlags = MODE_OFF;
+    private boolean mStarted;
+    private boolean mRouteSelected;
+
+    private final MediaRouter.Callback mCallback = new MediaRouter.Callback() {
+        @Override
+        public void onRouteAdded(MediaRouter router, RouteInfo route) {
+            onRouteSeen(route);
+        }
+
+        @Override
+        public void onRouteChanged(MediaRouter router, RouteInfo route) {
+            onRouteSeen(route);
+        }
+
+        @Override
+        public void onRouteRemoved(MediaRouter router, RouteInfo route) {
+            boolean hadRoutes = mRegistry.hasAvailableRoutes();
+            mRegistry.onRouteLost(route.getId());
+            if (hadRoutes && !mRegistry.hasAvailableRoutes() && mStarted && !mRouteSelected
+                    && mFlags != FLAGS_ACTIVE) {
+                // The last route went away: look hard for a while.
+                mHandler.removeCallbacks(mBurstRunnable);
+                mBurstRunnable.run();
+            }
+        }
+    };
+
+    private final Runnable mBurstEndRunnable = new Runnable() {
+        @Override
+        public void run() {
+            setFlags(mRouteSelected ? FLAGS_IDLE : FLAGS_PASSIVE);
+            if (!mRouteSelected && !mRegistry.hasAvailableRoutes()) {
+                mHandler.postDelayed(mBurstRunnable, BURST_INTERVAL_MS);
+            }
+        }
+    };
+
+    private final Runnable mBurstRunnable = new Runnable() {
+        @Override
+        public void run() {
+            setFlags(FLAGS_ACTIVE);
+            mHandler.postDelayed(mBurstEndRunnable, BURST_MS);
+        }
+    };
+
+    public RouteDiscovery(MediaRouter mediaRouter, MediaRouteSelector selector,
+            RouteRegistry registry) {
+        mMediaRouter = mediaRouter;
+        mSelector = selector;
+        mRegistry = registry;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Starts discovery with a burst of active scanning, after taking over the routes the
+     * MediaRouter already knows.
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        Set<String> current = new HashSet<String>();
+        for (RouteInfo route : mMediaRouter.getRoutes()) {
+            if (!route.isDefault() && route.matchesSelector(mSelector)) {
+                current.add(route.getId());
+                mRegistry.onRouteSeen(route.getId(), route.getName(), route.getDescription());
+            }
+        }
+        // Routes may have gone away unnoticed while discovery was stopped.
+        for (RouteRegistry.Route route : mRegistry.getRoutes()) {
+            if (route.isAvailable() && !current.contains(route.getId())) {
+                mRegistry.onRouteLost(route.getId());
+            }
+        }
+        update();
+    }
+
+    /**
+     * Stops all discovery.
+     */
+    public void stop() {
+        mStarted = false;
+        mHandler.removeCallbacks(mBurstRunnable);
+        mHandler.removeCallbacks(mBurstEndRunnable);
+        setFlags(MODE_OFF);
+    }
+
+    /**
+     * Tells whether a route is selected, in which case discovery is not needed until it is
+     * unselected again.
+     */
+    public void setRouteSelected(boolean selected) {
+        if (mRouteSelected == selected) {
+            return;
+        }
+        mRouteSelected = selected;
+        cancelBursts();
+        update();
+    }
+
+    private void onRouteSeen(RouteInfo route) {
+        if (route.isDefault() || !route.matchesSelector(mSelector)) {
+            return;
+        }
+        mRegistry.onRouteSeen(route.getId(), route.getName(), route.getDescription());
+        update();
+    }
+
+    /**
+     * Picks the discovery mode for the current situation, unless a burst is running.
+     */
+    private void update() {
+        if (!mStarted || mFlags == FLAGS_ACTIVE) {
+            return;
+        }
+        if (mRouteSelected) {
+            setFlags(FLAGS_IDLE);
+        } else if (mFlags != FLAGS_PASSIVE) {
+            // Starting up, or a route has just been unselected.
+            mBurstRunnable.run();
+        } else if (mRegistry.hasAvailableRoutes()) {
+            mHandler.removeCallbacks(mBurstRunnable);
+        }
+    }
+
+    private void cancelBursts() {
+        mHandler.removeCallbacks(mBurstRunnable);
+        mHandler.removeCallbacks(mBurstEndRunnable);
+        if (mFlags == FLAGS_ACTIVE) {
+            setFlags(FLAGS_PASSIVE);
+        }
+    }
+
+    private void setFlags(int flags) {
+        if (flags == mFlags) {
+            return;
+        }
+        mFlags = flags;
+        if (flags == MODE_OFF) {
+            mMediaRouter.removeCallback(mCallback);
+        } else {
+            register(flags);
+        }
+    }
+
+    private void register(int flags) {
+        // addCallback only ever adds flags to a registered callback, so re-register to drop them.
+        mMediaRouter.removeCallback(mCallback);
+        mMediaRouter.addCallback(mSelector, mCallback, flags);
+    }
+}
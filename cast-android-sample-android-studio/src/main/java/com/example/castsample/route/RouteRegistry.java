@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.route;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the Cast routes seen by discovery, with the time each was last seen, across launches.
+ * The routes seen recently are known as soon as the app starts, so the Cast button can be shown
+ * before discovery has found anything. Each route is also tracked as available or not according
+ * to the latest discovery events, and listeners are told when a route is added, removed or
+ * changed. All methods must be called on the main thread.
+ */
+public class RouteRegistry {
+
+    private static final String PREFERENCES_NAME = "routes";
+    private static final String KEY_NAME_PREFIX = "name:";
+    private static final String KEY_DESCRIPTION_PREFIX = "description:";
+    private static final String KEY_LAST_SEEN_PREFIX = "last_seen:";
+    /** Routes not seen for this long are forgotten. */
+    private static final long MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+    /** Routes seen within this time count as known even before discovery finds them again. */
+    private static final long RECENT_MS = 24L * 60 * 60 * 1000;
+    /** How stale a stored last-seen time may get before it is written again. */
+    private static final long PERSIST_INTERVAL_MS = 60 * 1000;
+
+    /**
+     * Receives the changes of the registered routes. A route is added when it becomes available
+     * and removed when it no longer is; it is changed when its name or description changes.
+     */
+    public interface Listener {
+        void onRouteAdded(Route route);
+
+        void onRouteRemoved(Route route);
+
+        void onRouteChanged(Route route);
+    }
+
+    /**
+     * A route seen by discovery now or in the past.
+     */
+    public static class Route {
+        private final String mId;
+        private String mName;
+        private String mDescription;
+        private long mLastSeen;
+        private long mPersistedLastSeen;
+        private boolean mAvailable;
+
+        private Route(String id) {
+            mId = id;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public String getDescription() {
+            return mDescription;
+        }
+
+        /**
+         * Returns the wall clock time this route was last reported by discovery.
+         */
+        public long getLastSeen() {
+            return mLastSeen;
+        }
+
+        /**
+         * Returns whether discovery currently reports this route.
+         */
+        public boolean isAvailable() {
+            return mAvailable;
+        }
+    }
+
+    private final SharedPreferences mPreferences;
+    private final Map<String, Route> mRoutes = new HashMap<String, Route>();
+    private final List<Listener> mListeners = new ArrayList<Listener>();
+
+    public RouteRegistry(Context context) {
+        mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        load();
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Returns all remembered routes, the most recently seen first.
+     */
+    public List<Route> getRoutes() {
+        List<Route> routes = new ArrayList<Route>(mRoutes.values());
+        Collections.sort(routes, new Comparator<Route>() {
+            @Override
+            public int compare(Route a, Route b) {
+                return a.mLastSeen < b.mLastSeen ? 1 : (a.mLastSeen > b.mLastSeen ? -1 : 0);
+            }
+        });
+        return routes;
+    }
+
+    public Route getRoute(String id) {
+        return mRoutes.get(id);
+    }
+
+    /**
+     * Returns whether any route is available right now.
+     */
+    public boolean hasAvailableRoutes() {
+        for (Route route : mRoutes.values()) {
+            if (route.mAvailable) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether any route is available or has been seen recently enough to be expected
+     * back.
+     */
+    public boolean hasKnownRoutes() {
+        long recent = System.currentTimeMillis() - RECENT_MS;
+        for (Route route : mRoutes.values()) {
+            if (route.mAvailable || route.mLastSeen >= recent) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records that discovery reports the given route.
+     */
+    public void onRouteSeen(String id, String name, String description) {
+        Route route = mRoutes.get(id);
+        if (route == null) {
+            route = new Route(id);
+            mRoutes.put(id, route);
+        }
+        boolean added = !route.mAvailable;
+        boolean renamed = !equal(name, route.mName) || !equal(description, route.mDescription);
+        route.mName = name;
+        route.mDescription = description;
+        route.mLastSeen = System.currentTimeMillis();
+        route.mAvailable = true;
+        if (renamed || route.mLastSeen - route.mPersistedLastSeen >= PERSIST_INTERVAL_MS) {
+            persist(route);
+        }
+        if (added) {
+            for (Listener listener : new ArrayList<Listener>(mListeners)) {
+                listener.onRouteAdded(route);
+            }
+        } else if (renamed) {
+            for (Listener listener : new ArrayList<Listener>(mListeners)) {
+                listener.onRouteChanged(route);
+            }
+        }
+    }
+
+    /**
+     * Records that discovery no longer reports the given route. The route stays remembered.
+     */
+    public void onRouteLost(String id) {
+        Route route = mRoutes.get(id);
+        if (route == null || !route.mAvailable) {
+            return;
+        }
+        route.mAvailable = false;
+        route.mLastSeen = System.currentTimeMillis();
+        persist(route);
+        for (Listener listener : new ArrayList<Listener>(mListeners)) {
+            listener.onRouteRemoved(route);
+        }
+    }
+
+    private void load() {
+        long oldest = System.currentTimeMillis() - MAX_AGE_MS;
+        SharedPreferences.Editor expired = null;
+        for (Map.Entry<String, ?> entry : mPreferences.getAll().entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(KEY_LAST_SEEN_PREFIX) || !(entry.getValue() instanceof Long)) {
+                continue;
+            }
+            String id = key.substring(KEY_LAST_SEEN_PREFIX.length());
+            long lastSeen = (Long) entry.getValue();
+            if (lastSeen < oldest) {
+                if (expired == null) {
+                    expired = mPreferences.edit();
+                }
+                expired.remove(key).remove(KEY_NAME_PREFIX + id)
+                        .remove(KEY_DESCRIPTION_PREFIX + id);
+                continue;
+            }
+            Route route = new Route(id);
+            route.mName = mPreferences.getString(KEY_NAME_PREFIX + id, null);
+            route.mDescription = mPreferences.getString(KEY_DESCRIPTION_PREFIX + id, null);
+            route.mLastSeen = lastSeen;
+            route.mPersistedLastSeen = lastSeen;
+            mRoutes.put(id, route);
+        }
+        if (expired != null) {
+            expired.apply();
+        }
+    }
+
+    private void persist(Route route) {
+        route.mPersistedLastSeen = route.mLastSeen;
+        mPreferences.edit()
+                .putString(KEY_NAME_PREFIX + route.mId, route.mName)
+                .putString(KEY_DESCRIPTION_PREFIX + route.mId, route.mDescription)
+                .putLong(KEY_LAST_SEEN_PREFIX + route.mId, route.mLastSeen)
+                .apply();
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,577 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.server;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A minimal HTTP/1.1 server that makes files on the device reachable for a receiver on the same
+ * network. Each published file gets an unguessable URL; nothing else can be fetched.
+ * <p>
+ * GET and HEAD are supported, with single byte ranges so the receiver can seek. File contents go
+ * from the page cache to the socket with FileChannel.transferTo, without being copied through the
+ * heap. Connections are kept alive and served by a small fixed pool of workers; when all workers
+ * and queue slots are busy, further connections are refused with 503 rather than queued without
+ * bound. An idle connection holds its worker for at most {@link #IDLE_TIMEOUT_MS}, or
+ * {@link #BUSY_IDLE_TIMEOUT_MS} while other connections are waiting for a worker, and a connection
+ * is closed after its current response while others are waiting.
+ */
+public class MediaServer {
+
+    private static final String TAG = MediaServer.class.getSimpleName();
+
+    private static final int WORKERS = 4;
+    private static final int QUEUED_CONNECTIONS = 8;
+    private static final int IDLE_TIMEOUT_MS = 3000;
+    /** How long a connection may stay idle while others are waiting for a worker. */
+    private static final int BUSY_IDLE_TIMEOUT_MS = 250;
+    private static final int MAX_HEADER_BYTES = 8192;
+    /** Largest amount handed to a single transferTo call. */
+    private static final long MAX_TRANSFER_BYTES = 8 * 1024 * 1024;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    /** Returned by {@link #parseRange} for a valid range that lies outside the file. */
+    static final long[] UNSATISFIABLE = new long[0];
+
+    private static MediaServer sInstance;
+
+    private final Map<String, PublishedFile> mFiles =
+            new ConcurrentHashMap<String, PublishedFile>();
+    private final SecureRandom mRandom = new SecureRandom();
+    private ServerSocketChannel mServerChannel;
+    private ThreadPoolExecutor mWorkers;
+
+    /**
+     * A file that may be served, with the content type reported for it.
+     */
+    private static class PublishedFile {
+        private final File mFile;
+        private final String mContentType;
+
+        private PublishedFile(File file, String contentType) {
+            mFile = file;
+            mContentType = contentType;
+        }
+    }
+
+    /**
+     * Returns the shared MediaServer.
+     */
+    public static synchronized MediaServer getInstance() {
+        if (sInstance == null) {
+            sInstance = new MediaServer();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts listening on the given port, or on any free port if it is 0. Does nothing if the
+     * server is already running.
+     */
+    public synchronized void start(int port) throws IOException {
+        if (mServerChannel != null) {
+            return;
+        }
+        final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        mServerChannel = serverChannel;
+        mWorkers = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUED_CONNECTIONS), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, TAG);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        final ThreadPoolExecutor workers = mWorkers;
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop(serverChannel, workers);
+            }
+        }, TAG + "-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * Stops the server and closes all connections. Published files stay published.
+     */
+    public synchronized void stop() {
+        if (mServerChannel == null) {
+            return;
+        }
+        closeQuietly(mServerChannel);
+        mWorkers.shutdownNow();
+        mServerChannel = null;
+        mWorkers = null;
+    }
+
+    /**
+     * Returns the port the server listens on, or -1 if it is not running.
+     */
+    public synchronized int getPort() {
+        return mServerChannel != null ? mServerChannel.socket().getLocalPort() : -1;
+    }
+
+    /**
+     * Makes the given file available and returns its URL on the given address, which must be
+     * reachable by the receiver. The server must be running.
+     */
+    public String publish(File file, InetAddress address) {
+        int port = getPort();
+        if (port < 0) {
+            throw new IllegalStateException("Server is not running");
+        }
+        String token = Long.toHexString(mRandom.nextLong() & Long.MAX_VALUE);
+        mFiles.put(token, new PublishedFile(file, guessContentType(file)));
+        String name;
+        try {
+            name = URLEncoder.encode(file.getName(), "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        return "http://" + address.getHostAddress() + ":" + port + "/" + token + "/" + name;
+    }
+
+    /**
+     * Makes the file published under the given URL unavailable.
+     */
+    public void unpublish(String url) {
+        String token = getToken(url);
+        if (token != null) {
+            mFiles.remove(token);
+        }
+    }
+
+    /**
+     * Returns the first IPv4 address of a network interface that is up and not the loopback, which
+     * is normally the Wi-Fi address, or null if there is none.
+     */
+    public static InetAddress findLocalAddress() {
+        try {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            if (interfaces == null) {
+                return null;
+            }
+            for (NetworkInterface networkInterface : Collections.list(interfaces)) {
+                if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                    continue;
+                }
+                for (InetAddress address : Collections.list(networkInterface.getInetAddresses())) {
+                    if (address instanceof Inet4Address && !address.isLoopbackAddress()) {
+                        return address;
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            Log.e(TAG, "Failed to list network interfaces", e);
+        }
+        return null;
+    }
+
+    private void acceptLoop(ServerSocketChannel serverChannel, final ThreadPoolExecutor workers) {
+        while (true) {
+            final SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to accept connection", e);
+                return;
+            }
+            try {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(channel, workers);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                Log.w(TAG, "All workers busy; refusing connection");
+                try {
+                    // A single non-blocking write, so a client that does not read cannot stall
+                    // the accept thread; the response fits an empty socket buffer.
+                    channel.configureBlocking(false);
+                    channel.write(ByteBuffer.wrap(
+                            header(503, "Service Unavailable", "Connection: close\r\n"
+                                    + "Retry-After: 1\r\nContent-Length: 0\r\n")));
+                } catch (IOException ignored) {
+                    // The client is going away anyway.
+                }
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    /**
+     * Serves requests on the given connection until the client closes it, asks to close it, or
+     * stays idle too long. The connection is also closed after a response while other connections
+     * are queued for the workers.
+     */
+    private void serve(SocketChannel channel, ThreadPoolExecutor workers) {
+        Selector selector = null;
+        try {
+            channel.socket().setTcpNoDelay(true);
+            selector = Selector.open();
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_HEADER_BYTES);
+            while (!Thread.currentThread().isInterrupted()) {
+                String head = readHead(channel, selector, buffer, workers);
+                boolean othersWaiting = !workers.getQueue().isEmpty();
+                if (head == null || !respond(channel, head, !othersWaiting)) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // Receivers routinely drop connections when seeking; this is not worth a stack trace.
+            Log.w(TAG, "Connection ended: " + e);
+        } finally {
+            closeQuietly(selector);
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Reads one request head, leaving any bytes after it in the buffer. Returns null if the
+     * connection was closed or stayed idle too long before a complete head arrived; it may stay
+     * idle for less time while other connections are queued for the workers.
+     */
+    private static String readHead(SocketChannel channel, Selector selector, ByteBuffer buffer,
+            ThreadPoolExecutor workers) throws IOException {
+        channel.configureBlocking(false);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        long idleSince = System.nanoTime();
+        try {
+            while (true) {
+                int end = findHeadEnd(buffer);
+                if (end >= 0) {
+                    String head = new String(buffer.array(), 0, end, ASCII);
+                    buffer.flip();
+                    buffer.position(end + 4);
+                    buffer.compact();
+                    return head;
+                }
+                if (!buffer.hasRemaining()) {
+                    throw new IOException("Request head too large");
+                }
+                if (selector.select(BUSY_IDLE_TIMEOUT_MS) == 0) {
+                    long idleMs = (System.nanoTime() - idleSince) / 1000000;
+                    if (idleMs >= (workers.getQueue().isEmpty()
+                            ? IDLE_TIMEOUT_MS : BUSY_IDLE_TIMEOUT_MS)) {
+                        return null;
+                    }
+                    continue;
+                }
+                selector.selectedKeys().clear();
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    return null;
+                }
+                if (read > 0) {
+                    idleSince = System.nanoTime();
+                }
+            }
+        } finally {
+            key.cancel();
+            selector.selectNow();
+            channel.configureBlocking(true);
+        }
+    }
+
+    private static int findHeadEnd(ByteBuffer buffer) {
+        byte[] bytes = buffer.array();
+        for (int i = 0; i + 3 < buffer.position(); i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r'
+                    && bytes[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Answers one request. Returns whether the connection may be used for another one, which is
+     * never the case unless mayKeepAlive is set.
+     */
+    private boolean respond(SocketChannel channel, String head, boolean mayKeepAlive)
+            throws IOException {
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3) {
+            sendError(channel, 400, "Bad Request");
+            return false;
+        }
+        String method = requestLine[0];
+        boolean keepAlive = !"HTTP/1.0".equals(requestLine[2]);
+        String range = null;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim();
+            String value = lines[i].substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Range")) {
+                range = value;
+            } else if (name.equalsIgnoreCase("Connection")) {
+                keepAlive = value.equalsIgnoreCase("keep-alive")
+                        || (keepAlive && !value.equalsIgnoreCase("close"));
+            }
+        }
+        keepAlive &= mayKeepAlive;
+        boolean headOnly = "HEAD".equals(method);
+        if (!headOnly && !"GET".equals(method)) {
+            sendError(channel, 405, "Method Not Allowed");
+            return keepAlive;
+        }
+        PublishedFile published = mFiles.get(String.valueOf(getToken(requestLine[1])));
+        if (published == null) {
+            sendError(channel, 404, "Not Found");
+            return keepAlive;
+        }
+
+        FileInputStream input;
+        try {
+            input = new FileInputStream(published.mFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open " + published.mFile, e);
+            sendError(channel, 404, "Not Found");
+            return keepAlive;
+        }
+        try {
+            FileChannel file = input.getChannel();
+            long length = file.size();
+            long start = 0;
+            long end = length - 1;
+            int status = 200;
+            String extra = "";
+            long[] bounds = range != null ? parseRange(range, length) : null;
+            if (bounds == UNSATISFIABLE) {
+                sendError(channel, 416, "Range Not Satisfiable",
+                        "Content-Range: bytes */" + length + "\r\n");
+                return keepAlive;
+            }
+            if (bounds != null) {
+                start = bounds[0];
+                end = bounds[1];
+                status = 206;
+                extra = "Content-Range: bytes " + start + "-" + end + "/" + length + "\r\n";
+            }
+            long count = end - start + 1;
+            writeFully(channel, ByteBuffer.wrap(header(status,
+                    status == 200 ? "OK" : "Partial Content",
+                    "Content-Type: " + published.mContentType + "\r\n"
+                            + "Content-Length: " + count + "\r\n"
+                            + "Accept-Ranges: bytes\r\n"
+                            + "Access-Control-Allow-Origin: *\r\n"
+                            + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n"
+                            + extra)));
+            if (!headOnly) {
+                transfer(file, start, count, channel);
+            }
+            return keepAlive;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    /**
+     * Sends count bytes of the file from the given position straight to the socket.
+     */
+    private static void transfer(FileChannel file, long position, long count,
+            SocketChannel channel) throws IOException {
+        while (count > 0) {
+            long sent = file.transferTo(position, Math.min(count, MAX_TRANSFER_BYTES), channel);
+            if (sent <= 0) {
+                if (position >= file.size()) {
+                    throw new IOException("File shrank while being served");
+                }
+                continue;
+            }
+            position += sent;
+            count -= sent;
+        }
+    }
+
+    /**
+     * Parses a single "bytes=" range against the given length and returns its first and last byte
+     * positions. Returns {@link #UNSATISFIABLE} if the range is valid but lies outside the file,
+     * and null if the header is invalid and must be ignored, which serves the whole file. Only the
+     * first of several ranges is served.
+     */
+    static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=")) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length());
+        int comma = spec.indexOf(',');
+        if (comma >= 0) {
+            spec = spec.substring(0, comma);
+        }
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        if (first.length() == 0) {
+            // A suffix range: the last n bytes.
+            long suffix = parsePosition(last);
+            if (suffix < 0) {
+                return null;
+            }
+            if (suffix == 0 || length == 0) {
+                return UNSATISFIABLE;
+            }
+            return new long[] { Math.max(0, length - suffix), length - 1 };
+        }
+        long start = parsePosition(first);
+        long end = last.length() == 0 ? Long.MAX_VALUE : parsePosition(last);
+        if (start < 0 || end < start) {
+            return null;
+        }
+        if (start >= length) {
+            return UNSATISFIABLE;
+        }
+        return new long[] { start, Math.min(end, length - 1) };
+    }
+
+    /**
+     * Returns the value of a byte position of a range, or -1 if it is not a plain decimal number.
+     */
+    private static long parsePosition(String text) {
+        if (text.length() == 0 || text.length() > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void sendError(SocketChannel channel, int status, String reason)
+            throws IOException {
+        sendError(channel, status, reason, "");
+    }
+
+    private static void sendError(SocketChannel channel, int status, String reason, String extra)
+            throws IOException {
+        writeFully(channel, ByteBuffer.wrap(header(status, reason,
+                extra + "Content-Length: 0\r\n")));
+    }
+
+    private static byte[] header(int status, String reason, String fields) {
+        return ("HTTP/1.1 " + status + " " + reason + "\r\n" + fields + "\r\n").getBytes(ASCII);
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Returns the token in the path of the given URL or request target, or null if there is none.
+     */
+    private static String getToken(String url) {
+        int start = url.indexOf("://");
+        start = url.indexOf('/', start < 0 ? 0 : start + 3);
+        if (start < 0) {
+            return null;
+        }
+        int end = url.indexOf('/', start + 1);
+        return url.substring(start + 1, end < 0 ? url.length() : end);
+    }
+
+    private static String guessContentType(File file) {
+        String type = URLConnection.guessContentTypeFromName(file.getName());
+        if (type == null) {
+            String name = file.getName().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".mp4") || name.endsWith(".m4v")) {
+                type = "video/mp4";
+            } else if (name.endsWith(".webm")) {
+                type = "video/webm";
+            } else if (name.endsWith(".mp3")) {
+                type = "audio/mpeg";
+            } else {
+                type = "application/octet-stream";
+            }
+        }
+        return type;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Nothing left to do with it.
+        }
+    }
+
+    private static void closeQuietly(Selector selector) {
+        if (selector == null) {
+            return;
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+            // Nothing left to do with it.
+        }
+    }
+}
@@ -0,0 +1,695 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.session;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.castsample.metrics.CommandStats;
+import com.google.cast.ContentMetadata;
+import com.google.cast.MediaProtocolCommand;
+import com.google.cast.MediaProtocolMessageStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Owns the MediaProtocolMessageStream of the current session and sends every command to it from
+ * a single background thread, in submission order. Results are delivered to a Callback on the main
+ * thread, so no UI code ever waits on the socket to the receiver. The latency of every command is
+ * recorded in CommandStats under the executor's device name and the command's type.
+ * <p>
+ * Every command is delivered according to the {@link Policy} of its type. It fails once its
+ * deadline has passed, whether it is still queued or waiting for the receiver, so a user action
+ * is never sent long after it was made. Commands that can safely be sent twice are resent with
+ * exponential backoff if sending fails. A command makes queued and unanswered commands of the
+ * types it supersedes obsolete; they fail with a CancellationException instead of being sent or
+ * waited for, so that, for example, a newer load or seek replaces an older one. Commands of a
+ * single-flight type are never outstanding twice: while one is queued or waiting for the receiver,
+ * further submissions share it and its result instead of being sent, so a slow receiver does not
+ * pile up status requests however many callers ask.
+ */
+public class CastCommandExecutor {
+
+    private static final String TAG = CastCommandExecutor.class.getSimpleName();
+
+    private static final long INITIAL_BACKOFF_MS = 100;
+    private static final long MAX_BACKOFF_MS = 1000;
+
+    /**
+     * A single request against the message stream. Runs on the command thread.
+     */
+    public interface Command {
+        /**
+         * Sends the request and returns the command tracking the receiver's response, or null if
+         * the request has no response.
+         */
+        MediaProtocolCommand send(MediaProtocolMessageStream stream) throws IOException;
+    }
+
+    /**
+     * Receives the outcome of a submitted command on the main thread. Exactly one of the methods
+     * is called for every command.
+     */
+    public interface Callback {
+        /**
+         * Called once the receiver has completed the command, or right after sending for requests
+         * that have no response, in which case command is null.
+         */
+        void onCompleted(MediaProtocolCommand command);
+
+        /**
+         * Called if the command could not be sent, missed its deadline or was cancelled. The
+         * exception is null if the receiver cancelled the command, a TimeoutException if the
+         * deadline passed and a CancellationException if a newer command superseded it.
+         */
+        void onFailed(MediaProtocolCommand command, Exception e);
+    }
+
+    /**
+     * How commands of one type are delivered.
+     */
+    public static class Policy {
+        private final long mDeadlineMs;
+        private final int mMaxAttempts;
+        private final boolean mSingleFlight;
+        private final String[] mSupersedes;
+
+        /**
+         * Creates a policy for commands that must complete within deadlineMs of being submitted,
+         * are sent at most maxAttempts times, and make earlier commands of the given types
+         * obsolete. Only commands that can safely reach the receiver twice may be sent more than
+         * once, since a send that failed may still have arrived.
+         */
+        public Policy(long deadlineMs, int maxAttempts, String... supersedes) {
+            this(deadlineMs, maxAttempts, false, supersedes);
+        }
+
+        /**
+         * Creates a policy as above, whose commands are single-flight if singleFlight is set.
+         * Only commands without arguments may be single-flight, since callers joining an
+         * outstanding command get the result of the one sent first, which may also have been
+         * sent before they asked.
+         */
+        public Policy(long deadlineMs, int maxAttempts, boolean singleFlight,
+                String... supersedes) {
+            mDeadlineMs = deadlineMs;
+            mMaxAttempts = maxAttempts;
+            mSingleFlight = singleFlight;
+            mSupersedes = supersedes;
+        }
+    }
+
+    /** The policy of command types without one of their own. */
+    public static final Policy DEFAULT_POLICY = new Policy(10000, 1);
+
+    private static final Map<String, Policy> sPolicies = new HashMap<String, Policy>();
+
+    static {
+        // The receiver answers a load once the media has started, which takes a while. Sending a
+        // load twice would restart playback, and a seek within the old media is pointless.
+        sPolicies.put("loadMedia", new Policy(15000, 1, "loadMedia", "playFrom"));
+        // Absolute positions, states and volumes can be sent twice without harm.
+        sPolicies.put("playFrom", new Policy(5000, 3, "playFrom"));
+        sPolicies.put("play", new Policy(5000, 3, "play", "resume", "stop"));
+        sPolicies.put("resume", new Policy(5000, 3, "play", "resume", "stop"));
+        sPolicies.put("stop", new Policy(5000, 3, "play", "resume", "stop"));
+        sPolicies.put("setVolume", new Policy(3000, 3, "setVolume"));
+        sPolicies.put("setMuted", new Policy(3000, 3, "setMuted"));
+        // Status is the same for every caller, so one request at a time serves them all.
+        sPolicies.put("requestStatus", new Policy(5000, 3, true));
+    }
+
+    private final ScheduledExecutorService mExecutor;
+    private final Handler mMainHandler;
+    private volatile MediaProtocolMessageStream mMessageStream;
+    private volatile String mDeviceName = "unknown";
+    private final AtomicLong mNextSequence = new AtomicLong();
+    // For each command type, the sequence number of the newest command that supersedes it.
+    private final Map<String, Long> mSupersededBefore = new ConcurrentHashMap<String, Long>();
+    // Commands that have been sent and are waiting for the receiver's response.
+    private final Set<Delivery> mInFlight =
+            Collections.newSetFromMap(new ConcurrentHashMap<Delivery, Boolean>());
+    // The single-flight command types that have been submitted, by type. Guarded by this.
+    private final Map<String, SingleFlight> mSingleFlights = new HashMap<String, SingleFlight>();
+
+    /**
+     * Creates a new CastCommandExecutor with its own command thread.
+     */
+    public CastCommandExecutor() {
+        this(TAG);
+    }
+
+    /**
+     * Creates a new CastCommandExecutor with its own command thread of the given name.
+     */
+    public CastCommandExecutor(final String threadName) {
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Returns the delivery policy of the given command type.
+     */
+    public static Policy getPolicy(String type) {
+        Policy policy = sPolicies.get(type);
+        return policy != null ? policy : DEFAULT_POLICY;
+    }
+
+    /**
+     * Sets the stream that subsequent commands are sent to. Commands that were submitted for a
+     * previous stream and have not run yet fail with an IllegalStateException.
+     */
+    public void setMessageStream(MediaProtocolMessageStream stream) {
+        mMessageStream = stream;
+    }
+
+    public MediaProtocolMessageStream getMessageStream() {
+        return mMessageStream;
+    }
+
+    /**
+     * Sets the name under which the latencies of subsequent commands are recorded.
+     */
+    public void setDeviceName(String deviceName) {
+        mDeviceName = deviceName;
+    }
+
+    /**
+     * Queues a command for the current stream. The callback may be null.
+     */
+    public void submit(Command command, Callback callback) {
+        submit("command", command, callback);
+    }
+
+    /**
+     * Queues a command for the current stream, delivering it according to the policy of the given
+     * type and recording its latency under that type. The callback may be null.
+     */
+    public void submit(String type, Command command, Callback callback) {
+        submit(type, getPolicy(type), command, callback);
+    }
+
+    /**
+     * Queues a command for the current stream, delivering it according to the given policy and
+     * recording its latency under the given type. The callback may be null.
+     */
+    public void submit(String type, Policy policy, Command command, Callback callback) {
+        if (policy.mSingleFlight) {
+            synchronized (this) {
+                SingleFlight flight = mSingleFlights.get(type);
+                if (flight == null) {
+                    flight = new SingleFlight();
+                    mSingleFlights.put(type, flight);
+                }
+                if (flight.join(callback)) {
+                    return;
+                }
+                callback = flight.start(callback);
+            }
+        }
+        Delivery delivery = new Delivery(type, policy, command, callback);
+        supersede(policy, delivery.mSequence);
+        mMainHandler.postDelayed(delivery.mDeadlineRunnable, policy.mDeadlineMs);
+        try {
+            mExecutor.execute(delivery);
+        } catch (RejectedExecutionException e) {
+            delivery.fail(null, e);
+        }
+    }
+
+    public void loadMedia(final String url, final ContentMetadata metadata,
+            final boolean autoPlay, Callback callback) {
+        submit("loadMedia", new Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                return stream.loadMedia(url, metadata, autoPlay);
+            }
+        }, callback);
+    }
+
+    public void play(Callback callback) {
+        submit("play", new Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                return stream.play();
+            }
+        }, callback);
+    }
+
+    public void resume(Callback callback) {
+        submit("resume", new Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                return stream.resume();
+            }
+        }, callback);
+    }
+
+    public void stop(Callback callback) {
+        submit("stop", new Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                stream.stop();
+                return null;
+            }
+        }, callback);
+    }
+
+    public void playFrom(final double position, Callback callback) {
+        submit("playFrom", new Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                return stream.playFrom(position);
+            }
+        }, callback);
+    }
+
+    public void setVolume(final double volume, Callback callback) {
+        submit("setVolume", new Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                return stream.setVolume(volume);
+            }
+        }, callback);
+    }
+
+    public void setMuted(final boolean muted, Callback callback) {
+        submit("setMuted", new Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                return stream.setMuted(muted);
+            }
+        }, callback);
+    }
+
+    public void requestStatus(Callback callback) {
+        submit("requestStatus", new Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                return stream.requestStatus();
+            }
+        }, callback);
+    }
+
+    /**
+     * Returns how many commands of the given single-flight type have been sent and not yet been
+     * answered. This is at most one, except right after the stream has changed.
+     */
+    public synchronized int getInFlightCount(String type) {
+        SingleFlight flight = mSingleFlights.get(type);
+        return flight != null ? flight.mInFlight : 0;
+    }
+
+    /**
+     * Returns for how many milliseconds the current command of the given single-flight type has
+     * been outstanding, or -1 if there is none.
+     */
+    public synchronized long getInFlightAgeMs(String type) {
+        SingleFlight flight = mSingleFlights.get(type);
+        if (flight == null || flight.mCurrent == null) {
+            return -1;
+        }
+        return (System.nanoTime() - flight.mCurrent.mStartNanos) / 1000000;
+    }
+
+    /**
+     * Returns one line per single-flight command type: how many are outstanding and for how long,
+     * the most that were ever outstanding at once, how many were sent and how many submissions
+     * shared an outstanding one instead.
+     */
+    public synchronized String getSingleFlightSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, SingleFlight> entry : mSingleFlights.entrySet()) {
+            SingleFlight flight = entry.getValue();
+            summary.append(entry.getKey()).append(": ").append(flight.mInFlight)
+                    .append(" in flight");
+            long ageMs = getInFlightAgeMs(entry.getKey());
+            if (ageMs >= 0) {
+                summary.append(" for ").append(ageMs).append(" ms");
+            }
+            summary.append(String.format(Locale.ROOT, ", peak %d, %d sent, %d shared\n",
+                    flight.mPeakInFlight, flight.mSent, flight.mShared));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Stops accepting commands. Commands already queued are still sent.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private synchronized void supersede(Policy policy, long sequence) {
+        for (String type : policy.mSupersedes) {
+            Long before = mSupersededBefore.get(type);
+            if (before == null || before < sequence) {
+                mSupersededBefore.put(type, sequence);
+            }
+        }
+    }
+
+    private boolean isSuperseded(Delivery delivery) {
+        Long before = mSupersededBefore.get(delivery.mType);
+        return before != null && before > delivery.mSequence;
+    }
+
+    /**
+     * Stops waiting for the responses to commands that have been superseded, on the streams they
+     * were sent through. Runs on the command thread.
+     */
+    private void cancelSuperseded() {
+        for (Delivery delivery : mInFlight) {
+            if (isSuperseded(delivery)) {
+                MediaProtocolCommand sent = delivery.mSent;
+                if (delivery.fail(sent, new CancellationException(
+                        delivery.mType + " superseded by a newer command"))) {
+                    delivery.mStream.cancelCommand(sent);
+                }
+            }
+        }
+    }
+
+    private void postCompleted(final Callback callback, final MediaProtocolCommand command) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onCompleted(command);
+            }
+        });
+    }
+
+    private void postFailure(final Callback callback, final MediaProtocolCommand command,
+            final Exception e) {
+        if (callback == null) {
+            if (e != null && !(e instanceof CancellationException)) {
+                Log.e(TAG, "Failed to send command", e);
+            }
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onFailed(command, e);
+            }
+        });
+    }
+
+    /**
+     * One submitted command on its way to the receiver, which runs on the command thread once for
+     * every attempt to send it.
+     */
+    private class Delivery implements Runnable {
+        private final String mType;
+        private final Policy mPolicy;
+        private final Command mCommand;
+        private final Callback mCallback;
+        private final MediaProtocolMessageStream mStream = mMessageStream;
+        private final CommandStats.Entry mStats;
+        private final long mSequence = mNextSequence.incrementAndGet();
+        private final long mDeadlineNanos;
+        private final AtomicBoolean mFinished = new AtomicBoolean();
+        private int mAttempts;
+        private long mStartNanos;
+        private volatile MediaProtocolCommand mSent;
+
+        private final Runnable mDeadlineRunnable = new Runnable() {
+            @Override
+            public void run() {
+                onDeadline();
+            }
+        };
+
+        Delivery(String type, Policy policy, Command command, Callback callback) {
+            mType = type;
+            mPolicy = policy;
+            mCommand = command;
+            mCallback = callback;
+            mStats = CommandStats.getInstance().getEntry(mDeviceName, type);
+            mDeadlineNanos = System.nanoTime() + policy.mDeadlineMs * 1000000;
+        }
+
+        @Override
+        public void run() {
+            if (mFinished.get()) {
+                return;
+            }
+            if (isSuperseded(this)) {
+                fail(null, new CancellationException(mType + " superseded before it was sent"));
+                return;
+            }
+            long now = System.nanoTime();
+            if (now >= mDeadlineNanos) {
+                fail(null, new TimeoutException(mType + " still queued at its deadline"));
+                return;
+            }
+            if (mAttempts++ == 0) {
+                mStartNanos = now;
+            }
+            if (mStream == null || mStream != mMessageStream) {
+                fail(null, new IllegalStateException("No message stream for command"));
+                return;
+            }
+            cancelSuperseded();
+
+            MediaProtocolCommand result;
+            try {
+                result = mCommand.send(mStream);
+            } catch (IOException e) {
+                retryOrFail(e);
+                return;
+            } catch (IllegalStateException e) {
+                fail(null, e);
+                return;
+            }
+            if (result == null) {
+                complete(null);
+                return;
+            }
+            mSent = result;
+            mInFlight.add(this);
+            result.setListener(new MediaProtocolCommand.Listener() {
+                @Override
+                public void onCompleted(MediaProtocolCommand cmd) {
+                    complete(cmd);
+                }
+
+                @Override
+                public void onCancelled(MediaProtocolCommand cmd) {
+                    fail(cmd, null);
+                }
+            });
+            if (mFinished.get()) {
+                // The deadline passed while sending.
+                mInFlight.remove(this);
+                mStream.cancelCommand(result);
+            }
+        }
+
+        private void retryOrFail(IOException e) {
+            if (mAttempts < mPolicy.mMaxAttempts) {
+                long backoffMs = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << (mAttempts - 1));
+                if (System.nanoTime() + backoffMs * 1000000 < mDeadlineNanos) {
+                    Log.w(TAG, "Failed to send " + mType + " to " + mDeviceName + ", retrying in "
+                            + backoffMs + " ms", e);
+                    try {
+                        mExecutor.schedule(this, backoffMs, TimeUnit.MILLISECONDS);
+                        return;
+                    } catch (RejectedExecutionException rejected) {
+                        // Shut down; fail with the original error.
+                    }
+                }
+            }
+            fail(null, e);
+        }
+
+        /**
+         * Fails the command if it has not finished by its deadline. Runs on the main thread.
+         */
+        private void onDeadline() {
+            final MediaProtocolCommand sent = mSent;
+            if (!fail(sent, new TimeoutException(mType + " timed out after "
+                    + mPolicy.mDeadlineMs + " ms")) || sent == null) {
+                return;
+            }
+            try {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mStream.cancelCommand(sent);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Shut down; nothing waits for the response anymore.
+            }
+        }
+
+        private void complete(MediaProtocolCommand cmd) {
+            if (!finish()) {
+                return;
+            }
+            CommandStats.getInstance().record(mStats, mStartNanos, cmd == null || !cmd.hasError());
+            if (mCallback != null) {
+                postCompleted(mCallback, cmd);
+            }
+        }
+
+        /**
+         * Fails the command unless it has already finished, and returns whether it did.
+         */
+        private boolean fail(MediaProtocolCommand cmd, Exception e) {
+            if (!finish()) {
+                return false;
+            }
+            // Superseded commands say nothing about the receiver, so they are not recorded.
+            if (!(e instanceof CancellationException)) {
+                if (mAttempts == 0) {
+                    mStats.getHistogram().recordError();
+                } else {
+                    CommandStats.getInstance().record(mStats, mStartNanos, false);
+                }
+            }
+            postFailure(mCallback, cmd, e);
+            return true;
+        }
+
+        private boolean finish() {
+            if (!mFinished.compareAndSet(false, true)) {
+                return false;
+            }
+            mInFlight.remove(this);
+            mMainHandler.removeCallbacks(mDeadlineRunnable);
+            return true;
+        }
+    }
+
+    /**
+     * The state of one single-flight command type. Guarded by the executor.
+     */
+    private class SingleFlight {
+        private SharedCallback mCurrent;
+        private int mInFlight;
+        private int mPeakInFlight;
+        private long mSent;
+        private long mShared;
+
+        /**
+         * Adds the callback to the outstanding command for the current stream and returns true,
+         * or returns false if there is none.
+         */
+        boolean join(Callback callback) {
+            if (mCurrent == null || mCurrent.mStream != mMessageStream) {
+                return false;
+            }
+            mCurrent.mCallbacks.add(callback);
+            mShared++;
+            return true;
+        }
+
+        /**
+         * Returns the callback for a new outstanding command, which passes the result on to the
+         * given callback and every one joining it later.
+         */
+        Callback start(Callback callback) {
+            mCurrent = new SharedCallback(this, callback);
+            mInFlight++;
+            mPeakInFlight = Math.max(mPeakInFlight, mInFlight);
+            mSent++;
+            return mCurrent;
+        }
+    }
+
+    /**
+     * Hands the result of a single-flight command to everyone who submitted it. Runs on the main
+     * thread.
+     */
+    private class SharedCallback implements Callback {
+        private final SingleFlight mFlight;
+        private final MediaProtocolMessageStream mStream = mMessageStream;
+        private final long mStartNanos = System.nanoTime();
+        // Guarded by the executor; no longer changes once finished.
+        private final List<Callback> mCallbacks = new ArrayList<Callback>();
+
+        SharedCallback(SingleFlight flight, Callback callback) {
+            mFlight = flight;
+            mCallbacks.add(callback);
+        }
+
+        @Override
+        public void onCompleted(MediaProtocolCommand command) {
+            for (Callback callback : finish()) {
+                if (callback != null) {
+                    callback.onCompleted(command);
+                }
+            }
+        }
+
+        @Override
+        public void onFailed(MediaProtocolCommand command, Exception e) {
+            for (Callback callback : finish()) {
+                if (callback != null) {
+                    callback.onFailed(command, e);
+                } else if (e != null && !(e instanceof CancellationException)) {
+                    Log.e(TAG, "Failed to send command", e);
+                }
+            }
+        }
+
+        private List<Callback> finish() {
+            synchronized (CastCommandExecutor.this) {
+                if (mFlight.mCurrent == this) {
+                    mFlight.mCurrent = null;
+                }
+                mFlight.mInFlight--;
+                return mCallbacks;
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.session;
+
+import java.io.IOException;
+
+/**
+ * A connection to a receiver application, through which media protocol messages reach it. It is
+ * either backed by an ApplicationSession with a real device ({@link SessionTransport}) or by a
+ * simulated receiver, so the code driving playback does not depend on which one it talks to.
+ * Methods and listener callbacks run on the main thread.
+ */
+public interface CastTransport {
+
+    /**
+     * Receives the connection events of a transport.
+     */
+    interface Listener {
+        /**
+         * Called once the receiver application runs and commands can be sent through the given
+         * stream.
+         */
+        void onConnected(StatusMessageStream stream);
+
+        /**
+         * Called if connecting or reconnecting failed.
+         */
+        void onConnectFailed(String error);
+
+        /**
+         * Called when the connection has ended. The error is null if it was ended on purpose.
+         */
+        void onDisconnected(String error);
+    }
+
+    /**
+     * Returns an identifier of the device that stays the same across connections.
+     */
+    String getDeviceId();
+
+    /**
+     * Returns the name of the device to show to users.
+     */
+    String getDeviceName();
+
+    void setListener(Listener listener);
+
+    /**
+     * Launches the receiver application and connects to it.
+     */
+    void connect() throws IOException;
+
+    /**
+     * Returns whether {@link #reconnect} can rejoin the receiver application launched by an
+     * earlier connection instead of launching it again.
+     */
+    boolean canReconnect();
+
+    /**
+     * Rejoins the receiver application launched by an earlier connection.
+     */
+    void reconnect() throws IOException;
+
+    /**
+     * Returns whether the transport is connecting or connected, as opposed to not yet started or
+     * ended.
+     */
+    boolean isActive();
+
+    /**
+     * Ends the connection. If stopApplication is set the receiver application is stopped too;
+     * otherwise it keeps running and can be rejoined.
+     */
+    void disconnect(boolean stopApplication) throws IOException;
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.session;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.cast.MediaProtocolCommand;
+import com.google.cast.MediaProtocolMessageStream;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Turns bursts of volume key presses and seek taps into single receiver commands. A local target
+ * volume and a seek offset accumulate the input, and only the latest target is sent, either when
+ * the input has been quiet for a short window or when the previous command of the same kind has
+ * completed. All methods must be called on the main thread.
+ */
+public class CommandCoalescer {
+
+    private static final String TAG = CommandCoalescer.class.getSimpleName();
+
+    /** How long input must be quiet before the accumulated target is sent. */
+    public static final long COALESCE_WINDOW_MS = 150;
+
+    /**
+     * Receives each settled target as it is sent, so it can be passed on to other receivers.
+     */
+    public interface Listener {
+        void onVolumeFlushed(double volume);
+
+        void onSeekFlushed(double position);
+    }
+
+    private final Handler mHandler;
+    private final CastCommandExecutor mCommandExecutor;
+    private Listener mListener;
+
+    private double mTargetVolume = -1;
+    private boolean mVolumePending;
+    private boolean mVolumeInFlight;
+
+    private double mSeekBase = -1;
+    private double mSeekOffset;
+    private boolean mSeekPending;
+    private boolean mSeekInFlight;
+
+    // Incremented by reset() so that callbacks of commands sent before it are ignored.
+    private int mGeneration;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushVolume();
+            flushSeek();
+        }
+    };
+
+    /**
+     * Creates a new CommandCoalescer which sends its commands through the given executor.
+     */
+    public CommandCoalescer(CastCommandExecutor commandExecutor) {
+        mHandler = new Handler(Looper.getMainLooper());
+        mCommandExecutor = commandExecutor;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Moves the target volume by the given amount, clamped to [0, 1], and returns the new target.
+     */
+    public double adjustVolume(double delta) {
+        MediaProtocolMessageStream stream = mCommandExecutor.getMessageStream();
+        if (stream == null) {
+            return 0;
+        }
+        double base = mTargetVolume >= 0 ? mTargetVolume : stream.getVolume();
+        mTargetVolume = Math.max(0.0, Math.min(1.0, base + delta));
+        mVolumePending = true;
+        scheduleFlush();
+        return mTargetVolume;
+    }
+
+    /**
+     * Moves the seek target by the given number of seconds relative to the given position, which
+     * is only used as the base for the first tap of a burst. Returns the new target position.
+     */
+    public double seekBy(double currentPosition, double seconds) {
+        if (mSeekBase < 0) {
+            mSeekBase = currentPosition;
+            mSeekOffset = 0;
+        }
+        mSeekOffset += seconds;
+        mSeekPending = true;
+        scheduleFlush();
+        return seekTarget();
+    }
+
+    /**
+     * Returns the position the next seek will land on, or -1 if no seek is pending.
+     */
+    public double getPendingSeekTarget() {
+        return mSeekBase < 0 ? -1 : seekTarget();
+    }
+
+    /**
+     * Drops all pending input, e.g. when the session changes.
+     */
+    public void reset() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mGeneration++;
+        mTargetVolume = -1;
+        mVolumePending = false;
+        mVolumeInFlight = false;
+        mSeekBase = -1;
+        mSeekOffset = 0;
+        mSeekPending = false;
+        mSeekInFlight = false;
+    }
+
+    private double seekTarget() {
+        return Math.max(0.0, mSeekBase + mSeekOffset);
+    }
+
+    private void scheduleFlush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mHandler.postDelayed(mFlushRunnable, COALESCE_WINDOW_MS);
+    }
+
+    private void flushVolume() {
+        if (!mVolumePending || mVolumeInFlight) {
+            return;
+        }
+        mVolumePending = false;
+        mVolumeInFlight = true;
+        final int generation = mGeneration;
+        mCommandExecutor.setVolume(mTargetVolume, new CastCommandExecutor.Callback() {
+            @Override
+            public void onCompleted(MediaProtocolCommand command) {
+                onVolumeSettled(generation);
+            }
+
+            @Override
+            public void onFailed(MediaProtocolCommand command, Exception e) {
+                if (!(e instanceof CancellationException)) {
+                    Log.e(TAG, "Problem sending Set Volume", e);
+                }
+                onVolumeSettled(generation);
+            }
+        });
+        if (mListener != null) {
+            mListener.onVolumeFlushed(mTargetVolume);
+        }
+    }
+
+    private void onVolumeSettled(int generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        mVolumeInFlight = false;
+        if (mVolumePending) {
+            flushVolume();
+        } else {
+            // Later presses start again from the volume reported by the receiver.
+            mTargetVolume = -1;
+        }
+    }
+
+    private void flushSeek() {
+        if (!mSeekPending || mSeekInFlight) {
+            return;
+        }
+        final double target = seekTarget();
+        mSeekPending = false;
+        mSeekInFlight = true;
+        mSeekBase = target;
+        mSeekOffset = 0;
+        final int generation = mGeneration;
+        mCommandExecutor.playFrom(target, new CastCommandExecutor.Callback() {
+            @Override
+            public void onCompleted(MediaProtocolCommand command) {
+                onSeekSettled(generation);
+            }
+
+            @Override
+            public void onFailed(MediaProtocolCommand command, Exception e) {
+                if (!(e instanceof CancellationException)) {
+                    Log.e(TAG, "Failed to send seek command.", e);
+                }
+                onSeekSettled(generation);
+            }
+        });
+        if (mListener != null) {
+            mListener.onSeekFlushed(target);
+        }
+    }
+
+    private void onSeekSettled(int generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        mSeekInFlight = false;
+        if (mSeekPending) {
+            flushSeek();
+        } else {
+            mSeekBase = -1;
+            mSeekOffset = 0;
+        }
+    }
+}
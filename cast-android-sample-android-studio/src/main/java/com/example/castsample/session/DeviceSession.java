@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.session;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.cast.MediaProtocolMessageStream.PlayerState;
+
+/**
+ * One receiver controlled by a MultiSessionManager: its transport, message stream and
+ * command thread, together with the last status it reported. Every device has a command thread of
+ * its own, so a receiver that is slow to accept commands only delays itself. Apart from
+ * {@link #getName}, all methods must be called on the main thread.
+ */
+public class DeviceSession {
+
+    /**
+     * Receives the status updates of a device on the main thread.
+     */
+    interface Listener {
+        void onStatusUpdated(DeviceSession device);
+    }
+
+    private final String mName;
+    private final CastTransport mTransport;
+    private final CastCommandExecutor mExecutor;
+    private final Handler mMainHandler;
+    private final Listener mListener;
+    private StatusMessageStream mMessageStream;
+    private Exception mLastError;
+    private long mLastLatencyMs = -1;
+
+    private final Runnable mStatusRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mListener.onStatusUpdated(DeviceSession.this);
+        }
+    };
+
+    private final StatusMessageStream.Listener mStreamListener =
+            new StatusMessageStream.Listener() {
+        @Override
+        public void onStatusUpdated(StatusMessageStream stream) {
+            // Coalesce bursts of updates into one main-thread callback.
+            mMainHandler.removeCallbacks(mStatusRunnable);
+            mMainHandler.post(mStatusRunnable);
+        }
+    };
+
+    DeviceSession(String name, CastTransport transport, Listener listener) {
+        mName = name;
+        mTransport = transport;
+        mListener = listener;
+        mExecutor = new CastCommandExecutor(CastCommandExecutor.class.getSimpleName() + "-" + name);
+        mExecutor.setDeviceName(name);
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns the transport of this device, or null if its stream was attached directly.
+     */
+    public CastTransport getTransport() {
+        return mTransport;
+    }
+
+    /**
+     * Returns the message stream of this device, or null while it is not connected.
+     */
+    public StatusMessageStream getMessageStream() {
+        return mMessageStream;
+    }
+
+    public boolean isConnected() {
+        return mMessageStream != null;
+    }
+
+    /**
+     * Returns the receiver's player state as last reported, or null if it has not reported yet.
+     */
+    public PlayerState getPlayerState() {
+        return mMessageStream != null ? mMessageStream.getPlaybackClock().getPlayerState() : null;
+    }
+
+    /**
+     * Returns the receiver's estimated current position, in seconds.
+     */
+    public double getPosition() {
+        return mMessageStream != null ? mMessageStream.getPlaybackClock().getPosition() : 0;
+    }
+
+    /**
+     * Returns the exception of the last command that failed on this device, or null if the last
+     * command succeeded.
+     */
+    public Exception getLastError() {
+        return mLastError;
+    }
+
+    /**
+     * Returns the latency of the last completed command in milliseconds, or -1 if there is none.
+     */
+    public long getLastLatencyMs() {
+        return mLastLatencyMs;
+    }
+
+    CastCommandExecutor getExecutor() {
+        return mExecutor;
+    }
+
+    void attach(StatusMessageStream messageStream) {
+        if (mMessageStream != null) {
+            mMessageStream.setListener(null);
+        }
+        mMessageStream = messageStream;
+        mExecutor.setMessageStream(messageStream);
+        if (messageStream != null) {
+            messageStream.setListener(mStreamListener);
+        }
+    }
+
+    void onCommandFinished(Exception error, long latencyMs) {
+        mLastError = error;
+        if (error == null) {
+            mLastLatencyMs = latencyMs;
+        }
+    }
+
+    void release() {
+        attach(null);
+        mMainHandler.removeCallbacks(mStatusRunnable);
+        mExecutor.shutdown();
+    }
+}
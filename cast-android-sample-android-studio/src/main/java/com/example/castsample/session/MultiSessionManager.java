@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.session;
+
+import android.util.Log;
+
+import com.google.cast.CastContext;
+import com.google.cast.CastDevice;
+import com.google.cast.ContentMetadata;
+import com.google.cast.MediaProtocolCommand;
+import com.google.cast.MediaProtocolMessageStream;
+import com.google.cast.MediaProtocolMessageStream.PlayerState;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Controls several receivers at once. Every command is handed to all connected devices in
+ * parallel, each on its own command thread, so one slow or unreachable receiver never holds up the
+ * others; the outcome is reported per device and once more when all devices are done. Status is
+ * kept per device and can be merged into a single summary. CastSessionService keeps the screens a
+ * session has been extended to in one. All methods must be called on the main thread, and all
+ * callbacks are delivered on it.
+ */
+public class MultiSessionManager {
+
+    private static final String TAG = MultiSessionManager.class.getSimpleName();
+
+    /**
+     * Receives the connection and status changes of the managed devices.
+     */
+    public interface Listener {
+        void onDeviceConnectionChanged(DeviceSession device);
+
+        void onDeviceStatusChanged(DeviceSession device);
+    }
+
+    /**
+     * Receives the outcome of a command sent to all devices.
+     */
+    public interface FanOutCallback {
+        /**
+         * Called for each device once it has completed or failed the command. The latency is
+         * measured from the moment the command was issued.
+         */
+        void onDeviceCompleted(DeviceSession device, boolean success, long latencyMs);
+
+        /**
+         * Called once after every device has reported.
+         */
+        void onFanOutCompleted(int succeeded, int failed);
+    }
+
+    /**
+     * A summary of the status of all managed devices.
+     */
+    public static class MergedStatus {
+        public int playing;
+        public int stopped;
+        public int idle;
+        /** Devices that are not connected or have not reported status yet. */
+        public int unknown;
+        /** The smallest and largest position among playing devices, in seconds. */
+        public double minPosition;
+        public double maxPosition;
+
+        /**
+         * Returns how far apart the playing devices are, in seconds.
+         */
+        public double getDrift() {
+            return maxPosition - minPosition;
+        }
+    }
+
+    private final Map<String, DeviceSession> mDevices = new LinkedHashMap<String, DeviceSession>();
+    private Listener mListener;
+
+    private final DeviceSession.Listener mDeviceListener = new DeviceSession.Listener() {
+        @Override
+        public void onStatusUpdated(DeviceSession device) {
+            if (mListener != null && mDevices.get(device.getName()) == device) {
+                mListener.onDeviceStatusChanged(device);
+            }
+        }
+    };
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Returns the managed devices in the order they were added.
+     */
+    public List<DeviceSession> getDevices() {
+        return new ArrayList<DeviceSession>(mDevices.values());
+    }
+
+    public DeviceSession getDevice(String name) {
+        return mDevices.get(name);
+    }
+
+    /**
+     * Starts a session with the given receiver application on the given device and adds the
+     * device. Commands reach it once the session has started.
+     */
+    public DeviceSession connect(CastContext castContext, CastDevice castDevice, String appName) {
+        return connect(new SessionTransport(castContext, castDevice, appName, 0));
+    }
+
+    /**
+     * Connects the given transport and adds its device. Commands reach it once the transport has
+     * connected.
+     */
+    public DeviceSession connect(CastTransport transport) {
+        DeviceSession device = add(new DeviceSession(transport.getDeviceId(), transport,
+                mDeviceListener));
+        follow(device, transport);
+        try {
+            transport.connect();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to connect to " + device.getName(), e);
+        }
+        return device;
+    }
+
+    /**
+     * Adds the device of a transport that has already connected with the given stream, such as a
+     * session handed over by another owner. The manager takes over the transport's events.
+     */
+    public DeviceSession adopt(CastTransport transport, StatusMessageStream messageStream) {
+        DeviceSession device = add(new DeviceSession(transport.getDeviceId(), transport,
+                mDeviceListener));
+        follow(device, transport);
+        onStreamChanged(device, messageStream);
+        return device;
+    }
+
+    /**
+     * Adds a device whose message stream is already attached to a receiver, such as a simulated
+     * one.
+     */
+    public DeviceSession connect(String name, StatusMessageStream messageStream) {
+        DeviceSession device = add(new DeviceSession(name, null, mDeviceListener));
+        onStreamChanged(device, messageStream);
+        return device;
+    }
+
+    /**
+     * Ends the session with the given device and stops managing it. The receiver application
+     * keeps running.
+     */
+    public void disconnect(DeviceSession device) {
+        disconnect(device, false);
+    }
+
+    /**
+     * Ends the session with the given device, optionally stopping the receiver application, and
+     * stops managing it.
+     */
+    public void disconnect(DeviceSession device, boolean stopApplication) {
+        if (mDevices.get(device.getName()) != device) {
+            return;
+        }
+        mDevices.remove(device.getName());
+        release(device, stopApplication);
+        if (mListener != null) {
+            mListener.onDeviceConnectionChanged(device);
+        }
+    }
+
+    public void disconnectAll() {
+        disconnectAll(false);
+    }
+
+    /**
+     * Ends the sessions with all devices, optionally stopping their receiver applications.
+     */
+    public void disconnectAll(boolean stopApplication) {
+        for (DeviceSession device : getDevices()) {
+            disconnect(device, stopApplication);
+        }
+    }
+
+    /**
+     * Returns the number of devices that are connected at the moment.
+     */
+    public int getConnectedCount() {
+        int count = 0;
+        for (DeviceSession device : mDevices.values()) {
+            if (device.isConnected()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void loadMedia(final String url, final ContentMetadata metadata,
+            final boolean autoPlay, FanOutCallback callback) {
+        fanOut("loadMedia", new CastCommandExecutor.Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                return stream.loadMedia(url, metadata, autoPlay);
+            }
+        }, callback);
+    }
+
+    public void play(FanOutCallback callback) {
+        fanOut("play", new CastCommandExecutor.Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                return stream.play();
+            }
+        }, callback);
+    }
+
+    public void resume(FanOutCallback callback) {
+        fanOut("resume", new CastCommandExecutor.Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                return stream.resume();
+            }
+        }, callback);
+    }
+
+    public void stop(FanOutCallback callback) {
+        fanOut("stop", new CastCommandExecutor.Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                stream.stop();
+                return null;
+            }
+        }, callback);
+    }
+
+    public void playFrom(final double position, FanOutCallback callback) {
+        fanOut("playFrom", new CastCommandExecutor.Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                return stream.playFrom(position);
+            }
+        }, callback);
+    }
+
+    public void setVolume(final double volume, FanOutCallback callback) {
+        fanOut("setVolume", new CastCommandExecutor.Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                return stream.setVolume(volume);
+            }
+        }, callback);
+    }
+
+    public void setMuted(final boolean muted, FanOutCallback callback) {
+        fanOut("setMuted", new CastCommandExecutor.Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                return stream.setMuted(muted);
+            }
+        }, callback);
+    }
+
+    public void requestStatus(FanOutCallback callback) {
+        fanOut("requestStatus", new CastCommandExecutor.Command() {
+            @Override
+            public MediaProtocolCommand send(MediaProtocolMessageStream stream)
+                    throws IOException {
+                return stream.requestStatus();
+            }
+        }, callback);
+    }
+
+    /**
+     * Sends the given command to every connected device. The callback may be null.
+     */
+    public void fanOut(CastCommandExecutor.Command command, FanOutCallback callback) {
+        fanOut("command", command, callback);
+    }
+
+    /**
+     * Sends the given command to every connected device, recording its latency on each under the
+     * given type. The callback may be null.
+     */
+    public void fanOut(String type, CastCommandExecutor.Command command,
+            final FanOutCallback callback) {
+        final List<DeviceSession> targets = new ArrayList<DeviceSession>();
+        for (DeviceSession device : mDevices.values()) {
+            if (device.isConnected()) {
+                targets.add(device);
+            }
+        }
+        if (targets.isEmpty()) {
+            if (callback != null) {
+                callback.onFanOutCompleted(0, 0);
+            }
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        // Results arrive on the main thread, so plain counters suffice.
+        final int[] results = new int[2];
+        for (final DeviceSession device : targets) {
+            device.getExecutor().submit(type, command, new CastCommandExecutor.Callback() {
+                @Override
+                public void onCompleted(MediaProtocolCommand cmd) {
+                    finish(true, null);
+                }
+
+                @Override
+                public void onFailed(MediaProtocolCommand cmd, Exception e) {
+                    finish(false,
+                            e != null ? e : new CancellationException("Cancelled by receiver"));
+                }
+
+                private void finish(boolean success, Exception error) {
+                    long latencyMs = (System.nanoTime() - startNanos) / 1000000;
+                    device.onCommandFinished(error, latencyMs);
+                    results[success ? 0 : 1]++;
+                    if (callback != null) {
+                        callback.onDeviceCompleted(device, success, latencyMs);
+                        if (results[0] + results[1] == targets.size()) {
+                            callback.onFanOutCompleted(results[0], results[1]);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Summarizes the last reported status of all devices.
+     */
+    public MergedStatus getMergedStatus() {
+        MergedStatus status = new MergedStatus();
+        boolean first = true;
+        for (DeviceSession device : mDevices.values()) {
+            PlayerState state = device.getPlayerState();
+            if (state == null) {
+                status.unknown++;
+                continue;
+            }
+            switch (state) {
+                case PLAYING:
+                    status.playing++;
+                    double position = device.getPosition();
+                    status.minPosition = first ? position : Math.min(status.minPosition, position);
+                    status.maxPosition = first ? position : Math.max(status.maxPosition, position);
+                    first = false;
+                    break;
+                case STOPPED:
+                    status.stopped++;
+                    break;
+                default:
+                    status.idle++;
+                    break;
+            }
+        }
+        return status;
+    }
+
+    private DeviceSession add(DeviceSession device) {
+        DeviceSession previous = mDevices.put(device.getName(), device);
+        if (previous != null) {
+            release(previous, false);
+        }
+        return device;
+    }
+
+    /**
+     * Keeps the stream of the given device in step with the connection of its transport.
+     */
+    private void follow(final DeviceSession device, CastTransport transport) {
+        transport.setListener(new CastTransport.Listener() {
+            @Override
+            public void onConnected(StatusMessageStream stream) {
+                onStreamChanged(device, stream);
+            }
+
+            @Override
+            public void onConnectFailed(String error) {
+                Log.e(TAG, "Connecting to " + device.getName() + " failed: " + error);
+                onStreamChanged(device, null);
+            }
+
+            @Override
+            public void onDisconnected(String error) {
+                Log.i(TAG, "Disconnected from " + device.getName() + ": " + error);
+                onStreamChanged(device, null);
+            }
+        });
+    }
+
+    private void onStreamChanged(DeviceSession device, StatusMessageStream messageStream) {
+        if (mDevices.get(device.getName()) != device) {
+            return;
+        }
+        device.attach(messageStream);
+        if (mListener != null) {
+            mListener.onDeviceConnectionChanged(device);
+        }
+    }
+
+    private static void release(DeviceSession device, boolean stopApplication) {
+        CastTransport transport = device.getTransport();
+        device.release();
+        if (transport != null && transport.isActive()) {
+            transport.setListener(null);
+            try {
+                transport.disconnect(stopApplication);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to end session on " + device.getName(), e);
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "Failed to end session on " + device.getName(), e);
+            }
+        }
+    }
+}
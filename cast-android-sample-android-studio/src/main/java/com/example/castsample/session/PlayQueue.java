@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.session;
+
+import com.example.castsample.CastMedia;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An ordered list of media to play one after another, with a cursor on the item currently
+ * playing. Items can be added, moved and removed at any time. Removing the current item does not
+ * interrupt it; the queue simply continues with the item that followed it. With repeat enabled
+ * the queue starts over after its last item. All methods must be called on the main thread.
+ */
+public class PlayQueue {
+
+    /**
+     * Receives a callback whenever the items or the current position change.
+     */
+    public interface Listener {
+        void onQueueChanged(PlayQueue queue);
+    }
+
+    private final List<CastMedia> mItems = new ArrayList<CastMedia>();
+    private final List<Listener> mListeners = new ArrayList<Listener>();
+    // Position of the current item, or of the item that followed it if it has been removed.
+    private int mCurrent = -1;
+    private boolean mCurrentRemoved;
+    private boolean mRepeat;
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    public int size() {
+        return mItems.size();
+    }
+
+    public CastMedia get(int position) {
+        return mItems.get(position);
+    }
+
+    /**
+     * Returns the position of the current item, or -1 if there is none.
+     */
+    public int getCurrentPosition() {
+        return mCurrentRemoved ? -1 : mCurrent;
+    }
+
+    /**
+     * Returns the item currently playing, or null if there is none or it has been removed.
+     */
+    public CastMedia getCurrent() {
+        int position = getCurrentPosition();
+        return position >= 0 ? mItems.get(position) : null;
+    }
+
+    /**
+     * Returns the item that {@link #advance} would move to, or null if the queue would end.
+     */
+    public CastMedia peekNext() {
+        int position = nextPosition();
+        return position >= 0 ? mItems.get(position) : null;
+    }
+
+    public boolean isRepeat() {
+        return mRepeat;
+    }
+
+    public void setRepeat(boolean repeat) {
+        mRepeat = repeat;
+        notifyChanged();
+    }
+
+    /**
+     * Appends the given media to the end of the queue.
+     */
+    public void enqueue(CastMedia media) {
+        insert(mItems.size(), media);
+        notifyChanged();
+    }
+
+    /**
+     * Inserts the given media right after the current item and makes it the current item.
+     */
+    public void playNow(CastMedia media) {
+        int position = mCurrentRemoved ? mCurrent : mCurrent + 1;
+        insert(position, media);
+        mCurrent = position;
+        mCurrentRemoved = false;
+        notifyChanged();
+    }
+
+    /**
+     * Moves the item at position from to position to.
+     */
+    public void move(int from, int to) {
+        if (from == to) {
+            return;
+        }
+        boolean movingCurrent = from == getCurrentPosition();
+        CastMedia media = removeAt(from);
+        insert(to, media);
+        if (movingCurrent) {
+            mCurrent = to;
+            mCurrentRemoved = false;
+        }
+        notifyChanged();
+    }
+
+    /**
+     * Removes the item at the given position.
+     */
+    public void remove(int position) {
+        removeAt(position);
+        notifyChanged();
+    }
+
+    /**
+     * Removes all items.
+     */
+    public void clear() {
+        mItems.clear();
+        mCurrent = -1;
+        mCurrentRemoved = false;
+        notifyChanged();
+    }
+
+    /**
+     * Makes the next item the current one and returns it, or returns null and leaves the queue
+     * unchanged if it has ended.
+     */
+    public CastMedia advance() {
+        int position = nextPosition();
+        if (position < 0) {
+            return null;
+        }
+        mCurrent = position;
+        mCurrentRemoved = false;
+        notifyChanged();
+        return mItems.get(position);
+    }
+
+    private int nextPosition() {
+        int position = mCurrentRemoved ? mCurrent : mCurrent + 1;
+        if (position >= mItems.size()) {
+            position = mRepeat && !mItems.isEmpty() ? 0 : -1;
+        }
+        return position;
+    }
+
+    private void insert(int position, CastMedia media) {
+        mItems.add(position, media);
+        // An item inserted where a removed current item used to be becomes the next one.
+        if (position < mCurrent || (position == mCurrent && !mCurrentRemoved)) {
+            mCurrent++;
+        }
+    }
+
+    private CastMedia removeAt(int position) {
+        CastMedia media = mItems.remove(position);
+        if (position < mCurrent) {
+            mCurrent--;
+        } else if (position == mCurrent && !mCurrentRemoved) {
+            mCurrentRemoved = true;
+        }
+        return media;
+    }
+
+    private void notifyChanged() {
+        for (Listener listener : new ArrayList<Listener>(mListeners)) {
+            listener.onQueueChanged(this);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.session;
+
+import android.os.SystemClock;
+
+import com.google.cast.MediaProtocolMessageStream.PlayerState;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A local estimate of the receiver's playback position. The clock is anchored on the last reported
+ * position and player state and advances in real time while the player is progressing, so the UI
+ * can show a smooth position without a status round trip per refresh. Small differences between
+ * the estimate and a fresh report are slewed out over a short period instead of jumping.
+ */
+public class PlaybackClock {
+
+    /** Differences larger than this, in seconds, are applied at once rather than slewed. */
+    private static final double SNAP_THRESHOLD = 2.0;
+    /** How long a small correction takes to be absorbed, in milliseconds. */
+    private static final long SLEW_DURATION_MS = 500;
+
+    /**
+     * The last reported state and position, and when it was reported.
+     */
+    private static final class Anchor {
+        static final Anchor EMPTY = new Anchor(null, false, 0, 0, 0, 0);
+
+        final PlayerState mState;
+        final boolean mProgressing;
+        final double mPosition;
+        final long mTime;
+        final double mDuration;
+        final double mCorrection;
+
+        Anchor(PlayerState state, boolean progressing, double position, long time,
+                double duration, double correction) {
+            mState = state;
+            mProgressing = progressing;
+            mPosition = position;
+            mTime = time;
+            mDuration = duration;
+            mCorrection = correction;
+        }
+
+        boolean isAdvancing() {
+            return mState == PlayerState.PLAYING && mProgressing;
+        }
+
+        double positionAt(long now) {
+            if (!isAdvancing()) {
+                return mPosition;
+            }
+            long elapsed = now - mTime;
+            double position = mPosition + elapsed / 1000.0;
+            if (elapsed < SLEW_DURATION_MS) {
+                position += mCorrection * (SLEW_DURATION_MS - elapsed) / SLEW_DURATION_MS;
+            }
+            if (mDuration > 0 && position > mDuration) {
+                position = mDuration;
+            }
+            return Math.max(0.0, position);
+        }
+    }
+
+    private final AtomicReference<Anchor> mAnchor = new AtomicReference<Anchor>(Anchor.EMPTY);
+
+    /**
+     * Re-anchors the clock on a fresh status report.
+     */
+    public void update(PlayerState state, boolean progressing, double position,
+            double duration) {
+        long now = SystemClock.elapsedRealtime();
+        Anchor current;
+        Anchor next;
+        do {
+            current = mAnchor.get();
+            double error = position - current.positionAt(now);
+            boolean continuous = state == current.mState && progressing && current.mProgressing;
+            double correction = continuous && Math.abs(error) < SNAP_THRESHOLD ? -error : 0;
+            next = new Anchor(state, progressing, position, now, duration, correction);
+        } while (!mAnchor.compareAndSet(current, next));
+    }
+
+    /**
+     * Moves the clock to the given position without changing its state, e.g. right after a seek
+     * has been requested.
+     */
+    public void seekTo(double position) {
+        long now = SystemClock.elapsedRealtime();
+        Anchor current;
+        do {
+            current = mAnchor.get();
+        } while (!mAnchor.compareAndSet(current, new Anchor(current.mState,
+                current.mProgressing, position, now, current.mDuration, 0)));
+    }
+
+    /**
+     * Clears the clock, e.g. when the session ends.
+     */
+    public void reset() {
+        mAnchor.set(Anchor.EMPTY);
+    }
+
+    /**
+     * Returns the estimated playback position in seconds.
+     */
+    public double getPosition() {
+        return mAnchor.get().positionAt(SystemClock.elapsedRealtime());
+    }
+
+    public double getDuration() {
+        return mAnchor.get().mDuration;
+    }
+
+    public PlayerState getPlayerState() {
+        return mAnchor.get().mState;
+    }
+
+    /**
+     * Returns whether the estimated position currently changes over time.
+     */
+    public boolean isAdvancing() {
+        return mAnchor.get().isAdvancing();
+    }
+}
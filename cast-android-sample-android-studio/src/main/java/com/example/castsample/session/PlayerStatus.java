@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.session;
+
+import com.google.cast.MediaProtocolMessageStream;
+import com.google.cast.MediaProtocolMessageStream.PlayerState;
+
+/**
+ * The player status from one status report of the receiver. Immutable, so it can be handed to any
+ * thread and never mixes fields of two reports.
+ */
+public final class PlayerStatus {
+
+    private final PlayerState mPlayerState;
+    private final boolean mProgressing;
+    private final String mContentId;
+    private final String mTitle;
+    private final double mPosition;
+    private final double mDuration;
+    private final double mVolume;
+    private final boolean mMuted;
+
+    private PlayerStatus(MediaProtocolMessageStream stream) {
+        mPlayerState = stream.getPlayerState();
+        mProgressing = stream.isStreamProgressing();
+        mContentId = stream.getContentId();
+        mTitle = stream.getTitle();
+        mPosition = stream.getStreamPosition();
+        mDuration = stream.getStreamDuration();
+        mVolume = stream.getVolume();
+        mMuted = stream.isMuted();
+    }
+
+    /**
+     * Returns the status the given stream has just received. Must be called on the thread the
+     * stream receives messages on, before the next message can arrive.
+     */
+    static PlayerStatus from(MediaProtocolMessageStream stream) {
+        return new PlayerStatus(stream);
+    }
+
+    public PlayerState getPlayerState() {
+        return mPlayerState;
+    }
+
+    public boolean isProgressing() {
+        return mProgressing;
+    }
+
+    public String getContentId() {
+        return mContentId;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    /**
+     * Returns the reported position in seconds. The stream's PlaybackClock estimates the current
+     * one.
+     */
+    public double getPosition() {
+        return mPosition;
+    }
+
+    public double getDuration() {
+        return mDuration;
+    }
+
+    public double getVolume() {
+        return mVolume;
+    }
+
+    public boolean isMuted() {
+        return mMuted;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.session;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.castsample.CastMedia;
+import com.google.cast.ContentMetadata;
+import com.google.cast.MediaProtocolMessageStream.PlayerState;
+
+/**
+ * Moves a PlayQueue on to its next item when the receiver finishes the current one.
+ * <p>
+ * The metadata for the next item is built as soon as it is known, so advancing only has to send
+ * the load command. Status is normally polled every few seconds during playback, which would
+ * leave a gap of up to one poll interval after an item ends; instead, the PlaybackClock's estimate
+ * of the remaining time is used to switch the StatusScheduler to fast polling just before the end,
+ * so completion is noticed within a fraction of a second. All methods must be called on the main
+ * thread.
+ */
+public class QueueAdvancer implements PlayQueue.Listener {
+
+    /** An item counts as finished if playback stops this close to its end, in seconds. */
+    private static final double END_TOLERANCE_SECONDS = 1.0;
+    /** How long before the predicted end fast polling is requested, in milliseconds. */
+    private static final long END_LEAD_MS = 1500;
+
+    /**
+     * Loads the media the queue has advanced to.
+     */
+    public interface Callback {
+        void onAdvance(CastMedia media, ContentMetadata metadata);
+    }
+
+    private final PlayQueue mQueue;
+    private final StatusScheduler mStatusScheduler;
+    private final Callback mCallback;
+    private final Handler mHandler;
+    private StatusMessageStream mMessageStream;
+    // Whether the current item has been reported playing since it was loaded.
+    private boolean mPlaying;
+    private CastMedia mStagedMedia;
+    private ContentMetadata mStagedMetadata;
+
+    private final Runnable mNearEndRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mStatusScheduler.requestFastUpdates();
+        }
+    };
+
+    public QueueAdvancer(PlayQueue queue, StatusScheduler statusScheduler, Callback callback) {
+        mQueue = queue;
+        mStatusScheduler = statusScheduler;
+        mCallback = callback;
+        mHandler = new Handler(Looper.getMainLooper());
+        mQueue.addListener(this);
+        onQueueChanged(mQueue);
+    }
+
+    /**
+     * Builds the metadata sent along with the load command for the given media.
+     */
+    public static ContentMetadata createMetadata(CastMedia media) {
+        ContentMetadata metadata = new ContentMetadata();
+        metadata.setTitle(media.getTitle());
+        String imageUrl = media.getImageUrl();
+        metadata.setImageUrl(imageUrl != null ? Uri.parse(imageUrl) : null);
+        return metadata;
+    }
+
+    /**
+     * Attaches the message stream of the current session, or detaches it if null.
+     */
+    public void setMessageStream(StatusMessageStream messageStream) {
+        mMessageStream = messageStream;
+        onLoadStarted();
+    }
+
+    /**
+     * Must be called whenever new media is loaded, so the end of the previous item is not taken
+     * for the end of the new one.
+     */
+    public void onLoadStarted() {
+        mPlaying = false;
+        mHandler.removeCallbacks(mNearEndRunnable);
+    }
+
+    /**
+     * Checks fresh status for the end of the current item.
+     */
+    public void onStatusUpdated() {
+        if (mMessageStream == null) {
+            return;
+        }
+        PlaybackClock clock = mMessageStream.getPlaybackClock();
+        PlayerState state = clock.getPlayerState();
+        if (state == PlayerState.PLAYING) {
+            mPlaying = true;
+            scheduleNearEnd(clock);
+        } else if (mPlaying && isFinished(state, clock)) {
+            advance();
+        } else {
+            mHandler.removeCallbacks(mNearEndRunnable);
+        }
+    }
+
+    @Override
+    public void onQueueChanged(PlayQueue queue) {
+        CastMedia next = queue.peekNext();
+        if (next != mStagedMedia) {
+            mStagedMedia = next;
+            mStagedMetadata = next != null ? createMetadata(next) : null;
+        }
+    }
+
+    private void advance() {
+        onLoadStarted();
+        CastMedia next = mQueue.peekNext();
+        if (next == null) {
+            return;
+        }
+        ContentMetadata metadata = next == mStagedMedia ? mStagedMetadata : createMetadata(next);
+        mQueue.advance();
+        mCallback.onAdvance(next, metadata);
+    }
+
+    private static boolean isFinished(PlayerState state, PlaybackClock clock) {
+        if (state == PlayerState.IDLE) {
+            return true;
+        }
+        double duration = clock.getDuration();
+        return duration > 0 && clock.getPosition() >= duration - END_TOLERANCE_SECONDS;
+    }
+
+    private void scheduleNearEnd(PlaybackClock clock) {
+        mHandler.removeCallbacks(mNearEndRunnable);
+        double duration = clock.getDuration();
+        if (duration <= 0 || mQueue.peekNext() == null) {
+            return;
+        }
+        long remainingMs = (long) ((duration - clock.getPosition()) * 1000);
+        mHandler.postDelayed(mNearEndRunnable, Math.max(0, remainingMs - END_LEAD_MS));
+    }
+}
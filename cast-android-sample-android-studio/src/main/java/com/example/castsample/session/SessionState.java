@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.session;
+
+import com.example.castsample.CastMedia;
+import com.google.cast.CastDevice;
+
+/**
+ * An immutable snapshot of the Cast session: its phase, the selected device, the stream commands
+ * go through, the current media and the last player status. Every change produces a new snapshot,
+ * so a reader holding one sees the fields of a single moment, from any thread and without
+ * locking. Snapshots are published through a {@link SessionStateStore}.
+ */
+public final class SessionState {
+
+    /**
+     * The phases of a session. A session only moves between them as {@link #canMoveTo} allows.
+     */
+    public enum Phase {
+        /** No Cast route is selected. */
+        IDLE,
+        /** A Cast route is selected and its device is being looked up. */
+        SELECTED,
+        /** The receiver application is being launched or rejoined. */
+        CONNECTING,
+        /**
+         * Connected to the receiver, waiting for its status to tell whether the last media is
+         * still loaded.
+         */
+        REJOINING,
+        /** Connected to the receiver. */
+        CONNECTED;
+
+        /**
+         * Returns whether a session in this phase may move to the given one. Staying in the same
+         * phase is always allowed.
+         */
+        public boolean canMoveTo(Phase next) {
+            if (next == this || next == IDLE) {
+                return true;
+            }
+            switch (this) {
+                case IDLE:
+                    return next == SELECTED;
+                case SELECTED:
+                    return next == CONNECTING;
+                case CONNECTING:
+                    return next == SELECTED || next == REJOINING || next == CONNECTED;
+                case REJOINING:
+                    return next == SELECTED || next == CONNECTING || next == CONNECTED;
+                case CONNECTED:
+                    return next == SELECTED || next == CONNECTING;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /** The state before any route has been selected. */
+    public static final SessionState INITIAL = new SessionState(Phase.IDLE, null, null, null,
+            null, new CastMedia(null, null), null, false, false, 0);
+
+    private final Phase mPhase;
+    private final CastDevice mDevice;
+    private final String mDeviceName;
+    private final StatusMessageStream mMessageStream;
+    private final PlayerStatus mPlayer;
+    private final CastMedia mMedia;
+    private final CastMedia mNextMedia;
+    private final boolean mPaused;
+    private final boolean mVideoStopped;
+    private final int mExtraScreens;
+
+    private SessionState(Phase phase, CastDevice device, String deviceName,
+            StatusMessageStream messageStream, PlayerStatus player, CastMedia media,
+            CastMedia nextMedia, boolean paused, boolean videoStopped, int extraScreens) {
+        mPhase = phase;
+        mDevice = device;
+        mDeviceName = deviceName;
+        mMessageStream = messageStream;
+        mPlayer = player;
+        mMedia = media;
+        mNextMedia = nextMedia;
+        mPaused = paused;
+        mVideoStopped = videoStopped;
+        mExtraScreens = extraScreens;
+    }
+
+    public Phase getPhase() {
+        return mPhase;
+    }
+
+    /**
+     * Returns whether a Cast route is selected, in which case discovery is not needed.
+     */
+    public boolean isRouteSelected() {
+        return mPhase != Phase.IDLE;
+    }
+
+    /**
+     * Returns whether a session has been opened, even if it is still connecting.
+     */
+    public boolean isSessionOpen() {
+        return mPhase == Phase.CONNECTING || mPhase == Phase.REJOINING
+                || mPhase == Phase.CONNECTED;
+    }
+
+    /**
+     * Returns the selected device, or null before it has been found.
+     */
+    public CastDevice getDevice() {
+        return mDevice;
+    }
+
+    /**
+     * Returns the friendly name of the selected device, or null if there is none.
+     */
+    public String getDeviceName() {
+        return mDeviceName;
+    }
+
+    /**
+     * Returns the stream of the connected session, or null while there is none.
+     */
+    public StatusMessageStream getMessageStream() {
+        return mMessageStream;
+    }
+
+    /**
+     * Returns the last status reported on the current stream, or null if none has arrived.
+     */
+    public PlayerStatus getPlayer() {
+        return mPlayer;
+    }
+
+    /**
+     * Returns the current media, whose URL is null if none has been selected.
+     */
+    public CastMedia getMedia() {
+        return mMedia;
+    }
+
+    /**
+     * Returns the media the play queue plays next, or null.
+     */
+    public CastMedia getNextMedia() {
+        return mNextMedia;
+    }
+
+    /**
+     * Returns whether playback has been paused or stopped, as far as the commands sent so far
+     * and the last status tell.
+     */
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    /**
+     * Returns whether the last stop command has not been followed by play, so the media has to
+     * be played from the start rather than resumed.
+     */
+    public boolean isVideoStopped() {
+        return mVideoStopped;
+    }
+
+    /**
+     * Returns how many screens besides the selected device the session has been extended to.
+     * They stay while the selected device changes.
+     */
+    public int getExtraScreens() {
+        return mExtraScreens;
+    }
+
+    /**
+     * Returns this state moved to the given phase. Leaving the connected phases drops the stream
+     * and the player state, and moving to IDLE also drops the device.
+     *
+     * @throws IllegalStateException if the phase cannot be reached from the current one
+     */
+    public SessionState moveTo(Phase phase) {
+        if (phase == mPhase) {
+            return this;
+        }
+        if (!mPhase.canMoveTo(phase)) {
+            throw new IllegalStateException("Cannot move from " + mPhase + " to " + phase);
+        }
+        if (phase == Phase.IDLE) {
+            return new SessionState(phase, null, null, null, null, mMedia, mNextMedia, false,
+                    false, mExtraScreens);
+        }
+        if (phase == Phase.SELECTED) {
+            return new SessionState(phase, mDevice, mDeviceName, null, null, mMedia, mNextMedia,
+                    false, false, mExtraScreens);
+        }
+        return new SessionState(phase, mDevice, mDeviceName, mMessageStream, mPlayer, mMedia,
+                mNextMedia, mPaused, mVideoStopped, mExtraScreens);
+    }
+
+    public SessionState withDevice(CastDevice device) {
+        if (device == mDevice) {
+            return this;
+        }
+        return new SessionState(mPhase, device, device != null ? device.getFriendlyName() : null,
+                mMessageStream, mPlayer, mMedia, mNextMedia, mPaused, mVideoStopped, mExtraScreens);
+    }
+
+    /**
+     * Returns this state with the given stream and the last status reported on it.
+     */
+    public SessionState withMessageStream(StatusMessageStream messageStream) {
+        if (messageStream == mMessageStream) {
+            return this;
+        }
+        return new SessionState(mPhase, mDevice, mDeviceName, messageStream,
+                messageStream != null ? messageStream.getStatus() : null, mMedia, mNextMedia,
+                mPaused, mVideoStopped, mExtraScreens);
+    }
+
+    public SessionState withPlayer(PlayerStatus player) {
+        if (player == mPlayer) {
+            return this;
+        }
+        return new SessionState(mPhase, mDevice, mDeviceName, mMessageStream, player, mMedia,
+                mNextMedia, mPaused, mVideoStopped, mExtraScreens);
+    }
+
+    public SessionState withMedia(CastMedia media, CastMedia nextMedia) {
+        if (media == mMedia && nextMedia == mNextMedia) {
+            return this;
+        }
+        return new SessionState(mPhase, mDevice, mDeviceName, mMessageStream, mPlayer, media,
+                nextMedia, mPaused, mVideoStopped, mExtraScreens);
+    }
+
+    public SessionState withPaused(boolean paused) {
+        if (paused == mPaused) {
+            return this;
+        }
+        return new SessionState(mPhase, mDevice, mDeviceName, mMessageStream, mPlayer, mMedia,
+                mNextMedia, paused, mVideoStopped, mExtraScreens);
+    }
+
+    public SessionState withVideoStopped(boolean videoStopped) {
+        if (videoStopped == mVideoStopped) {
+            return this;
+        }
+        return new SessionState(mPhase, mDevice, mDeviceName, mMessageStream, mPlayer, mMedia,
+                mNextMedia, mPaused, videoStopped, mExtraScreens);
+    }
+
+    public SessionState withExtraScreens(int extraScreens) {
+        if (extraScreens == mExtraScreens) {
+            return this;
+        }
+        return new SessionState(mPhase, mDevice, mDeviceName, mMessageStream, mPlayer, mMedia,
+                mNextMedia, mPaused, mVideoStopped, extraScreens);
+    }
+
+    @Override
+    public String toString() {
+        return "SessionState[" + mPhase + ", " + mDeviceName + ", " + mMedia.getTitle() + "]";
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.session;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current {@link SessionState} and publishes every change to it. Writers on any thread
+ * replace the snapshot with a compare-and-set, readers only read a reference, so neither ever
+ * locks. Subscribers are told about changes on the main thread; changes made in quick succession
+ * reach them as one.
+ */
+public class SessionStateStore {
+
+    /**
+     * Receives state changes on the main thread.
+     */
+    public interface Listener {
+        /**
+         * Called with the state the listener was last told about, which is null the first time,
+         * and the current one.
+         */
+        void onStateChanged(SessionState previous, SessionState current);
+    }
+
+    /**
+     * Computes a new state from the current one. May run more than once for a single update if
+     * another thread changes the state meanwhile, so it must not have side effects.
+     */
+    public interface Update {
+        SessionState apply(SessionState state);
+    }
+
+    private final AtomicReference<SessionState> mState =
+            new AtomicReference<SessionState>(SessionState.INITIAL);
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean mDispatchPending = new AtomicBoolean();
+    // Main thread only.
+    private final List<Subscription> mSubscriptions = new ArrayList<Subscription>();
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mDispatchPending.set(false);
+            SessionState current = mState.get();
+            for (Subscription subscription : new ArrayList<Subscription>(mSubscriptions)) {
+                subscription.deliver(current);
+            }
+        }
+    };
+
+    public SessionState get() {
+        return mState.get();
+    }
+
+    /**
+     * Applies the given update atomically and returns the resulting state.
+     */
+    public SessionState update(Update update) {
+        SessionState current;
+        SessionState next;
+        do {
+            current = mState.get();
+            next = update.apply(current);
+        } while (next != current && !mState.compareAndSet(current, next));
+        if (next != current && mDispatchPending.compareAndSet(false, true)) {
+            mHandler.post(mDispatchRunnable);
+        }
+        return next;
+    }
+
+    /**
+     * Adds a listener and tells it about the current state right away. Main thread only.
+     */
+    public void subscribe(Listener listener) {
+        for (Subscription subscription : mSubscriptions) {
+            if (subscription.mListener == listener) {
+                return;
+            }
+        }
+        Subscription subscription = new Subscription(listener);
+        mSubscriptions.add(subscription);
+        subscription.deliver(mState.get());
+    }
+
+    /**
+     * Removes a listener. Main thread only.
+     */
+    public void unsubscribe(Listener listener) {
+        for (int i = 0; i < mSubscriptions.size(); i++) {
+            if (mSubscriptions.get(i).mListener == listener) {
+                mSubscriptions.remove(i);
+                return;
+            }
+        }
+    }
+
+    public boolean hasSubscribers() {
+        return !mSubscriptions.isEmpty();
+    }
+
+    /**
+     * A listener and the state it was last told about.
+     */
+    private static class Subscription {
+        private final Listener mListener;
+        private SessionState mSeen;
+
+        Subscription(Listener listener) {
+            mListener = listener;
+        }
+
+        void deliver(SessionState current) {
+            if (current == mSeen) {
+                return;
+            }
+            SessionState previous = mSeen;
+            mSeen = current;
+            mListener.onStateChanged(previous, current);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.session;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.castsample.CastMedia;
+import com.google.cast.CastDevice;
+
+/**
+ * Remembers the device the last session ran on and the media it was playing, so that a later
+ * launch can rejoin the receiver instead of loading the media again.
+ */
+public class SessionStore {
+
+    private static final String PREFERENCES_NAME = "last_session";
+    private static final String KEY_DEVICE_ID = "device_id";
+    private static final String KEY_MEDIA_TITLE = "media_title";
+    private static final String KEY_MEDIA_URL = "media_url";
+    private static final String KEY_MEDIA_THUMBNAIL = "media_thumbnail";
+    private static final String KEY_MEDIA_IMAGE = "media_image";
+
+    private final SharedPreferences mPreferences;
+
+    public SessionStore(Context context) {
+        mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Records that the given media is playing on the given device.
+     */
+    public void save(CastDevice device, CastMedia media) {
+        mPreferences.edit()
+                .putString(KEY_DEVICE_ID, device.getDeviceId())
+                .putString(KEY_MEDIA_TITLE, media.getTitle())
+                .putString(KEY_MEDIA_URL, media.getUrl())
+                .putString(KEY_MEDIA_THUMBNAIL, media.getThumbnailUrl())
+                .putString(KEY_MEDIA_IMAGE, media.getImageUrl())
+                .apply();
+    }
+
+    /**
+     * Forgets the last session, e.g. after the user has disconnected on purpose.
+     */
+    public void clear() {
+        mPreferences.edit().clear().apply();
+    }
+
+    /**
+     * Returns whether the last session ran on the given device.
+     */
+    public boolean isLastDevice(CastDevice device) {
+        String deviceId = mPreferences.getString(KEY_DEVICE_ID, null);
+        return deviceId != null && deviceId.equals(device.getDeviceId());
+    }
+
+    /**
+     * Returns the media the last session was playing, or null if there is none.
+     */
+    public CastMedia getMedia() {
+        String url = mPreferences.getString(KEY_MEDIA_URL, null);
+        if (url == null) {
+            return null;
+        }
+        return new CastMedia(mPreferences.getString(KEY_MEDIA_TITLE, url), url,
+                mPreferences.getString(KEY_MEDIA_THUMBNAIL, null),
+                mPreferences.getString(KEY_MEDIA_IMAGE, null));
+    }
+}
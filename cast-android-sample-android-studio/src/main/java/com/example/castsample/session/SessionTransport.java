@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.session;
+
+import com.google.cast.ApplicationChannel;
+import com.google.cast.ApplicationMetadata;
+import com.google.cast.ApplicationSession;
+import com.google.cast.CastContext;
+import com.google.cast.CastDevice;
+import com.google.cast.SessionError;
+
+import java.io.IOException;
+
+/**
+ * A CastTransport over an ApplicationSession with a real Cast device. A StatusMessageStream is
+ * attached to the session's channel whenever the session starts.
+ */
+public class SessionTransport implements CastTransport {
+
+    private final CastDevice mDevice;
+    private final ApplicationSession mSession;
+    private final String mApplicationName;
+    private Listener mListener;
+
+    /**
+     * Creates a transport that launches the given receiver application on the given device. The
+     * options are the ApplicationSession.FLAG_ values to apply.
+     */
+    public SessionTransport(CastContext castContext, CastDevice device, String applicationName,
+            int applicationOptions) {
+        mDevice = device;
+        mApplicationName = applicationName;
+        mSession = new ApplicationSession(castContext, device);
+        mSession.setApplicationOptions(applicationOptions);
+        mSession.setListener(new ApplicationSession.Listener() {
+            @Override
+            public void onSessionStarted(ApplicationMetadata appMetadata) {
+                if (mListener == null) {
+                    return;
+                }
+                ApplicationChannel channel = mSession.getChannel();
+                if (channel == null) {
+                    mListener.onConnectFailed("No channel after the session started");
+                    return;
+                }
+                StatusMessageStream messageStream = new StatusMessageStream();
+                channel.attachMessageStream(messageStream);
+                mListener.onConnected(messageStream);
+            }
+
+            @Override
+            public void onSessionStartFailed(SessionError error) {
+                if (mListener != null) {
+                    mListener.onConnectFailed(String.valueOf(error));
+                }
+            }
+
+            @Override
+            public void onSessionEnded(SessionError error) {
+                if (mListener != null) {
+                    mListener.onDisconnected(error != null ? error.toString() : null);
+                }
+            }
+        });
+    }
+
+    public CastDevice getDevice() {
+        return mDevice;
+    }
+
+    @Override
+    public String getDeviceId() {
+        return mDevice.getDeviceId();
+    }
+
+    @Override
+    public String getDeviceName() {
+        return mDevice.getFriendlyName();
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        mSession.startSession(mApplicationName);
+    }
+
+    @Override
+    public boolean canReconnect() {
+        return mSession.isResumable();
+    }
+
+    @Override
+    public void reconnect() throws IOException {
+        mSession.resumeSession();
+    }
+
+    @Override
+    public boolean isActive() {
+        return !mSession.hasStopped();
+    }
+
+    @Override
+    public void disconnect(boolean stopApplication) throws IOException {
+        if (mSession.hasStopped()) {
+            return;
+        }
+        if (stopApplication) {
+            mSession.setStopApplicationWhenEnding(true);
+        }
+        mSession.endSession();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.session;
+
+import com.google.cast.MediaProtocolMessageStream;
+
+/**
+ * A MediaProtocolMessageStream that reports every status update received from the receiver to a
+ * listener, so that callers can react to fresh status instead of sleeping and re-reading it. Each
+ * update also re-anchors the stream's PlaybackClock at the moment the status arrived, and is
+ * published as an immutable PlayerStatus for readers on other threads.
+ */
+public class StatusMessageStream extends MediaProtocolMessageStream {
+
+    /**
+     * Receives a callback whenever the receiver reports new player status.
+     */
+    public interface Listener {
+        void onStatusUpdated(StatusMessageStream stream);
+    }
+
+    private final PlaybackClock mPlaybackClock = new PlaybackClock();
+    private volatile Listener mListener;
+    private volatile PlayerStatus mStatus;
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public PlaybackClock getPlaybackClock() {
+        return mPlaybackClock;
+    }
+
+    /**
+     * Returns the last status reported by the receiver, or null if none has arrived yet.
+     */
+    public PlayerStatus getStatus() {
+        return mStatus;
+    }
+
+    @Override
+    protected void onStatusUpdated() {
+        super.onStatusUpdated();
+        PlayerStatus status = PlayerStatus.from(this);
+        mStatus = status;
+        mPlaybackClock.update(status.getPlayerState(), status.isProgressing(),
+                status.getPosition(), status.getDuration());
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onStatusUpdated(this);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2013 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.castsample.session;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.cast.MediaProtocolCommand;
+import com.google.cast.MediaProtocolMessageStream;
+import com.google.cast.MediaProtocolMessageStream.PlayerState;
+
+/**
+ * Requests player status from the receiver while both a session and a started owner are present.
+ * The poll interval follows the player state, and every status update received from the stream
+ * re-arms the next poll, so no requests are sent while the receiver is already pushing status.
+ * All methods must be called on the main thread.
+ */
+public class StatusScheduler implements StatusMessageStream.Listener {
+
+    private static final String TAG = StatusScheduler.class.getSimpleName();
+
+    /** Poll interval while seeking or while playback has stalled for buffering. */
+    public static final long FAST_INTERVAL_MS = 500;
+    /** Poll interval during steady playback; the PlaybackClock fills in between polls. */
+    public static final long PLAYING_INTERVAL_MS = 5000;
+    /** Poll interval while stopped, paused or idle. */
+    public static final long SLOW_INTERVAL_MS = 10000;
+    /** How long fast polling is kept up after a seek has been requested. */
+    private static final long FAST_WINDOW_MS = 3000;
+
+    /**
+     * Receives a callback on the main thread whenever fresh status is available.
+     */
+    public interface Callback {
+        void onStatusUpdated();
+    }
+
+    private final Handler mHandler;
+    private final CastCommandExecutor mCommandExecutor;
+    private final Callback mCallback;
+    // Also read by onStatusUpdated, which runs on the thread the stream receives messages on.
+    private volatile StatusMessageStream mMessageStream;
+    private MediaProtocolCommand mLastStatusRequest;
+    private boolean mStarted;
+    private long mFastUntil;
+
+    private final Runnable mPollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            poll();
+        }
+    };
+
+    private final CastCommandExecutor.Callback mStatusRequestCallback =
+            new CastCommandExecutor.Callback() {
+        @Override
+        public void onCompleted(MediaProtocolCommand command) {
+            mLastStatusRequest = command;
+        }
+
+        @Override
+        public void onFailed(MediaProtocolCommand command, Exception e) {
+            // The executor logs failures; the next poll simply tries again.
+        }
+    };
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mCallback.onStatusUpdated();
+            reschedule();
+        }
+    };
+
+    /**
+     * Creates a new StatusScheduler which sends its status requests through the given executor
+     * and reports status to the given callback.
+     */
+    public StatusScheduler(CastCommandExecutor commandExecutor, Callback callback) {
+        mHandler = new Handler(Looper.getMainLooper());
+        mCommandExecutor = commandExecutor;
+        mCallback = callback;
+    }
+
+    /**
+     * Starts polling, if a message stream is attached. Typically called from onStart.
+     */
+    public void start() {
+        mStarted = true;
+        reschedule();
+        mHandler.post(mDispatchRunnable);
+    }
+
+    /**
+     * Stops polling until the next call to start. Typically called from onStop.
+     */
+    public void stop() {
+        mStarted = false;
+        mHandler.removeCallbacks(mPollRunnable);
+        mHandler.removeCallbacks(mDispatchRunnable);
+    }
+
+    /**
+     * Attaches the message stream of the current session, or detaches it if null. Polling stops
+     * entirely while no stream is attached.
+     */
+    public void setMessageStream(StatusMessageStream stream) {
+        if (mMessageStream != null) {
+            mMessageStream.setListener(null);
+        }
+        mMessageStream = stream;
+        mLastStatusRequest = null;
+        if (stream != null) {
+            stream.setListener(this);
+        }
+        reschedule();
+    }
+
+    /**
+     * Switches to the fast interval for a short while, e.g. after a seek has been sent, and polls
+     * right away.
+     */
+    public void requestFastUpdates() {
+        mFastUntil = SystemClock.elapsedRealtime() + FAST_WINDOW_MS;
+        refreshNow();
+    }
+
+    /**
+     * Requests status immediately, e.g. after a command has changed the player state.
+     */
+    public void refreshNow() {
+        mHandler.removeCallbacks(mPollRunnable);
+        if (mStarted && mMessageStream != null) {
+            mHandler.post(mPollRunnable);
+        }
+    }
+
+    /**
+     * Returns the most recent status request, or null if none has been sent on this stream.
+     */
+    public MediaProtocolCommand getLastStatusRequest() {
+        return mLastStatusRequest;
+    }
+
+    @Override
+    public void onStatusUpdated(StatusMessageStream stream) {
+        if (stream != mMessageStream) {
+            return;
+        }
+        mHandler.removeCallbacks(mDispatchRunnable);
+        if (mStarted) {
+            mHandler.post(mDispatchRunnable);
+        }
+    }
+
+    /**
+     * Returns the delay before the next poll for the current player state, or 0 if there is
+     * nothing to poll.
+     */
+    long currentInterval() {
+        MediaProtocolMessageStream stream = mMessageStream;
+        if (stream == null) {
+            return 0;
+        }
+        if (SystemClock.elapsedRealtime() < mFastUntil) {
+            return FAST_INTERVAL_MS;
+        }
+        PlayerState state = stream.getPlayerState();
+        if (state == PlayerState.PLAYING) {
+            return stream.isStreamProgressing() ? PLAYING_INTERVAL_MS : FAST_INTERVAL_MS;
+        }
+        return SLOW_INTERVAL_MS;
+    }
+
+    private void reschedule() {
+        mHandler.removeCallbacks(mPollRunnable);
+        long interval = currentInterval();
+        if (mStarted && interval > 0) {
+            mHandler.postDelayed(mPollRunnable, interval);
+        }
+    }
+
+    private void poll() {
+        if (!mStarted || mMessageStream == null) {
+            return;
+        }
+        mCommandExecutor.requestStatus(mStatusRequestCallback);
+        // Re-arm in case the receiver never answers; a status update re-arms it sooner.
+        reschedule();
+    }
+}